@@ -0,0 +1,140 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.benchmark;
+
+import java.util.List;
+
+import org.olap4j.Axis;
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapException;
+import org.olap4j.metadata.Catalog;
+import org.olap4j.metadata.Cube;
+import org.olap4j.metadata.Member;
+import org.saiku.query.Query;
+import org.saiku.query.QueryHierarchy;
+import org.saiku.query.TestContext;
+import org.saiku.query.mdx.IFilterFunction.MdxFunctionType;
+import org.saiku.query.mdx.NFilter;
+import org.saiku.query.mdx.NameFilter;
+import org.saiku.query.mdx.NameLikeFilter;
+import org.saiku.query.metadata.CalculatedMeasure;
+import org.saiku.query.metadata.CalculatedMember;
+
+/**
+ * The queries measured by the benchmarks, all against the Sales cube of the
+ * FoodMart database used by the tests, see {@link TestContext}.
+ */
+public final class BenchmarkQueries {
+
+	private BenchmarkQueries() {
+	}
+
+	public static Cube getSalesCube() throws OlapException {
+		OlapConnection connection = TestContext.instance().createConnection();
+		if (connection == null) {
+			throw new IllegalStateException("Cannot connect to FoodMart, see connection.properties");
+		}
+		Catalog catalog = connection.getOlapCatalogs().get("FoodMart");
+		return catalog.getSchemas().get(0).getCubes().get("Sales");
+	}
+
+	/**
+	 * Two levels of products against the stores of each country.
+	 */
+	public static Query simple(Cube cube) throws Exception {
+		Query query = new Query("simple", cube);
+		QueryHierarchy products = query.getHierarchy("[Product]");
+		products.includeLevel("Product Family");
+		products.includeLevel("Product Category");
+		query.getAxis(Axis.COLUMNS).addHierarchy(products);
+		QueryHierarchy stores = query.getHierarchy("[Store]");
+		stores.includeLevel("Store Country");
+		stores.includeLevel("Store State");
+		query.getAxis(Axis.ROWS).addHierarchy(stores);
+		query.getDetails().add(query.getMeasure("Unit Sales"));
+		return query;
+	}
+
+	/**
+	 * Name, name like and top count filters on three hierarchies.
+	 */
+	public static Query filtered(Cube cube) throws Exception {
+		Query query = new Query("filtered", cube);
+		QueryHierarchy time = query.getHierarchy("[Time]");
+		time.includeLevel("Quarter");
+		time.addFilter(new NameFilter(time.getHierarchy(), "Q1", "Q2"));
+		query.getAxis(Axis.ROWS).addHierarchy(time);
+		QueryHierarchy products = query.getHierarchy("[Product]");
+		products.includeLevel("Product Department");
+		products.addFilter(new NameLikeFilter(products.getHierarchy(), "Be", "Ba"));
+		query.getAxis(Axis.ROWS).addHierarchy(products);
+		QueryHierarchy stores = query.getHierarchy("[Store]");
+		stores.includeLevel("Store City");
+		stores.addFilter(new NFilter(MdxFunctionType.TopCount, 5, "[Measures].[Unit Sales]"));
+		query.getAxis(Axis.COLUMNS).addHierarchy(stores);
+		return query;
+	}
+
+	/**
+	 * A calculated member and a calculated measure.
+	 */
+	public static Query calculated(Cube cube) throws Exception {
+		Query query = new Query("calculated", cube);
+		QueryHierarchy products = query.getHierarchy("[Product]");
+		CalculatedMember consumable = query.createCalculatedMember(
+				products, "Consumable", "Aggregate({[Product].[Drink], [Product].[Food]})", null);
+		products.includeCalculatedMember(consumable);
+		products.includeLevel("Product Family");
+		query.getAxis(Axis.ROWS).addHierarchy(products);
+		QueryHierarchy gender = query.getHierarchy("[Gender]");
+		gender.includeLevel("Gender");
+		query.getAxis(Axis.COLUMNS).addHierarchy(gender);
+		CalculatedMeasure profit = query.createCalculatedMeasure(
+				"Profit", "[Measures].[Store Sales] - [Measures].[Store Cost]", null);
+		query.getDetails().add(profit);
+		query.getDetails().add(query.getMeasure("Store Sales"));
+		return query;
+	}
+
+	/**
+	 * Every customer included one by one, about ten thousand members.
+	 */
+	public static Query largeInclusion(Cube cube) throws Exception {
+		Query query = new Query("large inclusion", cube);
+		QueryHierarchy customers = query.getHierarchy("[Customers]");
+		List<Member> names = customers.getHierarchy().getLevels().get("Name").getMembers();
+		customers.includeMembers(names);
+		query.getAxis(Axis.ROWS).addHierarchy(customers);
+		query.getDetails().add(query.getMeasure("Unit Sales"));
+		return query;
+	}
+
+	/**
+	 * Every customer against the product departments, about 200 thousand
+	 * cells.
+	 */
+	public static Query export(Cube cube) throws Exception {
+		Query query = new Query("export", cube);
+		QueryHierarchy customers = query.getHierarchy("[Customers]");
+		customers.includeLevel("Name");
+		query.getAxis(Axis.ROWS).addHierarchy(customers);
+		QueryHierarchy products = query.getHierarchy("[Product]");
+		products.includeLevel("Product Department");
+		query.getAxis(Axis.COLUMNS).addHierarchy(products);
+		query.getDetails().add(query.getMeasure("Unit Sales"));
+		return query;
+	}
+}
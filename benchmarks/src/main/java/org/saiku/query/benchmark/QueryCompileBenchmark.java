@@ -0,0 +1,96 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.olap4j.mdx.SelectNode;
+import org.olap4j.metadata.Cube;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.saiku.query.Query;
+
+/**
+ * Building queries and compiling them into MDX, without executing them.
+ * The queries are marked as modified before each compilation, so the
+ * compiled query cache does not answer it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryCompileBenchmark {
+
+	private Cube cube;
+	private Query simple;
+	private Query filtered;
+	private Query calculated;
+	private Query largeInclusion;
+
+	@Setup
+	public void setUp() throws Exception {
+		cube = BenchmarkQueries.getSalesCube();
+		simple = BenchmarkQueries.simple(cube);
+		filtered = BenchmarkQueries.filtered(cube);
+		calculated = BenchmarkQueries.calculated(cube);
+		largeInclusion = BenchmarkQueries.largeInclusion(cube);
+	}
+
+	@Benchmark
+	public Query construction() throws Exception {
+		return BenchmarkQueries.simple(cube);
+	}
+
+	@Benchmark
+	public SelectNode select() throws Exception {
+		simple.markModified();
+		return simple.getSelect();
+	}
+
+	@Benchmark
+	public String mdx() throws Exception {
+		simple.markModified();
+		return simple.getMdx();
+	}
+
+	@Benchmark
+	public String filteredMdx() throws Exception {
+		filtered.markModified();
+		return filtered.getMdx();
+	}
+
+	@Benchmark
+	public String calculatedMdx() throws Exception {
+		calculated.markModified();
+		return calculated.getMdx();
+	}
+
+	@Benchmark
+	public String largeInclusionMdx() throws Exception {
+		largeInclusion.markModified();
+		return largeInclusion.getMdx();
+	}
+}
@@ -0,0 +1,96 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.olap4j.CellSet;
+import org.olap4j.metadata.Cube;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.saiku.query.Query;
+
+/**
+ * Executing compiled queries against FoodMart and reading every cell.
+ * Mondrian caches the cell values after the first execution, so this
+ * mostly measures the query evaluation and the olap4j result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryExecuteBenchmark {
+
+	private Query simple;
+	private Query filtered;
+	private Query calculated;
+	private Query largeInclusion;
+
+	@Setup
+	public void setUp() throws Exception {
+		Cube cube = BenchmarkQueries.getSalesCube();
+		simple = BenchmarkQueries.simple(cube);
+		filtered = BenchmarkQueries.filtered(cube);
+		calculated = BenchmarkQueries.calculated(cube);
+		largeInclusion = BenchmarkQueries.largeInclusion(cube);
+	}
+
+	@Benchmark
+	public void simple(Blackhole blackhole) throws Exception {
+		execute(simple, blackhole);
+	}
+
+	@Benchmark
+	public void filtered(Blackhole blackhole) throws Exception {
+		execute(filtered, blackhole);
+	}
+
+	@Benchmark
+	public void calculated(Blackhole blackhole) throws Exception {
+		execute(calculated, blackhole);
+	}
+
+	@Benchmark
+	public void largeInclusion(Blackhole blackhole) throws Exception {
+		execute(largeInclusion, blackhole);
+	}
+
+	private static void execute(Query query, Blackhole blackhole) throws Exception {
+		CellSet cellSet = query.execute();
+		try {
+			int cells = 1;
+			for (int i = 0; i < cellSet.getAxes().size(); i++) {
+				cells *= cellSet.getAxes().get(i).getPositionCount();
+			}
+			for (int i = 0; i < cells; i++) {
+				blackhole.consume(cellSet.getCell(i).getValue());
+			}
+		} finally {
+			cellSet.getStatement().close();
+		}
+	}
+}
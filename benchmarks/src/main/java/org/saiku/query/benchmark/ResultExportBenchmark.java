@@ -0,0 +1,177 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.olap4j.Cell;
+import org.olap4j.CellSet;
+import org.olap4j.CellSetAxis;
+import org.olap4j.Position;
+import org.olap4j.metadata.Member;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.saiku.query.Query;
+import org.saiku.query.result.BinaryResultReader;
+import org.saiku.query.result.BinaryResultWriter;
+import org.saiku.query.result.ColumnarSnapshot;
+
+/**
+ * Serializing an executed result as JSON, cell by cell the way the REST
+ * tier does, against the binary format of {@link BinaryResultWriter}.
+ * The result is executed once, all benchmarks read the same CellSet.
+ * Output goes to a stream that discards it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResultExportBenchmark {
+
+	private CellSet cellSet;
+	private ColumnarSnapshot snapshot;
+	private byte[] binary;
+	private final NullOutputStream sink = new NullOutputStream();
+	private final WritableByteChannel channel = Channels.newChannel(sink);
+
+	@Setup
+	public void setUp() throws Exception {
+		Query query = BenchmarkQueries.export(BenchmarkQueries.getSalesCube());
+		cellSet = query.execute();
+		snapshot = new ColumnarSnapshot(cellSet);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryResultWriter.write(snapshot, Channels.newChannel(out));
+		binary = out.toByteArray();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		cellSet.getStatement().close();
+	}
+
+	@Benchmark
+	public long json() throws Exception {
+		Writer writer = new OutputStreamWriter(sink, "UTF-8");
+		writeJson(cellSet, writer);
+		writer.flush();
+		return sink.count;
+	}
+
+	/**
+	 * Copying the CellSet and writing the copy, the equivalent of
+	 * {@link #json()}.
+	 */
+	@Benchmark
+	public long binary() throws Exception {
+		return BinaryResultWriter.write(new ColumnarSnapshot(cellSet), channel);
+	}
+
+	@Benchmark
+	public long binaryWrite() throws Exception {
+		return BinaryResultWriter.write(snapshot, channel);
+	}
+
+	@Benchmark
+	public ColumnarSnapshot binaryRead() throws Exception {
+		return BinaryResultReader.read(Channels.newChannel(new ByteArrayInputStream(binary)));
+	}
+
+	private static void writeJson(CellSet cellSet, Writer writer) throws IOException {
+		List<CellSetAxis> axes = cellSet.getAxes();
+		writer.write("{\"axes\":[");
+		int cells = 1;
+		for (int i = 0; i < axes.size(); i++) {
+			writer.write(i == 0 ? "[" : ",[");
+			boolean first = true;
+			for (Position p : axes.get(i).getPositions()) {
+				writer.write(first ? "[" : ",[");
+				first = false;
+				for (int m = 0; m < p.getMembers().size(); m++) {
+					Member member = p.getMembers().get(m);
+					writer.write(m == 0 ? "{" : ",{");
+					writeField(writer, "uniqueName", member.getUniqueName());
+					writer.write(",");
+					writeField(writer, "caption", member.getCaption());
+					writer.write("}");
+				}
+				writer.write("]");
+			}
+			writer.write("]");
+			cells *= axes.get(i).getPositionCount();
+		}
+		writer.write("],\"cells\":[");
+		for (int i = 0; i < cells; i++) {
+			Cell cell = cellSet.getCell(i);
+			writer.write(i == 0 ? "{" : ",{");
+			writer.write("\"value\":");
+			writer.write(cell.isNull() ? "null" : String.valueOf(cell.getValue()));
+			writer.write(",");
+			writeField(writer, "formatted", cell.getFormattedValue());
+			writer.write("}");
+		}
+		writer.write("]}");
+	}
+
+	private static void writeField(Writer writer, String name, String value) throws IOException {
+		writer.write("\"");
+		writer.write(name);
+		writer.write("\":\"");
+		if (value != null) {
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == '"' || c == '\\') {
+					writer.write('\\');
+				}
+				writer.write(c);
+			}
+		}
+		writer.write("\"");
+	}
+
+	private static class NullOutputStream extends OutputStream {
+		private long count = 0;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
@@ -33,6 +33,13 @@ public abstract class AbstractQuerySet implements IQuerySet {
 
 	
 	public abstract String getName();
+
+	/**
+	 * Called after every change of this query set, so the owning query
+	 * can invalidate what it compiled from it.
+	 */
+	protected void modified() {
+	}
 	
 	public boolean isSimple() {
 		return (mdxExpression == null && filters.isEmpty());
@@ -44,7 +51,7 @@ public abstract class AbstractQuerySet implements IQuerySet {
 	@Override
 	public void setMdxSetExpression(String mdxSetExpression) {
 		this.mdxExpression = mdxSetExpression;
-		
+		modified();
 	}
 	
 	/* (non-Javadoc)
@@ -66,11 +73,13 @@ public abstract class AbstractQuerySet implements IQuerySet {
 	@Override
 	public void addFilter(IFilterFunction filter) {
 		filters.add(filter);
+		modified();
 	}
 	
 	@Override
 	public void setFilter(int index, IFilterFunction filter) {
 		filters.set(index, filter);
+		modified();
 	}
 
 	@Override
@@ -80,6 +89,7 @@ public abstract class AbstractQuerySet implements IQuerySet {
 	@Override
 	public void clearFilters() {
 		filters.clear();
+		modified();
 	}
 	
 
@@ -27,7 +27,7 @@ public abstract class AbstractSortableQuerySet extends AbstractQuerySet implemen
 	@Override
 	public void sort(SortOrder order) {
 		this.sortOrder = order;
-
+		modified();
 	}
 	
 	/* (non-Javadoc)
@@ -37,6 +37,7 @@ public abstract class AbstractSortableQuerySet extends AbstractQuerySet implemen
 	public void sort(SortOrder order, String sortEvaluationLiteral) {
 		this.sortOrder = order;
 		this.sortEvaluationLiteral = sortEvaluationLiteral;
+		modified();
 	}
 
 	/* (non-Javadoc)
@@ -59,6 +60,7 @@ public abstract class AbstractSortableQuerySet extends AbstractQuerySet implemen
 	public void clearSort() {
 		this.sortOrder = null;
 		this.sortEvaluationLiteral = null;
+		modified();
 	}
 
 	/* (non-Javadoc)
@@ -75,7 +77,7 @@ public abstract class AbstractSortableQuerySet extends AbstractQuerySet implemen
 	@Override
 	public void setHierarchizeMode(HierarchizeMode hierarchizeMode) {
 		this.hierarchizeMode = hierarchizeMode;
-
+		modified();
 	}
 
 	/* (non-Javadoc)
@@ -84,7 +86,7 @@ public abstract class AbstractSortableQuerySet extends AbstractQuerySet implemen
 	@Override
 	public void clearHierarchizeMode() {
 		this.hierarchizeMode = null;
-
+		modified();
 	}
 
 
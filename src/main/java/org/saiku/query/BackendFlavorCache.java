@@ -0,0 +1,91 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapException;
+import org.saiku.query.Query.BackendFlavor;
+
+/**
+ * Remembers the {@link BackendFlavor} of each {@link OlapConnection}, so the
+ * database metadata (a remote call for XMLA connections) is only asked once
+ * per connection. Connections are weakly referenced.
+ */
+public class BackendFlavorCache {
+
+	private static final Map<OlapConnection, BackendFlavor> flavors =
+			Collections.synchronizedMap(new WeakHashMap<OlapConnection, BackendFlavor>());
+
+	private BackendFlavorCache() {
+	}
+
+	/**
+	 * Returns the flavor of the given connection, detecting it on first use.
+	 * @param connection the connection
+	 * @return the backend flavor
+	 * @throws OlapException if the database metadata cannot be read
+	 */
+	public static BackendFlavor getFlavor(OlapConnection connection) throws OlapException {
+		BackendFlavor flavor = flavors.get(connection);
+		if (flavor == null) {
+			flavor = detectFlavor(connection);
+			flavors.put(connection, flavor);
+		}
+		return flavor;
+	}
+
+	/**
+	 * Explicitly sets the flavor of a connection, no detection will be
+	 * performed for it anymore.
+	 * @param connection the connection
+	 * @param flavor the flavor to use for all queries on this connection
+	 */
+	public static void setFlavor(OlapConnection connection, BackendFlavor flavor) {
+		if (flavor == null) {
+			flavors.remove(connection);
+		} else {
+			flavors.put(connection, flavor);
+		}
+	}
+
+	/**
+	 * Forgets the flavor of a connection, it will be detected again on next use.
+	 * @param connection the connection
+	 */
+	public static void clear(OlapConnection connection) {
+		flavors.remove(connection);
+	}
+
+	public static void clear() {
+		flavors.clear();
+	}
+
+	private static BackendFlavor detectFlavor(OlapConnection connection) throws OlapException {
+		final String dataSourceInfo =
+				connection.getOlapDatabase().getDataSourceInfo();
+		final String provider = connection.getOlapDatabase().getProviderName();
+		for (BackendFlavor flavor : BackendFlavor.values()) {
+			if (provider.contains(flavor.getToken()) || dataSourceInfo.contains(flavor.getToken())) {
+				return flavor;
+			}
+		}
+		throw new AssertionError("Can't determine the backend vendor. (" + dataSourceInfo + ")");
+	}
+}
@@ -0,0 +1,185 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.olap4j.CellSet;
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapException;
+import org.olap4j.OlapStatement;
+import org.saiku.query.metrics.QueryMetricsListener;
+import org.saiku.query.metrics.QueryPhase;
+import org.saiku.query.result.BatchResult;
+import org.saiku.query.result.ResultSnapshot;
+
+/**
+ * Executes batches of independent queries in parallel on a pool of
+ * connections, e.g. all queries of a dashboard.
+ * <p>The connections must be connected to the same server and catalog
+ * as the queries, they are not the connections the queries were created
+ * with. Every query runs on one of the pooled connections and its results
+ * are copied into a {@link ResultSnapshot}, so the connection can be used
+ * by the next query right away. The executor does not close the pooled
+ * connections.
+ */
+public class BatchExecutor {
+
+	private static final AtomicInteger poolNumber = new AtomicInteger();
+
+	private final BlockingQueue<OlapConnection> connections;
+	private final ExecutorService threads;
+
+	/**
+	 * @param connections the pooled connections, one worker thread is
+	 * started for each of them
+	 */
+	public BatchExecutor(List<OlapConnection> connections) {
+		if (connections.isEmpty()) {
+			throw new IllegalArgumentException("At least one connection is required");
+		}
+		this.connections = new ArrayBlockingQueue<OlapConnection>(connections.size(), false, connections);
+		final String prefix = "saiku-batch-" + poolNumber.incrementAndGet() + "-";
+		this.threads = Executors.newFixedThreadPool(connections.size(), new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, prefix + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Executes the queries and waits for all of them to finish. A failing
+	 * query does not stop the others, its error is part of the result.
+	 * @param queries the queries to execute
+	 * @return the results in the order of the queries
+	 * @throws OlapException if a query cannot be compiled, no query is
+	 * executed then
+	 * @throws InterruptedException if the current thread was interrupted
+	 * while waiting, the remaining queries are cancelled
+	 */
+	public BatchResult execute(List<Query> queries) throws OlapException, InterruptedException {
+		long start = System.nanoTime();
+		// compile on the calling thread before submitting anything, queries
+		// are not thread safe and a failing query must not leave others running
+		String[] mdx = new String[queries.size()];
+		for (int i = 0; i < queries.size(); i++) {
+			queries.get(i).checkCardinality();
+			mdx[i] = queries.get(i).getMdx();
+		}
+		final long[] latencies = new long[queries.size()];
+		List<Future<ResultSnapshot>> futures = new ArrayList<Future<ResultSnapshot>>(queries.size());
+		boolean completed = false;
+		try {
+			for (int i = 0; i < queries.size(); i++) {
+				final Query query = queries.get(i);
+				final String queryMdx = mdx[i];
+				final String catalogName = query.getCatalog().getName();
+				final int index = i;
+				futures.add(threads.submit(new Callable<ResultSnapshot>() {
+					public ResultSnapshot call() throws Exception {
+						OlapConnection connection = connections.take();
+						long queryStart = System.nanoTime();
+						try {
+							return execute(connection, catalogName, queryMdx, query);
+						} finally {
+							latencies[index] = System.nanoTime() - queryStart;
+							// not put(), a cancelled worker must still return its
+							// connection, the queue never holds more than the pool
+							connections.offer(connection);
+						}
+					}
+				}));
+			}
+			List<ResultSnapshot> snapshots = new ArrayList<ResultSnapshot>(queries.size());
+			List<OlapException> errors = new ArrayList<OlapException>(queries.size());
+			for (Future<ResultSnapshot> future : futures) {
+				try {
+					snapshots.add(future.get());
+					errors.add(null);
+				} catch (ExecutionException e) {
+					snapshots.add(null);
+					errors.add(e.getCause() instanceof OlapException
+							? (OlapException) e.getCause()
+							: new OlapException("Error while executing query", e.getCause()));
+				}
+			}
+			completed = true;
+			return new BatchResult(snapshots, errors, latencies, System.nanoTime() - start);
+		} finally {
+			if (!completed) {
+				for (Future<ResultSnapshot> future : futures) {
+					future.cancel(true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @see #execute(List)
+	 */
+	public BatchResult execute(Query... queries) throws OlapException, InterruptedException {
+		return execute(Arrays.asList(queries));
+	}
+
+	/**
+	 * Stops the worker threads, the pooled connections stay open.
+	 */
+	public void shutdown() {
+		threads.shutdown();
+	}
+
+	private static ResultSnapshot execute(OlapConnection connection, String catalogName, String mdx, Query query)
+			throws OlapException
+	{
+		try {
+			if (!catalogName.equals(connection.getCatalog())) {
+				connection.setCatalog(catalogName);
+			}
+		} catch (SQLException e) {
+			throw new OlapException("Error while executing query", e);
+		}
+		OlapStatement statement = StatementManager.acquire(connection, false);
+		CellSet cellSet = null;
+		try {
+			QueryMetricsListener metricsListener = query.getMetricsListener();
+			long start = System.nanoTime();
+			cellSet = statement.executeOlapQuery(mdx);
+			metricsListener.phaseCompleted(query, QueryPhase.EXECUTE, System.nanoTime() - start);
+			start = System.nanoTime();
+			ResultSnapshot snapshot = new ResultSnapshot(cellSet);
+			metricsListener.phaseCompleted(query, QueryPhase.TRAVERSE, System.nanoTime() - start);
+			return snapshot;
+		} finally {
+			StatementManager.release(statement, cellSet, false);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query;
+
+import org.olap4j.Axis;
+import org.olap4j.OlapException;
+
+/**
+ * Thrown instead of executing a query whose axis is estimated to have more
+ * tuples than its {@link CardinalityGuard} allows.
+ */
+public class CardinalityExceededException extends OlapException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Axis axis;
+	private final long estimate;
+	private final long maximum;
+
+	public CardinalityExceededException(Axis axis, long estimate, long maximum) {
+		super("Axis " + axis + " has an estimated " + estimate + " tuples, the maximum is " + maximum);
+		this.axis = axis;
+		this.estimate = estimate;
+		this.maximum = maximum;
+	}
+
+	public Axis getAxis() {
+		return axis;
+	}
+
+	public long getEstimate() {
+		return estimate;
+	}
+
+	public long getMaximum() {
+		return maximum;
+	}
+}
@@ -0,0 +1,95 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query;
+
+import java.util.Map;
+
+import org.olap4j.Axis;
+import org.saiku.query.util.CardinalityEstimator;
+
+/**
+ * Limits the estimated number of tuples on the columns and rows of a query,
+ * see {@link Query#setCardinalityGuard(CardinalityGuard)} and
+ * {@link CardinalityEstimator}. Axes whose size cannot be estimated are
+ * not limited.
+ */
+public class CardinalityGuard {
+
+	public enum Action {
+		/**
+		 * Executing the query fails with a {@link CardinalityExceededException}.
+		 */
+		REJECT,
+		/**
+		 * The axis is generated with NON EMPTY, as if
+		 * {@link QueryAxis#setNonEmpty(boolean)} was set.
+		 */
+		NON_EMPTY
+	}
+
+	private final long maximumTuples;
+	private final Action action;
+
+	/**
+	 * @param maximumTuples the largest number of tuples allowed per axis
+	 * @param action what to do with an axis that has more tuples
+	 */
+	public CardinalityGuard(long maximumTuples, Action action) {
+		if (maximumTuples < 0) {
+			throw new IllegalArgumentException("Maximum number of tuples must not be negative");
+		}
+		if (action == null) {
+			throw new IllegalArgumentException("Action must not be null");
+		}
+		this.maximumTuples = maximumTuples;
+		this.action = action;
+	}
+
+	public long getMaximumTuples() {
+		return maximumTuples;
+	}
+
+	public Action getAction() {
+		return action;
+	}
+
+	/**
+	 * @param axis the axis
+	 * @return whether the axis has more tuples than allowed
+	 */
+	public boolean isExceeded(QueryAxis axis) {
+		return isExceeded(axis, axis.getQuery().getParameters());
+	}
+
+	/**
+	 * @param axis the axis
+	 * @param parameters the parameter values to estimate with, instead of
+	 * the parameters of the query
+	 * @return whether the axis has more tuples than allowed
+	 */
+	public boolean isExceeded(QueryAxis axis, Map<String, String> parameters) {
+		if (!Axis.COLUMNS.equals(axis.getLocation()) && !Axis.ROWS.equals(axis.getLocation())) {
+			return false;
+		}
+		long estimate = CardinalityEstimator.estimate(axis, parameters);
+		return estimate != CardinalityEstimator.UNKNOWN && estimate > maximumTuples;
+	}
+
+	@Override
+	public String toString() {
+		return action + " above " + maximumTuples + " tuples";
+	}
+}
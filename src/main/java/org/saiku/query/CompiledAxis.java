@@ -0,0 +1,65 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query;
+
+import java.util.List;
+
+import org.olap4j.mdx.AxisNode;
+import org.olap4j.mdx.ParseTreeNode;
+import org.saiku.query.Query.BackendFlavor;
+
+/**
+ * The parse tree generated for one {@link QueryAxis}: the axis itself and
+ * the WITH sets and members it needs. It is reused by the next compilation
+ * of the query as long as the axis was not modified, see
+ * {@link Olap4jNodeConverter#toQuery(Query, java.util.Map)}.
+ * The nodes are shared between compilations and must not be altered.
+ */
+final class CompiledAxis {
+
+	private final List<ParseTreeNode> withList;
+	private final AxisNode axisNode;
+	private final long modificationCount;
+	private final BackendFlavor flavor;
+
+	CompiledAxis(List<ParseTreeNode> withList, AxisNode axisNode, long modificationCount, BackendFlavor flavor) {
+		this.withList = withList;
+		this.axisNode = axisNode;
+		this.modificationCount = modificationCount;
+		this.flavor = flavor;
+	}
+
+	/**
+	 * @return the WITH sets and members of the axis in declaration order
+	 */
+	List<ParseTreeNode> getWithList() {
+		return withList;
+	}
+
+	/**
+	 * @return the axis, null if there is nothing placed on it
+	 */
+	AxisNode getAxisNode() {
+		return axisNode;
+	}
+
+	/**
+	 * @return whether this is still the parse tree of the given axis
+	 */
+	boolean isCurrent(QueryAxis axis, BackendFlavor flavor) {
+		return modificationCount == axis.getModificationCount() && this.flavor == flavor;
+	}
+}
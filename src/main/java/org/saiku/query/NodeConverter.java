@@ -29,9 +29,9 @@ import org.olap4j.mdx.PropertyValueNode;
 import org.olap4j.mdx.Syntax;
 import org.olap4j.mdx.WithMemberNode;
 import org.olap4j.mdx.parser.MdxParser;
-import org.olap4j.mdx.parser.impl.DefaultMdxParserImpl;
 import org.olap4j.metadata.Measure;
 import org.olap4j.metadata.Member;
+import org.saiku.query.mdx.CachingMdxParser;
 import org.saiku.query.metadata.Calculated;
 
 public class NodeConverter {
@@ -141,7 +141,7 @@ public class NodeConverter {
 	
 	
 	protected static WithMemberNode toOlap4jCalculatedMember(Calculated cm) {
-		MdxParser parser = new DefaultMdxParserImpl();
+		MdxParser parser = new CachingMdxParser();
 		ParseTreeNode formula = parser.parseExpression(cm.getFormula());
 		List<PropertyValueNode> propertyList = new ArrayList<PropertyValueNode>();
 		for (Entry<String, String> entry : cm.getFormatProperties().entrySet()) {
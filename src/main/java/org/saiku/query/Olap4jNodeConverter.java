@@ -16,9 +16,11 @@
  */
 package org.saiku.query;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.olap4j.Axis;
@@ -33,44 +35,69 @@ import org.olap4j.mdx.LevelNode;
 import org.olap4j.mdx.LiteralNode;
 import org.olap4j.mdx.MemberNode;
 import org.olap4j.mdx.ParseTreeNode;
+import org.olap4j.mdx.PropertyValueNode;
 import org.olap4j.mdx.SelectNode;
 import org.olap4j.mdx.Syntax;
 import org.olap4j.mdx.WithMemberNode;
 import org.olap4j.mdx.WithSetNode;
 import org.olap4j.mdx.parser.MdxParser;
-import org.olap4j.mdx.parser.impl.DefaultMdxParserImpl;
-import org.olap4j.metadata.Cube;
 import org.olap4j.metadata.Level.Type;
 import org.olap4j.metadata.Measure;
 import org.olap4j.metadata.Member;
 import org.saiku.query.Query.BackendFlavor;
+import org.saiku.query.mdx.CachingMdxParser;
 import org.saiku.query.mdx.IFilterFunction;
 import org.saiku.query.metadata.CalculatedMeasure;
 import org.saiku.query.metadata.CalculatedMember;
+import org.saiku.query.util.MemberLookupCache;
 
 /**
  * Utility class to convert a Query object to a SelectNode.
  */
 public class Olap4jNodeConverter extends NodeConverter {
 
+	private static final IdentifierNode COUNT_MEMBER = IdentifierNode.parseIdentifier("[Measures].[~COUNT]");
+
 	public static SelectNode toQuery(Query query) throws Exception {
+		return toQuery(query, null);
+	}
+
+	/**
+	 * Converts the query, reusing the parse trees of the axes in the given
+	 * cache that were not modified since they were generated. Axes that are
+	 * converted again are put into the cache. The caller has to clear the
+	 * cache if something changed that affects every axis.
+	 * @param query the query to convert
+	 * @param compiledAxes the axes generated before by location, null to
+	 * convert every axis
+	 */
+	static SelectNode toQuery(Query query, Map<Axis, CompiledAxis> compiledAxes) throws Exception {
 		List<IdentifierNode> cellpropertyList = Collections.emptyList();
 		List<ParseTreeNode> withList = new ArrayList<ParseTreeNode>();
-		List<QueryAxis> axisList = new ArrayList<QueryAxis>();
-		axisList.add(query.getAxes().get(Axis.COLUMNS));
-		axisList.add(query.getAxes().get(Axis.ROWS));
+		List<AxisNode> axisList = new ArrayList<AxisNode>();
+		BackendFlavor flavor = query.getFlavor();
 
 		AxisNode filterAxis = null;
 		if (query.getAxes().containsKey(Axis.FILTER)) {
 			final QueryAxis axis = query.getAxes().get(Axis.FILTER);
 			if (!axis.hierarchies.isEmpty()) {
-				filterAxis = toAxis(withList, axis);
+				filterAxis = toAxis(withList, axis, flavor, compiledAxes);
+			}
+		}
+		Axis[] locations = { Axis.COLUMNS, Axis.ROWS };
+		AxisNode[] axisNodes = new AxisNode[locations.length];
+		for (int i = 0; i < locations.length; i++) {
+			axisNodes[i] = toAxis(withList, query.getAxes().get(locations[i]), flavor, compiledAxes);
+		}
+		for (int i = 0; i < locations.length; i++) {
+			if (axisNodes[i] != null) {
+				axisList.add(toPagedAxis(axisNodes[i], query.getAxes().get(locations[i]), axisNodes[1 - i]));
 			}
 		}
 		return new SelectNode(
 				null,
 				withList,
-				toAxisList(withList, axisList),
+				axisList,
 				new CubeNode(
 						null,
 						query.getCube()),
@@ -78,31 +105,34 @@ public class Olap4jNodeConverter extends NodeConverter {
 						cellpropertyList);
 	}
 
-	private static List<AxisNode> toAxisList(List<ParseTreeNode> withList, List<QueryAxis> axes) throws Exception {
-		final ArrayList<AxisNode> axisList = new ArrayList<AxisNode>();
-		for (QueryAxis axis : axes) {
-			AxisNode axisNode = toAxis(withList, axis);
-			if (axisNode != null) {
-				axisList.add(axisNode);
-			}
+	private static AxisNode toAxis(List<ParseTreeNode> withList, QueryAxis axis, BackendFlavor flavor, Map<Axis, CompiledAxis> compiledAxes) throws Exception {
+		if (compiledAxes == null) {
+			return toAxis(withList, axis, flavor);
+		}
+		CompiledAxis compiled = compiledAxes.get(axis.getLocation());
+		if (compiled == null || !compiled.isCurrent(axis, flavor)) {
+			List<ParseTreeNode> axisWithList = new ArrayList<ParseTreeNode>();
+			long modificationCount = axis.getModificationCount();
+			AxisNode axisNode = toAxis(axisWithList, axis, flavor);
+			compiled = new CompiledAxis(axisWithList, axisNode, modificationCount, flavor);
+			compiledAxes.put(axis.getLocation(), compiled);
 		}
-		return axisList;
+		withList.addAll(compiled.getWithList());
+		return compiled.getAxisNode();
 	}
 
-
-
 	/*
 	 * This method merges the selections into a single
 	 * MDX axis selection.  Right now we do a simple
 	 * crossjoin.
 	 * It might return null if there are no dimensions placed on the axis.
 	 */
-	private static AxisNode toAxis(List<ParseTreeNode> withList, QueryAxis axis) throws Exception {
+	private static AxisNode toAxis(List<ParseTreeNode> withList, QueryAxis axis, BackendFlavor flavor) throws Exception {
 
-		BackendFlavor flavor = axis.getQuery().getFlavor();
 		ParseTreeNode axisExpression = null;
 		boolean axisAsSet = false;
 		boolean isFilter = Axis.FILTER.equals(axis.getLocation());
+		boolean nonEmpty = axis.isNonEmpty() || axis.getQuery().isNonEmptyForced(axis);
 		if (!axis.isMdxSetExpression()) {
 			List<ParseTreeNode> hierarchies = new ArrayList<ParseTreeNode>();
 			
@@ -121,7 +151,7 @@ public class Olap4jNodeConverter extends NodeConverter {
 						hierarchies.add(hierarchyNode);
 					}
 				}
-				axisExpression = generateCrossJoin(hierarchies, axis.isNonEmpty(), isFilter);
+				axisExpression = generateCrossJoin(hierarchies, nonEmpty, isFilter);
 			} else {
 				// TODO do we need to handle hierarchy count == 0 ?
 			}
@@ -169,12 +199,90 @@ public class Olap4jNodeConverter extends NodeConverter {
 		}
 		return new AxisNode(
 				null,
-				axis.isNonEmpty(),
+				nonEmpty,
 				axis.getLocation(),
 				new ArrayList<IdentifierNode>(),
 				axisNode);
 	}
 
+	/*
+	 * Cuts the page of a paged axis out of its set. The axis is paged after
+	 * the other axis was generated, so the compiled axes can be reused.
+	 */
+	private static AxisNode toPagedAxis(AxisNode axisNode, QueryAxis axis, AxisNode otherAxis) {
+		if (!axis.isPaged()) {
+			return axisNode;
+		}
+		ParseTreeNode set = axisNode.getExpression();
+		// empty tuples have to be removed before the page is cut
+		if (axisNode.isNonEmpty()) {
+			set = toNonEmptySet(set, otherAxis);
+		}
+		set = new CallNode(null, "Subset", Syntax.Function,
+				set,
+				LiteralNode.createNumeric(null, BigDecimal.valueOf(axis.getPageOffset()), false),
+				LiteralNode.createNumeric(null, BigDecimal.valueOf(axis.getPageLimit()), false));
+		return new AxisNode(
+				null,
+				axisNode.isNonEmpty(),
+				axisNode.getAxis(),
+				new ArrayList<IdentifierNode>(),
+				set);
+	}
+
+	/*
+	 * NonEmpty() against the tuples of the other axis, including the
+	 * measures if they are placed there, which is what NON EMPTY checks.
+	 * If the other axis is paged as well, its whole set is used.
+	 */
+	private static ParseTreeNode toNonEmptySet(ParseTreeNode set, AxisNode otherAxis) {
+		if (otherAxis != null) {
+			return new CallNode(null, "NonEmpty", Syntax.Function, set, otherAxis.getExpression().deepCopy());
+		}
+		return new CallNode(null, "NonEmpty", Syntax.Function, set);
+	}
+
+	/**
+	 * Generates a query for the number of tuples of an axis without paging,
+	 * as the only cell of the result, see {@link Query#executeCount(Axis)}.
+	 */
+	static SelectNode toCountQuery(Query query, Axis location) throws Exception {
+		List<ParseTreeNode> withList = new ArrayList<ParseTreeNode>();
+		BackendFlavor flavor = query.getFlavor();
+		QueryAxis axis = query.getAxis(location);
+
+		AxisNode filterAxis = null;
+		final QueryAxis filter = query.getAxis(Axis.FILTER);
+		if (!filter.hierarchies.isEmpty()) {
+			filterAxis = toAxis(withList, filter, flavor);
+		}
+		AxisNode axisNode = toAxis(withList, axis, flavor);
+		ParseTreeNode set;
+		if (axisNode == null) {
+			set = new CallNode(null, "{}", Syntax.Braces, new ArrayList<ParseTreeNode>());
+		} else {
+			set = axisNode.getExpression();
+			if (axisNode.isNonEmpty()) {
+				// the other axis brings its sets and calculated measures along
+				Axis otherLocation = (Axis.COLUMNS.equals(location) ? Axis.ROWS : Axis.COLUMNS);
+				set = toNonEmptySet(set, toAxis(withList, query.getAxis(otherLocation), flavor));
+			}
+		}
+		WithMemberNode count = new WithMemberNode(null, COUNT_MEMBER.deepCopy(),
+				new CallNode(null, "Count", Syntax.Function, set), new ArrayList<PropertyValueNode>());
+		withList.add(count);
+		List<AxisNode> axisList = new ArrayList<AxisNode>();
+		axisList.add(new AxisNode(null, false, Axis.COLUMNS, new ArrayList<IdentifierNode>(),
+				generateSetCall(COUNT_MEMBER.deepCopy())));
+		return new SelectNode(
+				null,
+				withList,
+				axisList,
+				new CubeNode(null, query.getCube()),
+				filterAxis,
+				Collections.<IdentifierNode>emptyList());
+	}
+
 	private static ParseTreeNode toHierarchy(List<ParseTreeNode> withList, QueryHierarchy h) throws OlapException {
 		ParseTreeNode hierarchySet = null;
 
@@ -283,24 +391,34 @@ public class Olap4jNodeConverter extends NodeConverter {
 	}
 
 	private static ParseTreeNode toLevel(QueryLevel level) throws OlapException {
-		List<Member> inclusions = new ArrayList<Member>();
-		List<Member> exclusions = new ArrayList<Member>();
-		inclusions.addAll(level.getInclusions());
-		exclusions.addAll(level.getExclusions());
+		String parameterValue = null;
+		if (level.hasParameter()) {
+			parameterValue = level.getQueryHierarchy().getQuery().getParameter(level.getParameterName());
+			if (PreparedQuery.isSlot(parameterValue)) {
+				return PreparedQuery.toSlotNode(level);
+			}
+		}
+		return toLevel(level, parameterValue);
+	}
+
+	/**
+	 * Converts a level using the given value for the level's parameter,
+	 * see {@link PreparedQuery}.
+	 */
+	static ParseTreeNode toLevel(QueryLevel level, String parameterValue) throws OlapException {
+		// the selections are only read, unless a parameter replaces them
+		List<Member> inclusions = level.getInclusions();
+		List<Member> exclusions = level.getExclusions();
 		
 		if (level.hasParameter()) {
-			String parameterName = level.getParameterName();
-			String parameterValue = level.getQueryHierarchy().getQuery().getParameter(parameterName);
 			if (StringUtils.isNotBlank(parameterValue)) {
-				List<Member> resolvedParameters = resolveParameter(level.getQueryHierarchy().getQuery().getCube(), level.getUniqueName(), parameterValue);
+				List<Member> resolvedParameters = resolveParameter(level.getQueryHierarchy().getQuery(), level.getUniqueName(), parameterValue);
 				switch(level.getParameterSelectionType()) {
 					case EXCLUSION:
-						exclusions.clear();
-						exclusions.addAll(resolvedParameters);
+						exclusions = resolvedParameters;
 					break;
 					case INCLUSION:
-						inclusions.clear();
-						inclusions.addAll(resolvedParameters);
+						inclusions = resolvedParameters;
 					break;
 				default:
 					break;
@@ -354,7 +472,8 @@ public class Olap4jNodeConverter extends NodeConverter {
 	}
 	
 	@Deprecated
-	private static List<Member> resolveParameter(Cube cube, String parent, String value) throws OlapException {
+	private static List<Member> resolveParameter(Query query, String parent, String value) throws OlapException {
+			MemberLookupCache cache = MemberLookupCache.forCube(query.getCube(), query.getConnection().getRoleName());
 			List<IdentifierSegment> parentParts = null;
 			if (StringUtils.isNotBlank(parent)) {
 				parentParts = IdentifierParser.parseIdentifier(parent);
@@ -371,7 +490,7 @@ public class Olap4jNodeConverter extends NodeConverter {
 							combined.addAll(parentParts);
 						}
 						combined.addAll(nameParts);
-						Member m = cube.lookupMember(combined);
+						Member m = cache.lookupMember(combined);
 						if (m == null) {
 							throw new OlapException("Cannot find member with name parts: " + combined.toString());
 						}
@@ -383,13 +502,13 @@ public class Olap4jNodeConverter extends NodeConverter {
 	}
 	
 	private static ParseTreeNode toMdxNode(String mdx) {
-		MdxParser parser = new DefaultMdxParserImpl();
+		MdxParser parser = new CachingMdxParser();
 		ParseTreeNode expression =  parser.parseExpression(mdx);
 		return expression;
 	}
 	
 	private static ParseTreeNode toQuerySet(ParseTreeNode expression, IQuerySet o) {
-		MdxParser parser = new DefaultMdxParserImpl();
+		MdxParser parser = new CachingMdxParser();
 		if (o.isMdxSetExpression()) {
 			expression =  toMdxNode("{" + o.getMdxSetExpression() + "}");
 		}
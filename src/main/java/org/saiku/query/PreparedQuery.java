@@ -0,0 +1,293 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.olap4j.Axis;
+import org.olap4j.CellSet;
+import org.olap4j.OlapException;
+import org.olap4j.OlapStatement;
+import org.olap4j.mdx.IdentifierNode;
+import org.olap4j.mdx.NameSegment;
+import org.olap4j.mdx.ParseTreeNode;
+import org.olap4j.mdx.ParseTreeWriter;
+import org.olap4j.mdx.Quoting;
+import org.saiku.query.metrics.QueryMetricsListener;
+import org.saiku.query.metrics.QueryPhase;
+import org.saiku.query.util.CacheStatistics;
+import org.saiku.query.util.QueryUtil;
+
+/**
+ * A query compiled into MDX templates with slots for its parameters, so
+ * the same query can be generated for many parameter values without
+ * compiling the query model again, see {@link Query#prepare()}.
+ * <p>There are two kinds of slots:
+ * <ul>
+ * <li>level parameters ({@link QueryLevel#getParameterName()}), binding a
+ * value only converts the parameterized level</li>
+ * <li><code>${name}</code> holes in MDX expressions of the query
+ * ({@link QueryUtil#parseParameters(String)}), the value is inserted as is
+ * and holes without a value are left in the MDX</li>
+ * </ul>
+ * <p>{@link Query#getMdx()} leaves all holes in the MDX, even for
+ * parameters set with {@link Query#setParameters(Map)}. So the MDX of a
+ * prepared query only matches {@link Query#getMdx()} if the query has no
+ * holes or no values are bound to them.
+ * <p>Bound values override the parameters stored in the query. Whether a
+ * level parameter has a value, is blank or is missing changes the
+ * structure of the generated MDX, so one template is compiled per
+ * combination that is used. The same holds for the axes that a
+ * {@link CardinalityGuard} forces to NON EMPTY, the guard estimates the
+ * axes with the bound values. Changing the query model discards all
+ * templates.
+ */
+public class PreparedQuery {
+
+	private static final String SLOT_VALUE = "\u0000slot";
+
+	private static final String SLOT_PREFIX = "saiku.slot:";
+
+	private static final int MAXIMUM_TEMPLATES = 64;
+
+	private final Query query;
+	private final CacheStatistics statistics = new CacheStatistics();
+	private final Map<String, List<Object>> templates =
+			new LinkedHashMap<String, List<Object>>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, List<Object>> eldest) {
+					return size() > MAXIMUM_TEMPLATES;
+				}
+			};
+	private long preparedModificationCount = -1;
+	private List<QueryLevel> parameterLevels;
+
+	PreparedQuery(Query query) {
+		this.query = query;
+	}
+
+	public Query getQuery() {
+		return query;
+	}
+
+	/**
+	 * @return the names of the level parameters of the query
+	 */
+	public synchronized Set<String> getLevelParameterNames() {
+		prepare();
+		Set<String> names = new LinkedHashSet<String>();
+		for (QueryLevel level : parameterLevels) {
+			names.add(level.getParameterName());
+		}
+		return names;
+	}
+
+	/**
+	 * Generates the MDX of the query for the given parameter values.
+	 * @param values the parameter values, override the query's parameters
+	 * @return the MDX
+	 * @throws OlapException if the query cannot be compiled or a level
+	 * parameter value cannot be resolved
+	 */
+	public synchronized String getMdx(Map<String, String> values) throws OlapException {
+		prepare();
+		Map<String, String> parameters = merge(values);
+		List<Object> template = getTemplate(parameters);
+		long start = System.nanoTime();
+		StringBuilder mdx = new StringBuilder();
+		for (Object part : template) {
+			if (part instanceof QueryLevel) {
+				QueryLevel level = (QueryLevel) part;
+				String value = parameters.get(level.getParameterName());
+				mdx.append(unparse(Olap4jNodeConverter.toLevel(level, value)));
+			} else if (part instanceof Hole) {
+				String name = ((Hole) part).name;
+				String value = parameters.get(name);
+				mdx.append(value != null ? value : "${" + name + "}");
+			} else {
+				mdx.append(part);
+			}
+		}
+		QueryMetricsListener metricsListener = query.getMetricsListener();
+		metricsListener.phaseCompleted(query, QueryPhase.UNPARSE, System.nanoTime() - start);
+		metricsListener.mdxWritten(query, mdx.length());
+		return mdx.toString();
+	}
+
+	/**
+	 * Executes the query with the given parameter values, see
+	 * {@link Query#execute()}.
+	 */
+	public CellSet execute(Map<String, String> values) throws OlapException {
+		query.checkCardinality(merge(values));
+		String mdx = getMdx(values);
+		boolean reuse = query.isReuseStatements();
+		OlapStatement statement = StatementManager.acquire(query.getConnection(), reuse);
+		boolean executed = false;
+		try {
+			CellSet cellSet = query.executeMdx(statement, mdx);
+			executed = true;
+			return cellSet;
+		} finally {
+			if (!executed) {
+				StatementManager.release(statement, null, reuse);
+			}
+		}
+	}
+
+	/**
+	 * @return hits and misses of the templates
+	 */
+	public CacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	private Map<String, String> merge(Map<String, String> values) {
+		Map<String, String> parameters = new HashMap<String, String>(query.getParameters());
+		parameters.putAll(values);
+		return parameters;
+	}
+
+	static boolean isSlot(String parameterValue) {
+		return SLOT_VALUE.equals(parameterValue);
+	}
+
+	static ParseTreeNode toSlotNode(QueryLevel level) {
+		return new IdentifierNode(new NameSegment(null, SLOT_PREFIX + level.getUniqueName(), Quoting.QUOTED));
+	}
+
+	private void prepare() {
+		if (parameterLevels == null || preparedModificationCount != query.getModificationCount()) {
+			templates.clear();
+			parameterLevels = new ArrayList<QueryLevel>();
+			for (Axis location : new Axis[] { Axis.COLUMNS, Axis.ROWS, Axis.FILTER }) {
+				QueryAxis axis = query.getAxis(location);
+				for (QueryHierarchy hierarchy : axis.getQueryHierarchies()) {
+					for (QueryLevel level : hierarchy.getActiveQueryLevels()) {
+						if (level.hasParameter()) {
+							parameterLevels.add(level);
+						}
+					}
+				}
+			}
+			preparedModificationCount = query.getModificationCount();
+		}
+	}
+
+	private List<Object> getTemplate(Map<String, String> parameters) throws OlapException {
+		// n = missing, b = blank, v = value, then the axes forced NON EMPTY
+		// by the cardinality guard for the bound values
+		StringBuilder shape = new StringBuilder();
+		Map<String, String> compileParameters = new HashMap<String, String>(parameters);
+		for (QueryLevel level : parameterLevels) {
+			String value = parameters.get(level.getParameterName());
+			if (value == null) {
+				shape.append('n');
+			} else if (StringUtils.isBlank(value)) {
+				shape.append('b');
+			} else {
+				shape.append('v');
+				compileParameters.put(level.getParameterName(), SLOT_VALUE);
+			}
+		}
+		shape.append(':');
+		for (Axis location : new Axis[] { Axis.COLUMNS, Axis.ROWS }) {
+			shape.append(query.isNonEmptyForced(query.getAxis(location), parameters) ? '1' : '0');
+		}
+		List<Object> template = templates.get(shape.toString());
+		if (template != null) {
+			statistics.hit();
+			return template;
+		}
+		statistics.miss();
+		String mdx = unparse(query.compile(compileParameters, parameters));
+		template = split(mdx, compileParameters);
+		templates.put(shape.toString(), template);
+		return template;
+	}
+
+	/*
+	 * Splits the MDX into text, levels (whose slot marker was found) and
+	 * holes, in the order they appear.
+	 */
+	private List<Object> split(String mdx, Map<String, String> compileParameters) {
+		TreeMap<Integer, Object> slots = new TreeMap<Integer, Object>();
+		Map<Integer, Integer> lengths = new HashMap<Integer, Integer>();
+		for (QueryLevel level : parameterLevels) {
+			if (isSlot(compileParameters.get(level.getParameterName()))) {
+				String marker = unparse(toSlotNode(level));
+				for (int i = mdx.indexOf(marker); i >= 0; i = mdx.indexOf(marker, i + marker.length())) {
+					slots.put(i, level);
+					lengths.put(i, marker.length());
+				}
+			}
+		}
+		for (int i = mdx.indexOf("${"); i >= 0; i = mdx.indexOf("${", i + 2)) {
+			int end = mdx.indexOf('}', i + 2);
+			if (end < 0) {
+				break;
+			}
+			if (!slots.containsKey(i) && StringUtils.isNotBlank(mdx.substring(i + 2, end))) {
+				slots.put(i, new Hole(mdx.substring(i + 2, end)));
+				lengths.put(i, end + 1 - i);
+			}
+		}
+		List<Object> parts = new ArrayList<Object>();
+		int position = 0;
+		for (Map.Entry<Integer, Object> slot : slots.entrySet()) {
+			if (slot.getKey() < position) {
+				// a hole inside a marker
+				continue;
+			}
+			if (slot.getKey() > position) {
+				parts.add(mdx.substring(position, slot.getKey()));
+			}
+			parts.add(slot.getValue());
+			position = slot.getKey() + lengths.get(slot.getKey());
+		}
+		if (position < mdx.length()) {
+			parts.add(mdx.substring(position));
+		}
+		return Collections.unmodifiableList(parts);
+	}
+
+	private static String unparse(ParseTreeNode node) {
+		StringWriter writer = new StringWriter();
+		node.unparse(new ParseTreeWriter(new PrintWriter(writer)));
+		return writer.toString();
+	}
+
+	private static class Hole {
+		private final String name;
+
+		Hole(String name) {
+			this.name = name;
+		}
+	}
+}
@@ -15,14 +15,21 @@
  */
 package org.saiku.query;
 
+import java.io.BufferedWriter;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.charset.Charset;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import org.apache.commons.lang.StringUtils;
 import org.olap4j.Axis;
@@ -31,8 +38,11 @@ import org.olap4j.OlapConnection;
 import org.olap4j.OlapException;
 import org.olap4j.OlapStatement;
 import org.olap4j.impl.NamedListImpl;
+import org.olap4j.mdx.ParseTreeNode;
 import org.olap4j.mdx.ParseTreeWriter;
 import org.olap4j.mdx.SelectNode;
+import org.olap4j.mdx.WithMemberNode;
+import org.olap4j.mdx.WithSetNode;
 import org.olap4j.metadata.Catalog;
 import org.olap4j.metadata.Cube;
 import org.olap4j.metadata.Hierarchy;
@@ -45,6 +55,18 @@ import org.olap4j.metadata.Property;
 import org.saiku.query.ISortableQuerySet.HierarchizeMode;
 import org.saiku.query.metadata.CalculatedMeasure;
 import org.saiku.query.metadata.CalculatedMember;
+import org.saiku.query.metrics.NoOpMetricsListener;
+import org.saiku.query.metrics.QueryMetricsListener;
+import org.saiku.query.metrics.QueryPhase;
+import org.saiku.query.result.CellConsumer;
+import org.saiku.query.result.CellStream;
+import org.saiku.query.result.ColumnarResult;
+import org.saiku.query.result.ColumnarSnapshot;
+import org.saiku.query.result.ResultCache;
+import org.saiku.query.result.ResultSnapshot;
+import org.saiku.query.result.SpillStore;
+import org.saiku.query.util.CacheStatistics;
+import org.saiku.query.util.CardinalityEstimator;
 import org.saiku.query.util.QueryUtil;
 
 public class Query {
@@ -56,8 +78,22 @@ public class Query {
     protected QueryAxis filter;
     protected QueryAxis unused;
     protected final Cube cube;
+    /**
+     * QueryHierarchies by unique name. They are created on first access,
+     * a query usually uses only a few hierarchies of a cube.
+     */
     protected Map<String, QueryHierarchy> hierarchyMap =
         new HashMap<String, QueryHierarchy>();
+    private boolean unusedAxisMaterialized = false;
+    /*
+     * Indexes for the lookups by name, the hierarchy indexes are built from
+     * the cube metadata on first use, the level index is maintained by
+     * QueryHierarchy when levels are included or excluded.
+     */
+    private Map<String, Hierarchy> hierarchiesByUniqueName;
+    private Map<String, Hierarchy> hierarchiesByName;
+    private final Map<String, QueryLevel> activeLevelsByUniqueName =
+        new HashMap<String, QueryLevel>();
     
     protected NamedList<CalculatedMeasure> calculatedMeasures = new NamedListImpl<CalculatedMeasure>();
     
@@ -73,7 +109,30 @@ public class Query {
 	private String visualTotalsPattern;
 	private boolean lowestLevelsOnly = false;
 	private Map<String, String> parameters = new HashMap<String, String>();
+	private Map<String, String> cardinalityParameters = null;
 	private Map<String, List<String>> aggregators = new HashMap<String, List<String>>();
+
+	/**
+	 * Incremented by every change to the query model, see {@link #markModified()}.
+	 */
+	private long modificationCount = 0;
+	private long compiledModificationCount = -1;
+	/**
+	 * Incremented by the changes that affect every axis, changes of a
+	 * single axis are counted by {@link QueryAxis#getModificationCount()}.
+	 */
+	private long sharedModificationCount = 0;
+	private long compiledSharedModificationCount = -1;
+	private final Map<Axis, CompiledAxis> compiledAxes = new HashMap<Axis, CompiledAxis>();
+	private Map<String, String> compiledParameters;
+	private SelectNode compiledSelect;
+	private String compiledMdx;
+	private final CacheStatistics compileCacheStatistics = new CacheStatistics();
+	private ResultCache resultCache;
+	private boolean reuseStatements = false;
+	private static volatile QueryMetricsListener defaultMetricsListener = NoOpMetricsListener.INSTANCE;
+	private QueryMetricsListener metricsListener = defaultMetricsListener;
+	private CardinalityGuard cardinalityGuard;
 	
     /**
      * Constructs a Query object.
@@ -90,13 +149,13 @@ public class Query {
         this.connection =
             catalog.getMetaData().getConnection().unwrap(OlapConnection.class);
         this.connection.setCatalog(catalog.getName());
-        this.unused = new QueryAxis(this, null);
-        for (Hierarchy hierarchy : cube.getHierarchies()) {
-            QueryHierarchy queryHierarchy = new QueryHierarchy(
-                this, hierarchy);
-            unused.getQueryHierarchies().add(queryHierarchy);
-            hierarchyMap.put(queryHierarchy.getUniqueName(), queryHierarchy);
-        }
+        this.unused = new QueryAxis(this, null) {
+            @Override
+            public List<QueryHierarchy> getQueryHierarchies() {
+                materializeUnusedAxis();
+                return hierarchies;
+            }
+        };
         across = new QueryAxis(this, Axis.COLUMNS);
         down = new QueryAxis(this, Axis.ROWS);
         filter = new QueryAxis(this, Axis.FILTER);
@@ -108,24 +167,226 @@ public class Query {
     }
 
     /**
-     * Returns the MDX parse tree behind this Query. The returned object is
-     * generated for each call to this function. Altering the returned
-     * SelectNode object won't affect the query itself.
+     * Returns the MDX parse tree behind this Query. The tree is only
+     * regenerated if the query model changed since the last call, and
+     * then only for the axes that changed. The returned object is a copy
+     * of it. Altering the returned SelectNode object won't affect the
+     * query itself.
      * @return A SelectNode object representing the current query structure.
      * @throws OlapException 
      */
     public SelectNode getSelect() throws OlapException {
-    	try {
-    		return Olap4jNodeConverter.toQuery(this);
-    	} catch (Exception e) {
-    		throw new OlapException("Error creating Select", e);
+    	if (isCompiled()) {
+    		compileCacheStatistics.hit();
+    	} else {
+    		compileCacheStatistics.miss();
     	}
+    	return getCompiledSelect().deepCopy();
     }
     
+    /**
+     * Returns the MDX of this Query. Like the parse tree of {@link #getSelect()}
+     * the text is cached until the query model changes.
+     * @return The MDX string representing the current query structure.
+     * @throws OlapException
+     */
     public String getMdx() throws OlapException {
+    	if (isCompiled() && compiledMdx != null) {
+    		compileCacheStatistics.hit();
+    		return compiledMdx;
+    	}
+    	compileCacheStatistics.miss();
+    	SelectNode select = getCompiledSelect();
+    	long start = System.nanoTime();
     	final Writer writer = new StringWriter();
-    	this.getSelect().unparse(new ParseTreeWriter(new PrintWriter(writer)));
-    	return writer.toString();
+    	select.unparse(new ParseTreeWriter(new PrintWriter(writer)));
+    	compiledMdx = writer.toString();
+    	metricsListener.phaseCompleted(this, QueryPhase.UNPARSE, System.nanoTime() - start);
+    	metricsListener.mdxWritten(this, compiledMdx.length());
+    	return compiledMdx;
+    }
+
+    /**
+     * Writes the MDX of this Query to the given writer. Unlike
+     * {@link #getMdx()} the parse tree is unparsed straight into the
+     * writer, so large queries are not held in memory as a string as well.
+     * The writer is flushed but not closed.
+     * @param writer the writer to write the MDX to
+     * @throws OlapException If the query cannot be compiled.
+     * @throws IOException If the writer fails.
+     */
+    public void writeMdx(Writer writer) throws OlapException, IOException {
+    	if (isCompiled() && compiledMdx != null) {
+    		compileCacheStatistics.hit();
+    		writer.write(compiledMdx);
+    		writer.flush();
+    		return;
+    	}
+    	compileCacheStatistics.miss();
+    	SelectNode select = getCompiledSelect();
+    	long start = System.nanoTime();
+    	CountingWriter counter = new CountingWriter(writer);
+    	PrintWriter printWriter = new PrintWriter(counter);
+    	select.unparse(new ParseTreeWriter(printWriter));
+    	// PrintWriter swallows the errors of the underlying writer
+    	if (printWriter.checkError()) {
+    		throw new IOException("Error writing MDX of query " + name);
+    	}
+    	metricsListener.phaseCompleted(this, QueryPhase.UNPARSE, System.nanoTime() - start);
+    	metricsListener.mdxWritten(this, counter.count);
+    }
+
+    private static class CountingWriter extends FilterWriter {
+    	private long count = 0;
+
+    	CountingWriter(Writer writer) {
+    		super(writer);
+    	}
+
+    	@Override
+    	public void write(int c) throws IOException {
+    		super.write(c);
+    		count++;
+    	}
+
+    	@Override
+    	public void write(char[] cbuf, int off, int len) throws IOException {
+    		super.write(cbuf, off, len);
+    		count += len;
+    	}
+
+    	@Override
+    	public void write(String str, int off, int len) throws IOException {
+    		super.write(str, off, len);
+    		count += len;
+    	}
+    }
+
+    /**
+     * Writes the MDX of this Query to the given stream, see
+     * {@link #writeMdx(Writer)}. The stream is flushed but not closed.
+     * @param out the stream to write the MDX to
+     * @param charset the encoding of the MDX
+     * @throws OlapException If the query cannot be compiled.
+     * @throws IOException If the stream fails.
+     */
+    public void writeMdx(OutputStream out, Charset charset) throws OlapException, IOException {
+    	Writer writer = new BufferedWriter(new OutputStreamWriter(out, charset));
+    	writeMdx(writer);
+    	writer.flush();
+    }
+
+    private SelectNode getCompiledSelect() throws OlapException {
+    	if (!isCompiled()) {
+    		if (compiledSharedModificationCount != sharedModificationCount
+    				|| !parameters.equals(compiledParameters)) {
+    			compiledAxes.clear();
+    		}
+    		long start = System.nanoTime();
+    		try {
+    			compiledSelect = Olap4jNodeConverter.toQuery(this, compiledAxes);
+    		} catch (Exception e) {
+    			compiledAxes.clear();
+    			throw new OlapException("Error creating Select", e);
+    		}
+    		metricsListener.phaseCompleted(this, QueryPhase.COMPILE, System.nanoTime() - start);
+    		int withMembers = 0;
+    		int withSets = 0;
+    		for (ParseTreeNode node : compiledSelect.getWithList()) {
+    			if (node instanceof WithMemberNode) {
+    				withMembers++;
+    			} else if (node instanceof WithSetNode) {
+    				withSets++;
+    			}
+    		}
+    		metricsListener.queryCompiled(this, withMembers, withSets, compiledSelect.getAxisList().size());
+    		compiledMdx = null;
+    		compiledModificationCount = modificationCount;
+    		compiledSharedModificationCount = sharedModificationCount;
+    		compiledParameters = new HashMap<String, String>(parameters);
+    	}
+    	return compiledSelect;
+    }
+
+    /**
+     * Compiles the query with the given parameter values, without touching
+     * the compiled query cache, see {@link PreparedQuery}.
+     * @param parameterValues the values compiled into the MDX
+     * @param cardinalityValues the values the cardinality guard estimates
+     * the axes with
+     */
+    SelectNode compile(Map<String, String> parameterValues, Map<String, String> cardinalityValues)
+    		throws OlapException
+    {
+    	Map<String, String> current = parameters;
+    	parameters = parameterValues;
+    	cardinalityParameters = cardinalityValues;
+    	long start = System.nanoTime();
+    	try {
+    		SelectNode select = Olap4jNodeConverter.toQuery(this);
+    		metricsListener.phaseCompleted(this, QueryPhase.COMPILE, System.nanoTime() - start);
+    		return select;
+    	} catch (Exception e) {
+    		throw new OlapException("Error creating Select", e);
+    	} finally {
+    		parameters = current;
+    		cardinalityParameters = null;
+    	}
+    }
+
+    /**
+     * Compiles the query into a template whose parameters can be bound
+     * without compiling the whole query again.
+     * @return the prepared query
+     */
+    public PreparedQuery prepare() {
+    	return new PreparedQuery(this);
+    }
+
+    /*
+     * Parameters are compared by value as well, since the map is handed out
+     * by getParameters() and might be changed without calling a setter.
+     */
+    private boolean isCompiled() {
+    	return compiledSelect != null
+    			&& compiledModificationCount == modificationCount
+    			&& parameters.equals(compiledParameters);
+    }
+
+    /**
+     * Marks the query model as changed, so the next call to
+     * {@link #getSelect()} or {@link #getMdx()} recompiles the query.
+     * All setters of the query objects call this already, it only needs
+     * to be called after modifying one of the collections returned by
+     * the getters (e.g. {@link QueryAxis#getQueryHierarchies()}) directly
+     * or after changing a calculated member that is part of the query.
+     */
+    public void markModified() {
+    	modificationCount++;
+    	sharedModificationCount++;
+    }
+
+    /**
+     * Called by a {@link QueryAxis} that changed, the other axes are
+     * reused by the next compilation.
+     */
+    void axisModified() {
+    	modificationCount++;
+    }
+
+    /**
+     * @return the number of changes made to the query model so far
+     */
+    public long getModificationCount() {
+    	return modificationCount;
+    }
+
+    /**
+     * @return the hit and miss counters of the compiled query cache
+     * used by {@link #getSelect()} and {@link #getMdx()}
+     */
+    public CacheStatistics getCompileCacheStatistics() {
+    	return compileCacheStatistics;
     }
 
     /**
@@ -163,14 +424,12 @@ public class Query {
     public QueryHierarchy getHierarchy(String name) {
         if (hierarchyMap.containsKey(name)) {
         	return hierarchyMap.get(name);
-        } else {
-        	for (QueryHierarchy qh : hierarchyMap.values()) {
-        		if (qh.getName().equals(name)) {
-        			return qh;
-        		}
-        	}
         }
-        return null;
+        Hierarchy hierarchy = lookupHierarchy(name);
+        if (hierarchy == null) {
+        	hierarchy = hierarchiesByName.get(name);
+        }
+        return (hierarchy == null ? null : materialize(hierarchy));
     }
 
     /**
@@ -185,7 +444,51 @@ public class Query {
     	if (hierarchy == null) {
     		return null;
     	}
-    	return hierarchyMap.get(hierarchy.getUniqueName());
+    	QueryHierarchy qh = hierarchyMap.get(hierarchy.getUniqueName());
+    	if (qh == null) {
+    		Hierarchy h = lookupHierarchy(hierarchy.getUniqueName());
+    		if (h != null) {
+    			qh = materialize(h);
+    		}
+    	}
+    	return qh;
+    }
+
+    private Hierarchy lookupHierarchy(String uniqueName) {
+    	if (hierarchiesByUniqueName == null) {
+    		hierarchiesByUniqueName = new HashMap<String, Hierarchy>();
+    		hierarchiesByName = new HashMap<String, Hierarchy>();
+    		for (Hierarchy h : cube.getHierarchies()) {
+    			hierarchiesByUniqueName.put(h.getUniqueName(), h);
+    			// the first hierarchy of a name wins, like in a NamedList
+    			if (!hierarchiesByName.containsKey(h.getName())) {
+    				hierarchiesByName.put(h.getName(), h);
+    			}
+    		}
+    	}
+    	return hierarchiesByUniqueName.get(uniqueName);
+    }
+
+    private QueryHierarchy materialize(Hierarchy hierarchy) {
+    	QueryHierarchy qh = hierarchyMap.get(hierarchy.getUniqueName());
+    	if (qh == null) {
+    		qh = new QueryHierarchy(this, hierarchy);
+    		hierarchyMap.put(hierarchy.getUniqueName(), qh);
+    	}
+    	return qh;
+    }
+
+    /*
+     * The unused axis holds all hierarchies of the cube in cube order,
+     * it is only filled once somebody looks at it.
+     */
+    private void materializeUnusedAxis() {
+    	if (!unusedAxisMaterialized) {
+    		unusedAxisMaterialized = true;
+    		for (Hierarchy hierarchy : cube.getHierarchies()) {
+    			unused.hierarchies.add(materialize(hierarchy));
+    		}
+    	}
     }
 
 
@@ -198,8 +501,8 @@ public class Query {
      * name can be found.
      */
     public QueryLevel getLevel(Hierarchy hierarchy, String name) {
-        QueryHierarchy h =  hierarchyMap.get(hierarchy.getUniqueName());
-        return h.getActiveLevel(name);
+        QueryHierarchy h = getHierarchy(hierarchy);
+        return (h == null ? null : h.getActiveLevel(name));
     }
     
     /**
@@ -222,17 +525,21 @@ public class Query {
      */
     public QueryLevel getLevel(String uniqueLevelName) {
     	if (StringUtils.isNotBlank(uniqueLevelName)) {
-	    	for (QueryHierarchy qh : hierarchyMap.values()) {
-	    		for (QueryLevel ql : qh.getActiveQueryLevels()) {
-	    			if (ql.getUniqueName().equals(uniqueLevelName)) {
-	    				return ql;
-	    			}
-	    		}
-	    	}
+    		return activeLevelsByUniqueName.get(uniqueLevelName);
     	}
     	return null;
     }
 
+    void levelActivated(QueryLevel level) {
+    	activeLevelsByUniqueName.put(level.getUniqueName(), level);
+    }
+
+    void levelDeactivated(QueryLevel level) {
+    	if (activeLevelsByUniqueName.get(level.getUniqueName()) == level) {
+    		activeLevelsByUniqueName.remove(level.getUniqueName());
+    	}
+    }
+
     /**
      * Swaps rows and columns axes. Only applicable if there are two axes.
      */
@@ -264,6 +571,7 @@ public class Query {
         across.getQueryHierarchies().addAll(tmpDown);
 
         down.getQueryHierarchies().addAll(tmpAcross);
+        markModified();
     }
 
     /**
@@ -378,6 +686,7 @@ public class Query {
     
     public void addCalculatedMeasure(CalculatedMeasure cm) {
     	calculatedMeasures.add(cm);
+    	markModified();
     }
     
     public NamedList<CalculatedMeasure> getCalculatedMeasures() {
@@ -419,6 +728,11 @@ public class Query {
      * Executes the query against the current OlapConnection and returns
      * a CellSet object representation of the data.
      *
+     * <p>Unless statement reuse is enabled (see
+     * {@link #setReuseStatements(boolean)}) a new statement is created for
+     * every call, the caller is responsible to close it when done with the
+     * CellSet. {@link #executeSnapshot()} takes care of that itself.
+     *
      * @return A proper CellSet object that represents the query execution
      *     results.
      * @throws OlapException If something goes sour, an OlapException will
@@ -426,15 +740,331 @@ public class Query {
      *     a stale connection. Look at the root cause for more details.
      */
     public CellSet execute() throws OlapException {
-        SelectNode mdx = getSelect();
-        final Catalog catalog = getCatalog();
+        checkCardinality();
+        String mdx = getMdx();
+        OlapStatement statement = StatementManager.acquire(connection, reuseStatements);
+        boolean executed = false;
         try {
-            this.connection.setCatalog(catalog.getName());
+            CellSet cellSet = executeMdx(statement, mdx);
+            executed = true;
+            return cellSet;
+        } finally {
+            if (!executed) {
+                StatementManager.release(statement, null, reuseStatements);
+            }
+        }
+    }
+
+    /**
+     * Executes the query and returns a copy of the results that is detached
+     * from the connection, the statement used for the execution is closed.
+     * If a {@link ResultCache} is set, the results are taken from the cache
+     * if the same MDX was executed before on the same catalog and role.
+     *
+     * @return The query execution results.
+     * @throws OlapException If the query cannot be executed.
+     */
+    public ResultSnapshot executeSnapshot() throws OlapException {
+        checkCardinality();
+        String mdx = getMdx();
+        String catalogName = getCatalog().getName();
+        String role = connection.getRoleName();
+        if (resultCache != null) {
+            ResultSnapshot cached = resultCache.get(mdx, catalogName, role);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        OlapStatement statement = StatementManager.acquire(connection, reuseStatements);
+        CellSet cellSet = null;
+        ResultSnapshot snapshot;
+        try {
+            cellSet = executeMdx(statement, mdx);
+            long start = System.nanoTime();
+            snapshot = new ResultSnapshot(cellSet);
+            metricsListener.phaseCompleted(this, QueryPhase.TRAVERSE, System.nanoTime() - start);
+        } finally {
+            StatementManager.release(statement, cellSet, reuseStatements);
+        }
+        if (resultCache != null) {
+            resultCache.put(mdx, catalogName, role, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Executes the query and returns a columnar copy of the results that is
+     * detached from the connection, see {@link ColumnarSnapshot}. The
+     * statement used for the execution is closed as soon as the copy is
+     * taken. Formatted values are not kept.
+     *
+     * @return The query execution results.
+     * @throws OlapException If the query cannot be executed.
+     */
+    public ColumnarSnapshot executeColumnarSnapshot() throws OlapException {
+        return executeColumnarSnapshot(false);
+    }
+
+    /**
+     * Executes the query and returns a columnar copy of the results that is
+     * detached from the connection, see {@link ColumnarSnapshot}.
+     *
+     * @param keepFormattedValues whether to copy the formatted cell values
+     * @return The query execution results.
+     * @throws OlapException If the query cannot be executed.
+     */
+    public ColumnarSnapshot executeColumnarSnapshot(boolean keepFormattedValues) throws OlapException {
+        checkCardinality();
+        String mdx = getMdx();
+        OlapStatement statement = StatementManager.acquire(connection, reuseStatements);
+        CellSet cellSet = null;
+        try {
+            cellSet = executeMdx(statement, mdx);
+            long start = System.nanoTime();
+            ColumnarSnapshot snapshot = new ColumnarSnapshot(cellSet, keepFormattedValues);
+            metricsListener.phaseCompleted(this, QueryPhase.TRAVERSE, System.nanoTime() - start);
+            return snapshot;
+        } finally {
+            StatementManager.release(statement, cellSet, reuseStatements);
+        }
+    }
+
+    /**
+     * Executes the query and returns a columnar copy of the results that is
+     * detached from the connection. Results larger than the heap budget of
+     * the store are spilled to a memory-mapped file, see {@link SpillStore}.
+     * The statement used for the execution is closed as soon as the copy is
+     * taken.
+     *
+     * @param spillStore decides where the copy is stored
+     * @return The query execution results, to be closed when no longer needed.
+     * @throws OlapException If the query cannot be executed or the results
+     *     cannot be spilled.
+     */
+    public ColumnarResult executeColumnar(SpillStore spillStore) throws OlapException {
+        checkCardinality();
+        String mdx = getMdx();
+        OlapStatement statement = StatementManager.acquire(connection, reuseStatements);
+        CellSet cellSet = null;
+        try {
+            cellSet = executeMdx(statement, mdx);
+            long start = System.nanoTime();
+            ColumnarResult result = spillStore.copy(cellSet);
+            metricsListener.phaseCompleted(this, QueryPhase.TRAVERSE, System.nanoTime() - start);
+            return result;
+        } catch (IOException e) {
+            throw new OlapException("Error spilling query results", e);
+        } finally {
+            StatementManager.release(statement, cellSet, reuseStatements);
+        }
+    }
+
+    /**
+     * Executes the query and pushes the cells of the result to a consumer
+     * in row major order, see {@link CellStream}. Cells are read one at a
+     * time and no per-cell copies are made, unlike
+     * {@link #executeSnapshot()}. The statement used for the execution is
+     * closed when done.
+     *
+     * @param consumer the consumer of the cells
+     * @return the number of cells streamed
+     * @throws OlapException If the query cannot be executed.
+     */
+    public long execute(CellConsumer consumer) throws OlapException {
+        checkCardinality();
+        String mdx = getMdx();
+        OlapStatement statement = StatementManager.acquire(connection, reuseStatements);
+        CellSet cellSet = null;
+        try {
+            cellSet = executeMdx(statement, mdx);
+            long start = System.nanoTime();
+            long cells = CellStream.stream(cellSet, consumer);
+            metricsListener.phaseCompleted(this, QueryPhase.TRAVERSE, System.nanoTime() - start);
+            return cells;
+        } finally {
+            StatementManager.release(statement, cellSet, reuseStatements);
+        }
+    }
+
+    /**
+     * Returns the MDX of a query for the number of tuples of an axis,
+     * ignoring its paging, see {@link QueryAxis#setPaging(int, int)}.
+     * @param axis the axis to count
+     * @return the MDX, its result is a single cell holding the count
+     * @throws OlapException If the query cannot be compiled.
+     */
+    public String getCountMdx(Axis axis) throws OlapException {
+        SelectNode select;
+        try {
+            select = Olap4jNodeConverter.toCountQuery(this, axis);
+        } catch (Exception e) {
+            throw new OlapException("Error creating count query", e);
+        }
+        final Writer writer = new StringWriter();
+        select.unparse(new ParseTreeWriter(new PrintWriter(writer)));
+        return writer.toString();
+    }
+
+    /**
+     * Executes a query for the number of tuples of an axis over all pages,
+     * see {@link #getCountMdx(Axis)}.
+     * @param axis the axis to count
+     * @return the number of tuples
+     * @throws OlapException If the query cannot be executed.
+     */
+    public long executeCount(Axis axis) throws OlapException {
+        String mdx = getCountMdx(axis);
+        OlapStatement statement = StatementManager.acquire(connection, reuseStatements);
+        CellSet cellSet = null;
+        try {
+            cellSet = executeMdx(statement, mdx);
+            Object value = cellSet.getCell(0).getValue();
+            return (value instanceof Number ? ((Number) value).longValue() : 0);
+        } finally {
+            StatementManager.release(statement, cellSet, reuseStatements);
+        }
+    }
+
+    /**
+     * Executes the query on a worker thread of the given executor. The query
+     * is compiled on the calling thread, so it can be modified as soon as
+     * this method returns. The statement used for the execution belongs to
+     * the caller of {@link QueryFuture#get()} just like with {@link #execute()}.
+     *
+     * <p>Use a {@link QueryExecutor} to limit the number of queries
+     * running concurrently against the same cube.
+     *
+     * @param executor the executor running the query
+     * @return a handle to wait for, or cancel, the execution
+     * @throws OlapException If the query cannot be compiled.
+     */
+    public QueryFuture executeAsync(Executor executor) throws OlapException {
+        checkCardinality();
+        QueryFuture future = new QueryFuture(this, getMdx());
+        executor.execute(future);
+        return future;
+    }
+
+    CellSet executeMdx(OlapStatement statement, String mdx) throws OlapException {
+        final String catalogName = getCatalog().getName();
+        try {
+            if (!catalogName.equals(connection.getCatalog())) {
+                this.connection.setCatalog(catalogName);
+            }
         } catch (SQLException e) {
             throw new OlapException("Error while executing query", e);
         }
-        OlapStatement olapStatement = connection.createStatement();
-        return olapStatement.executeOlapQuery(mdx);
+        long start = System.nanoTime();
+        CellSet cellSet = statement.executeOlapQuery(mdx);
+        metricsListener.phaseCompleted(this, QueryPhase.EXECUTE, System.nanoTime() - start);
+        return cellSet;
+    }
+
+    /**
+     * Whether all executions on this query's connection should share a
+     * single statement instead of creating a new one each time.
+     * Executing the query again closes the CellSet returned by the previous
+     * execution, see {@link StatementManager}.
+     * @param reuseStatements true to reuse the statement of the connection
+     */
+    public void setReuseStatements(boolean reuseStatements) {
+        this.reuseStatements = reuseStatements;
+    }
+
+    public boolean isReuseStatements() {
+        return reuseStatements;
+    }
+
+    /**
+     * Sets the listener that receives the timings of the compilation,
+     * MDX generation, execution and result traversal of this query.
+     * @param metricsListener the listener, null to not collect metrics
+     */
+    public void setMetricsListener(QueryMetricsListener metricsListener) {
+        this.metricsListener = (metricsListener == null ? NoOpMetricsListener.INSTANCE : metricsListener);
+    }
+
+    public QueryMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * Sets the metrics listener of the queries created from now on, see
+     * {@link #setMetricsListener(QueryMetricsListener)}.
+     * @param metricsListener the listener, null to not collect metrics
+     */
+    public static void setDefaultMetricsListener(QueryMetricsListener metricsListener) {
+        defaultMetricsListener = (metricsListener == null ? NoOpMetricsListener.INSTANCE : metricsListener);
+    }
+
+    /**
+     * Sets a limit on the estimated number of tuples of the columns and rows.
+     * Depending on the guard's action, axes above the limit are generated
+     * with NON EMPTY or the execution of the query is rejected.
+     * @param cardinalityGuard the guard, null to not limit the axes
+     */
+    public void setCardinalityGuard(CardinalityGuard cardinalityGuard) {
+        this.cardinalityGuard = cardinalityGuard;
+        markModified();
+    }
+
+    public CardinalityGuard getCardinalityGuard() {
+        return cardinalityGuard;
+    }
+
+    /**
+     * Estimates the number of tuples of an axis without executing the query,
+     * see {@link CardinalityEstimator}.
+     * @param axis the axis
+     * @return the worst case number of tuples, or
+     * {@link CardinalityEstimator#UNKNOWN} if it cannot be estimated
+     */
+    public long getEstimatedCardinality(Axis axis) {
+        return CardinalityEstimator.estimate(getAxis(axis));
+    }
+
+    boolean isNonEmptyForced(QueryAxis axis) {
+        return isNonEmptyForced(axis, cardinalityParameters != null ? cardinalityParameters : parameters);
+    }
+
+    boolean isNonEmptyForced(QueryAxis axis, Map<String, String> parameterValues) {
+        return cardinalityGuard != null
+                && cardinalityGuard.getAction() == CardinalityGuard.Action.NON_EMPTY
+                && cardinalityGuard.isExceeded(axis, parameterValues);
+    }
+
+    /**
+     * Called before every execution of the query.
+     */
+    void checkCardinality() throws CardinalityExceededException {
+        checkCardinality(parameters);
+    }
+
+    /**
+     * Checks the cardinality as if the query had the given parameter values.
+     */
+    void checkCardinality(Map<String, String> parameterValues) throws CardinalityExceededException {
+        if (cardinalityGuard != null && cardinalityGuard.getAction() == CardinalityGuard.Action.REJECT) {
+            for (QueryAxis axis : new QueryAxis[] { across, down }) {
+                if (cardinalityGuard.isExceeded(axis, parameterValues)) {
+                    throw new CardinalityExceededException(axis.getLocation(),
+                            CardinalityEstimator.estimate(axis, parameterValues), cardinalityGuard.getMaximumTuples());
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the cache used by {@link #executeSnapshot()}. The cache is
+     * usually shared by all queries of a user session.
+     * @param resultCache the cache, null to disable caching
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    public ResultCache getResultCache() {
+        return resultCache;
     }
 
     /**
@@ -470,6 +1100,13 @@ public class Query {
 	
 	
 	private QueryAxis findAxis(QueryHierarchy hierarchy) {
+		if (!unusedAxisMaterialized) {
+			// every hierarchy of the query is part of the unused axis
+			if (hierarchyMap.get(hierarchy.getUniqueName()) == hierarchy) {
+				return getUnusedAxis();
+			}
+			return null;
+		}
 		if (getUnusedAxis().getQueryHierarchies().contains(hierarchy)) {
 			return getUnusedAxis();
 		}
@@ -495,10 +1132,12 @@ public class Query {
      */
     public void setSelectDefaultMembers(boolean selectDefaultMembers) {
         this.selectDefaultMembers = selectDefaultMembers;
+        markModified();
     }
     
     public void setDefaultHierarchizeMode(HierarchizeMode mode) {
     	this.defaultHierarchizeMode = mode;
+    	markModified();
     }
     
     public HierarchizeMode getDefaultHierarchizeMode() {
@@ -510,6 +1149,7 @@ public class Query {
 			this.visualTotalsPattern = null;
 		}
     	this.visualTotals = visualTotals;
+    	markModified();
     }
     
     public boolean isVisualTotals() {
@@ -518,6 +1158,7 @@ public class Query {
     	
 	public void setVisualTotalsPattern(String pattern) {
 		this.visualTotalsPattern = pattern;
+		markModified();
 	}
 	
 	public String getVisualTotalsPattern() {
@@ -526,6 +1167,7 @@ public class Query {
 	
 	public void setLowestLevelsOnly(boolean lowest) {
 		this.lowestLevelsOnly = lowest;
+		markModified();
 	}
 	
 	public boolean isLowestLevelsOnly() {
@@ -541,6 +1183,11 @@ public class Query {
 	
 	public void retrieveParameters() {
 		for (QueryAxis qa : getAxes().values()) {
+			if (qa == unused) {
+				// unused hierarchies carry no parameters, looking at them
+				// would create a QueryHierarchy for every hierarchy of the cube
+				continue;
+			}
 			for (QueryHierarchy qh : qa.getQueryHierarchies()) {
 				for (QueryLevel ql : qh.getActiveQueryLevels()) {
 					String pName = ql.getParameterName();
@@ -565,10 +1212,12 @@ public class Query {
 	 */
 	public void setParameters(Map<String, String> parameters) {
 		this.parameters  = parameters;
+		markModified();
 	}
 	
 	public void setParameter(String name, String value) {
 		this.parameters.put(name, value);
+		markModified();
 	}
 
 	public String getParameter(String parameter) {
@@ -590,6 +1239,7 @@ public class Query {
 		if (StringUtils.isNotBlank(parameter)) {
 			if (!parameters.containsKey(parameter)) {
 				parameters.put(parameter, null);
+				markModified();
 			}
 		}
 	}
@@ -621,19 +1271,21 @@ public class Query {
         private BackendFlavor(String token) {
             this.token = token;
         }
+
+        String getToken() {
+            return token;
+        }
 	}
 	
+	/**
+	 * Returns the backend flavor of this query's connection. The flavor is
+	 * detected once per connection, see {@link BackendFlavorCache}.
+	 * @return the backend flavor
+	 * @throws OlapException if the database metadata cannot be read
+	 */
 	public BackendFlavor getFlavor() throws OlapException {
-            final String dataSourceInfo =
-                this.connection.getOlapDatabase().getDataSourceInfo();
-            final String proivder = this.connection.getOlapDatabase().getProviderName();
-            for (BackendFlavor flavor : BackendFlavor.values()) {
-                if (proivder.contains(flavor.token) || dataSourceInfo.contains(flavor.token)) {
-                    return flavor;
-                }
-            }
-            throw new AssertionError("Can't determine the backend vendor. (" + dataSourceInfo + ")");
-     }
+		return BackendFlavorCache.getFlavor(this.connection);
+	}
 
     
 //  /**
@@ -28,6 +28,9 @@ public class QueryAxis extends AbstractSortableQuerySet {
     private final Query query;
     protected Axis location = null;
     private boolean nonEmpty;
+    private long modificationCount = 0;
+    private int pageOffset = 0;
+    private int pageLimit = -1;
     
     public QueryAxis(Query query, Axis location) {
         super();
@@ -62,6 +65,49 @@ public class QueryAxis extends AbstractSortableQuerySet {
      */
     public void setNonEmpty(boolean nonEmpty) {
     	this.nonEmpty = nonEmpty;
+    	modified();
+    }
+
+    /**
+     * Limits the tuples of this axis to a page. The page is cut on the
+     * server after sorting, filtering and removing empty tuples, so
+     * consecutive pages of a NON EMPTY axis do not overlap.
+     * {@link Query#executeCount(Axis)} returns the number of tuples of all pages.
+     *
+     * @param offset the number of tuples to skip
+     * @param limit the number of tuples of the page
+     */
+    public void setPaging(int offset, int limit) {
+    	if (offset < 0 || limit < 0) {
+    		throw new IllegalArgumentException("Offset and limit must not be negative");
+    	}
+    	this.pageOffset = offset;
+    	this.pageLimit = limit;
+    	modified();
+    }
+
+    /**
+     * Returns all tuples of this axis again, see {@link #setPaging(int, int)}.
+     */
+    public void clearPaging() {
+    	this.pageOffset = 0;
+    	this.pageLimit = -1;
+    	modified();
+    }
+
+    public boolean isPaged() {
+    	return pageLimit >= 0;
+    }
+
+    public int getPageOffset() {
+    	return pageOffset;
+    }
+
+    /**
+     * @return the number of tuples of a page, -1 if the axis is not paged
+     */
+    public int getPageLimit() {
+    	return pageLimit;
     }
 
     public String getName() {
@@ -77,6 +123,24 @@ public class QueryAxis extends AbstractSortableQuerySet {
     	return query;
     }
     
+    /**
+     * Marks this axis as changed. Only this axis is generated again
+     * by the next compilation of the query.
+     */
+    @Override
+    protected void modified() {
+    	modificationCount++;
+    	query.axisModified();
+    }
+
+    /**
+     * @return the number of changes made to this axis and the hierarchies
+     * placed on it so far
+     */
+    public long getModificationCount() {
+    	return modificationCount;
+    }
+
     public boolean isLowestLevelsOnly() {
     	return (query.isLowestLevelsOnly() | Axis.FILTER.equals(location));
     }
@@ -112,6 +176,7 @@ public class QueryAxis extends AbstractSortableQuerySet {
         {
             // careful! potential for loop
         	hierarchy.getAxis().getQueryHierarchies().remove(hierarchy);
+        	hierarchy.getAxis().modified();
         }
         hierarchy.setAxis(QueryAxis.this);
         if (index >= hierarchies.size() || index < 0) {
@@ -119,6 +184,7 @@ public class QueryAxis extends AbstractSortableQuerySet {
         } else {
         	hierarchies.add(index, hierarchy);
         }
+        modified();
     }
 
 
@@ -130,6 +196,7 @@ public class QueryAxis extends AbstractSortableQuerySet {
     public void removeHierarchy(QueryHierarchy hierarchy) {
     	hierarchy.setAxis(null);
         this.getQueryHierarchies().remove(hierarchy);
+        modified();
     }
 
 }
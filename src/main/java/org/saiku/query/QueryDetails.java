@@ -45,6 +45,7 @@ public class QueryDetails implements Named {
 	public void add(Measure measure) {
 		if (!measures.contains(measure)) {
 			measures.add(measure);
+			query.markModified();
 		}
 	}
 	
@@ -58,10 +59,12 @@ public class QueryDetails implements Named {
 				measures.remove(oldindex);
 			}
 		}
+		query.markModified();
 	}
 	
 	public void remove(Measure measure) {
 		measures.remove(measure);
+		query.markModified();
 	}
 	
 	
@@ -75,6 +78,7 @@ public class QueryDetails implements Named {
 
 	public void setLocation(Location location) {
 		this.location = location;
+		query.markModified();
 	}
 	
 	public Axis getAxis() {
@@ -83,6 +87,7 @@ public class QueryDetails implements Named {
 	
 	public void setAxis(Axis axis) {
 		this.axis = axis;
+		query.markModified();
 	}
 
 	@Override
@@ -0,0 +1,223 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.olap4j.OlapException;
+import org.olap4j.metadata.Cube;
+
+/**
+ * Bounded executor for asynchronous queries, see
+ * {@link Query#executeAsync(Executor)}.
+ * <p>At most <code>concurrencyLimit</code> queries run at the same time
+ * against the same cube, further queries of that cube wait without
+ * occupying a thread. The number of waiting queries is limited as well,
+ * queries exceeding the limit are rejected with a
+ * {@link RejectedExecutionException}. Tasks that are not a
+ * {@link QueryFuture} share a single limit.
+ */
+public class QueryExecutor implements Executor {
+
+	private static final AtomicInteger poolNumber = new AtomicInteger();
+
+	private final ExecutorService threads;
+	private final int concurrencyLimit;
+	private final int maximumWaiting;
+	private final Map<String, Integer> cubeLimits = new HashMap<String, Integer>();
+	private final Map<String, Slot> slots = new HashMap<String, Slot>();
+	private int waiting = 0;
+	private boolean shutdown = false;
+
+	/**
+	 * @param threadCount the number of worker threads
+	 * @param concurrencyLimit the maximum number of queries running
+	 * concurrently against the same cube
+	 * @param maximumWaiting the maximum number of queries waiting for a thread
+	 */
+	public QueryExecutor(int threadCount, int concurrencyLimit, int maximumWaiting) {
+		if (threadCount < 1 || concurrencyLimit < 1 || maximumWaiting < 0) {
+			throw new IllegalArgumentException("Invalid executor limits");
+		}
+		this.concurrencyLimit = concurrencyLimit;
+		this.maximumWaiting = maximumWaiting;
+		final String prefix = "saiku-query-" + poolNumber.incrementAndGet() + "-";
+		this.threads = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, prefix + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Overrides the concurrency limit for one cube.
+	 * @param cube the cube
+	 * @param limit the maximum number of queries running concurrently
+	 * against the cube
+	 */
+	public synchronized void setConcurrencyLimit(Cube cube, int limit) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("Invalid concurrency limit: " + limit);
+		}
+		cubeLimits.put(key(cube), limit);
+	}
+
+	/**
+	 * Submits a query for asynchronous execution.
+	 * @param query the query
+	 * @return a handle to wait for, or cancel, the execution
+	 * @throws OlapException if the query cannot be compiled
+	 */
+	public QueryFuture submit(Query query) throws OlapException {
+		return query.executeAsync(this);
+	}
+
+	public void execute(Runnable command) {
+		String key = "";
+		if (command instanceof QueryFuture) {
+			key = key(((QueryFuture) command).getQuery().getCube());
+		}
+		synchronized (this) {
+			if (shutdown) {
+				throw new RejectedExecutionException("Executor has been shut down");
+			}
+			Slot slot = slots.get(key);
+			if (slot == null) {
+				slot = new Slot();
+				slots.put(key, slot);
+			}
+			if (slot.running < limit(key)) {
+				slot.running++;
+				dispatch(key, command);
+			} else if (waiting < maximumWaiting) {
+				waiting++;
+				slot.waiting.add(command);
+			} else {
+				throw new RejectedExecutionException(
+						"Too many queries waiting, limit is " + maximumWaiting);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of queries waiting for their cube's limit
+	 */
+	public synchronized int getWaiting() {
+		return waiting;
+	}
+
+	/**
+	 * @param cube the cube
+	 * @return the number of queries currently running against the cube
+	 */
+	public synchronized int getRunning(Cube cube) {
+		Slot slot = slots.get(key(cube));
+		return (slot == null ? 0 : slot.running);
+	}
+
+	/**
+	 * Rejects new queries, already submitted ones are still executed.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		if (waiting == 0) {
+			threads.shutdown();
+		}
+	}
+
+	/**
+	 * Rejects new queries and cancels all waiting and running ones.
+	 */
+	public void shutdownNow() {
+		LinkedList<Runnable> cancelled = new LinkedList<Runnable>();
+		synchronized (this) {
+			shutdown = true;
+			for (Slot slot : slots.values()) {
+				cancelled.addAll(slot.waiting);
+				slot.waiting.clear();
+			}
+			waiting = 0;
+		}
+		for (Runnable command : cancelled) {
+			if (command instanceof QueryFuture) {
+				((QueryFuture) command).cancel(true);
+			}
+		}
+		threads.shutdownNow();
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return threads.awaitTermination(timeout, unit);
+	}
+
+	private void dispatch(final String key, final Runnable command) {
+		threads.execute(new Runnable() {
+			public void run() {
+				try {
+					command.run();
+				} finally {
+					completed(key);
+				}
+			}
+		});
+	}
+
+	private synchronized void completed(String key) {
+		Slot slot = slots.get(key);
+		Runnable next = slot.waiting.poll();
+		if (next != null) {
+			waiting--;
+			dispatch(key, next);
+		} else {
+			slot.running--;
+			if (slot.running == 0) {
+				slots.remove(key);
+			}
+		}
+		if (shutdown && waiting == 0) {
+			threads.shutdown();
+		}
+	}
+
+	private int limit(String key) {
+		Integer limit = cubeLimits.get(key);
+		return (limit == null ? concurrencyLimit : limit);
+	}
+
+	private static String key(Cube cube) {
+		return cube.getSchema().getCatalog().getName()
+				+ "." + cube.getSchema().getName()
+				+ "." + cube.getUniqueName();
+	}
+
+	private static class Slot {
+		private int running = 0;
+		private final LinkedList<Runnable> waiting = new LinkedList<Runnable>();
+	}
+}
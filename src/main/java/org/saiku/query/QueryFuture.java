@@ -0,0 +1,147 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query;
+
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.olap4j.CellSet;
+import org.olap4j.OlapException;
+import org.olap4j.OlapStatement;
+
+/**
+ * Handle to a query running asynchronously, see
+ * {@link Query#executeAsync(java.util.concurrent.Executor)}.
+ * <p>Cancelling the future cancels the running statement through
+ * {@link OlapStatement#cancel()}, a result that is produced after the
+ * future was cancelled is closed.
+ */
+public class QueryFuture extends FutureTask<CellSet> {
+
+	private final Query query;
+	private final String mdx;
+	private final Object lock = new Object();
+	private OlapStatement statement;
+	private boolean completed = false;
+
+	QueryFuture(final Query query, final String mdx) {
+		this(query, mdx, new Execution());
+	}
+
+	private QueryFuture(final Query query, final String mdx, final Execution execution) {
+		super(execution);
+		execution.future = this;
+		this.query = query;
+		this.mdx = mdx;
+	}
+
+	/**
+	 * @return the query being executed
+	 */
+	public Query getQuery() {
+		return query;
+	}
+
+	/**
+	 * @return the MDX being executed
+	 */
+	public String getMdx() {
+		return mdx;
+	}
+
+	/**
+	 * Waits for the result at most the given time and cancels the
+	 * execution if it did not finish in time.
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return the result of the query
+	 * @throws OlapException if the execution failed
+	 * @throws TimeoutException if the execution timed out and was cancelled
+	 * @throws InterruptedException if the current thread was interrupted
+	 */
+	public CellSet getResult(long timeout, TimeUnit unit)
+			throws OlapException, TimeoutException, InterruptedException
+	{
+		try {
+			return get(timeout, unit);
+		} catch (TimeoutException e) {
+			cancel(true);
+			throw e;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof OlapException) {
+				throw (OlapException) e.getCause();
+			}
+			throw new OlapException("Error while executing query", e.getCause());
+		}
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (lock) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if (cancelled && statement != null) {
+				try {
+					if (completed) {
+						// the result will never be handed out
+						statement.close();
+					} else {
+						statement.cancel();
+					}
+				} catch (SQLException e) {
+					// the execution fails or is closed anyway
+				}
+			}
+			return cancelled;
+		}
+	}
+
+	private CellSet call() throws Exception {
+		synchronized (lock) {
+			if (isCancelled()) {
+				throw new CancellationException();
+			}
+			statement = StatementManager.acquire(query.getConnection(), false);
+		}
+		CellSet cellSet = null;
+		try {
+			cellSet = query.executeMdx(statement, mdx);
+		} finally {
+			synchronized (lock) {
+				if (cellSet == null || isCancelled()) {
+					StatementManager.release(statement, null, false);
+				}
+				completed = true;
+			}
+		}
+		if (isCancelled()) {
+			throw new CancellationException();
+		}
+		return cellSet;
+	}
+
+	private static class Execution implements Callable<CellSet> {
+		private QueryFuture future;
+
+		public CellSet call() throws Exception {
+			return future.call();
+		}
+	}
+}
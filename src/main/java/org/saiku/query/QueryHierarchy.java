@@ -15,9 +15,14 @@
  */
 package org.saiku.query;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.olap4j.OlapException;
 import org.olap4j.impl.IdentifierParser;
@@ -29,6 +34,7 @@ import org.olap4j.metadata.Level;
 import org.olap4j.metadata.Member;
 import org.olap4j.metadata.NamedList;
 import org.saiku.query.metadata.CalculatedMember;
+import org.saiku.query.util.MemberResolver;
 
 public class QueryHierarchy extends AbstractSortableQuerySet implements Named {
 
@@ -36,7 +42,10 @@ public class QueryHierarchy extends AbstractSortableQuerySet implements Named {
     private final Query query;
 	private final Hierarchy hierarchy;
 	
-	private NamedList<QueryLevel> queryLevels = new NamedListImpl<QueryLevel>();
+	/**
+	 * QueryLevels by level name, created on first access.
+	 */
+	private final Map<String, QueryLevel> queryLevels = new HashMap<String, QueryLevel>();
 	
 	private NamedList<QueryLevel> activeLevels = new NamedListImpl<QueryLevel>();
 	
@@ -53,10 +62,18 @@ public class QueryHierarchy extends AbstractSortableQuerySet implements Named {
         super();
         this.query = query;
         this.hierarchy = hierarchy;
-        for (Level level : hierarchy.getLevels()) {
-            QueryLevel queryLevel = new QueryLevel(this, level);
-            queryLevels.add(queryLevel);
-        }
+    }
+
+    private QueryLevel getQueryLevel(String levelName) {
+    	QueryLevel ql = queryLevels.get(levelName);
+    	if (ql == null) {
+    		Level level = hierarchy.getLevels().get(levelName);
+    		if (level != null) {
+    			ql = new QueryLevel(this, level);
+    			queryLevels.put(levelName, ql);
+    		}
+    	}
+    	return ql;
     }
 
     public Query getQuery() {
@@ -73,6 +90,16 @@ public class QueryHierarchy extends AbstractSortableQuerySet implements Named {
      */
     protected void setAxis(QueryAxis axis) {
         this.axis = axis;
+        modified();
+    }
+
+    @Override
+    protected void modified() {
+    	if (axis != null) {
+    		axis.modified();
+    	} else {
+    		query.markModified();
+    	}
     }
 
     public String getName() {
@@ -93,6 +120,7 @@ public class QueryHierarchy extends AbstractSortableQuerySet implements Named {
     
     public void setConsistent(boolean consistent) {
     	this.consistent = consistent;
+    	modified();
     }
     
     /**
@@ -111,11 +139,13 @@ public class QueryHierarchy extends AbstractSortableQuerySet implements Named {
 		if(!visualTotals) {
 			this.visualTotalsPattern = null;
 		}
+		modified();
 	}
 	
 	public void setVisualTotalsPattern(String pattern) {
 		this.visualTotalsPattern = pattern;
 		this.visualTotals = true;
+		modified();
 	}
 	
 	public String getVisualTotalsPattern() {
@@ -140,6 +170,7 @@ public class QueryHierarchy extends AbstractSortableQuerySet implements Named {
     
     public void addCalculatedMember(CalculatedMember cm) {
     	calculatedMembers.add(cm);
+    	modified();
     }
     
     public NamedList<CalculatedMember> getCalculatedMembers() {
@@ -151,21 +182,38 @@ public class QueryHierarchy extends AbstractSortableQuerySet implements Named {
     }
     
     
+    /**
+     * Returns the included levels sorted by depth. Use
+     * {@link #includeLevel(String)} and {@link #excludeLevel(String)} to
+     * change them, the query keeps an index of the included levels.
+     * @return the included levels
+     */
     public List<QueryLevel> getActiveQueryLevels() {
     	Collections.sort(activeLevels, new SaikuQueryLevelComparator());
     	return activeLevels;
     }
     
 
+    private void activate(QueryLevel ql) {
+    	activeLevels.add(ql);
+    	query.levelActivated(ql);
+    }
+
+    private void deactivate(QueryLevel ql) {
+    	activeLevels.remove(ql);
+    	query.levelDeactivated(ql);
+    }
+
     public QueryLevel getActiveLevel(String levelName) {
     	return activeLevels.get(levelName);
 
     }
     
     public QueryLevel includeLevel(String levelName) {
-    	QueryLevel ql = queryLevels.get(levelName);
+    	QueryLevel ql = getQueryLevel(levelName);
     	if (ql != null && !activeLevels.contains(ql)) {
-    		activeLevels.add(ql);
+    		activate(ql);
+    		modified();
     	}
     	return ql;
     }
@@ -176,32 +224,109 @@ public class QueryHierarchy extends AbstractSortableQuerySet implements Named {
     				"You cannot include level " + l.getUniqueName() 
     				+ " on hierarchy " + hierarchy.getUniqueName());
     	}
-    	QueryLevel ql = queryLevels.get(l.getName());
+    	QueryLevel ql = getQueryLevel(l.getName());
     	if (ql != null && !activeLevels.contains(l)) {
-    		activeLevels.add(ql);
+    		activate(ql);
+    		modified();
     	}
     	return ql;
     }
     
     public void excludeLevel(String levelName) {
-    	QueryLevel ql = queryLevels.get(levelName);
+    	QueryLevel ql = getQueryLevel(levelName);
     	if (ql != null && activeLevels.contains(ql)) {
-    		activeLevels.remove(ql);
+    		deactivate(ql);
+    		modified();
     	}
     }
 
     public void excludeLevel(Level l) throws OlapException {
-    	QueryLevel ql = queryLevels.get(l.getName());
+    	QueryLevel ql = getQueryLevel(l.getName());
     	if (ql != null && !activeLevels.contains(l)) {
-    		activeLevels.remove(ql);
+    		deactivate(ql);
+    		modified();
     	}
     }
 
     
+    /**
+     * Includes all given members, keeping their order. The members are
+     * added per level in one go, which is a lot faster than including
+     * them one by one for large selections.
+     * @param members the members to include
+     * @throws OlapException if a member does not belong to this hierarchy
+     */
     public void includeMembers(List<Member> members) throws OlapException {
+    	Map<Level, List<Member>> byLevel = groupByLevel(members);
+    	for (Level l : byLevel.keySet()) {
+    		if (!l.getHierarchy().equals(hierarchy)) {
+    			throw new OlapException(
+    					"You cannot include member " + byLevel.get(l).get(0).getUniqueName()
+    					+ " on hierarchy " + hierarchy.getUniqueName());
+    		}
+    	}
+    	for (Map.Entry<Level, List<Member>> entry : byLevel.entrySet()) {
+    		QueryLevel ql = getQueryLevel(entry.getKey().getName());
+    		if (!activeLevels.contains(ql)) {
+    			activate(ql);
+    		}
+    		ql.include(entry.getValue());
+    	}
+    }
+
+    /**
+     * Includes the members with the given unique names, see
+     * {@link MemberResolver} for how the names are resolved in bulk.
+     * Names that cannot be resolved, or belong to another hierarchy, are
+     * skipped and returned.
+     * @param uniqueMemberNames the unique names of the members to include
+     * @return the names that were not included
+     * @throws OlapException if the metadata cannot be read
+     */
+    public List<String> includeMembersByName(Collection<String> uniqueMemberNames) throws OlapException {
+    	List<String> unresolved = new ArrayList<String>();
+    	includeMembers(resolve(uniqueMemberNames, unresolved));
+    	return unresolved;
+    }
+
+    /**
+     * Excludes the members with the given unique names, see
+     * {@link #includeMembersByName(Collection)}.
+     * @param uniqueMemberNames the unique names of the members to exclude
+     * @return the names that were not excluded
+     * @throws OlapException if the metadata cannot be read
+     */
+    public List<String> excludeMembersByName(Collection<String> uniqueMemberNames) throws OlapException {
+    	List<String> unresolved = new ArrayList<String>();
+    	excludeMembers(resolve(uniqueMemberNames, unresolved));
+    	return unresolved;
+    }
+
+    private List<Member> resolve(Collection<String> uniqueMemberNames, List<String> unresolved) throws OlapException {
+    	MemberResolver.Resolution resolution = new MemberResolver(query.getCube()).resolve(uniqueMemberNames);
+    	List<Member> members = new ArrayList<Member>();
+    	for (Map.Entry<String, Member> entry : resolution.getMembersByName().entrySet()) {
+    		if (entry.getValue().getHierarchy().equals(hierarchy)) {
+    			members.add(entry.getValue());
+    		} else {
+    			unresolved.add(entry.getKey());
+    		}
+    	}
+    	unresolved.addAll(resolution.getUnresolved());
+    	return members;
+    }
+
+    private static Map<Level, List<Member>> groupByLevel(List<Member> members) {
+    	Map<Level, List<Member>> byLevel = new LinkedHashMap<Level, List<Member>>();
     	for (Member m : members) {
-    		includeMember(m);
+    		List<Member> levelMembers = byLevel.get(m.getLevel());
+    		if (levelMembers == null) {
+    			levelMembers = new ArrayList<Member>();
+    			byLevel.put(m.getLevel(), levelMembers);
+    		}
+    		levelMembers.add(m);
     	}
+    	return byLevel;
     }
 
     public void includeMember(String uniqueMemberName) throws OlapException {
@@ -230,11 +355,13 @@ public class QueryHierarchy extends AbstractSortableQuerySet implements Named {
     		calculatedMembers.add(m);
     	}
     	activeCalculatedMembers.add(m);
+    	modified();
     }
     
     public void excludeCalculatedMember(CalculatedMember m) throws OlapException {
     	calculatedMembers.remove(m);
     	activeCalculatedMembers.remove(m);
+    	modified();
     }
     
     public void includeMember(Member m) throws OlapException {
@@ -244,9 +371,9 @@ public class QueryHierarchy extends AbstractSortableQuerySet implements Named {
     				"You cannot include member " + m.getUniqueName() 
     				+ " on hierarchy " + hierarchy.getUniqueName());
     	}
-    	QueryLevel ql = queryLevels.get(l.getName());
+    	QueryLevel ql = getQueryLevel(l.getName());
     	if (!activeLevels.contains(ql)) {
-    		activeLevels.add(ql);
+    		activate(ql);
     	}
     	ql.include(m);
     }
@@ -284,9 +411,9 @@ public class QueryHierarchy extends AbstractSortableQuerySet implements Named {
     				"Hierarchy not matching. You cannot include a range selection for " + start.getUniqueName() 
     				+ " and " + end.getUniqueName() + " on hierarchy " + hierarchy.getUniqueName());
     	}
-    	QueryLevel ql = queryLevels.get(l.getName());
+    	QueryLevel ql = getQueryLevel(l.getName());
     	if (!activeLevels.contains(ql)) {
-    		activeLevels.add(ql);
+    		activate(ql);
     	}
     	ql.setRange(start, end);
     }
@@ -305,9 +432,24 @@ public class QueryHierarchy extends AbstractSortableQuerySet implements Named {
         this.excludeMember(member);
     }
     
+    /**
+     * Excludes all given members, see {@link #includeMembers(List)}.
+     * @param members the members to exclude
+     */
     public void excludeMembers(List<Member> members) {
-    	for (Member m : members) {
-    		excludeMember(m);
+    	Map<Level, List<Member>> byLevel = groupByLevel(members);
+    	for (Level l : byLevel.keySet()) {
+    		if (!l.getHierarchy().equals(hierarchy)) {
+    			throw new IllegalArgumentException("You cannot exclude member " + byLevel.get(l).get(0).getUniqueName()
+    					+ " on hierarchy " + hierarchy.getUniqueName());
+    		}
+    	}
+    	for (Map.Entry<Level, List<Member>> entry : byLevel.entrySet()) {
+    		QueryLevel ql = getQueryLevel(entry.getKey().getName());
+    		if (!activeLevels.contains(ql)) {
+    			activate(ql);
+    		}
+    		ql.exclude(entry.getValue());
     	}
     }
 
@@ -316,9 +458,9 @@ public class QueryHierarchy extends AbstractSortableQuerySet implements Named {
     	if (!l.getHierarchy().equals(hierarchy)) {
     		throw new IllegalArgumentException("You cannot exclude member " + m.getUniqueName() + " on hierarchy " + hierarchy.getUniqueName());
     	}
-    	QueryLevel ql = queryLevels.get(l.getName());
+    	QueryLevel ql = getQueryLevel(l.getName());
     	if (!activeLevels.contains(ql)) {
-    		activeLevels.add(ql);
+    		activate(ql);
     	}
     	ql.exclude(m);
     }
@@ -327,9 +469,11 @@ public class QueryHierarchy extends AbstractSortableQuerySet implements Named {
     	if (activeLevels != null) {
     		for (QueryLevel ql : activeLevels) {
     			ql.clearSelections();
+    			query.levelDeactivated(ql);
     		}
     	}
     	activeLevels.clear();
+    	modified();
     }
     
     /* (non-Javadoc)
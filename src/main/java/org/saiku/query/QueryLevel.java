@@ -15,7 +15,7 @@
  */
 package org.saiku.query;
 
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
@@ -24,13 +24,14 @@ import org.olap4j.metadata.Level;
 import org.olap4j.metadata.Level.Type;
 import org.olap4j.metadata.Member;
 import org.saiku.query.Parameter.SelectionType;
+import org.saiku.query.util.MemberSelection;
 
 public class QueryLevel extends AbstractQuerySet implements Named {
     private final QueryHierarchy hierarchy;
 	private final Level level;
 	
-	private List<Member> inclusions = new ArrayList<Member>();
-	private List<Member> exclusions = new ArrayList<Member>();
+	private final MemberSelection inclusions = new MemberSelection();
+	private final MemberSelection exclusions = new MemberSelection();
 	private Member rangeStart = null;
 	private Member rangeEnd = null;
 	private String rangeStartExpr = null;
@@ -53,6 +54,11 @@ public class QueryLevel extends AbstractQuerySet implements Named {
     public String getName() {
         return level.getName();
     }
+
+    @Override
+    protected void modified() {
+    	hierarchy.modified();
+    }
     
     public String getUniqueName() {
     	return level.getUniqueName();
@@ -127,47 +133,76 @@ public class QueryLevel extends AbstractQuerySet implements Named {
 		this.rangeEnd = null;
 		this.rangeEndExpr = null;
 		this.rangeEndSyn = null;
+		modified();
 	}
 
     protected void include(Member m) {
-    	if(!inclusions.contains(m)) {
-    		inclusions.add(m);
+    	if (inclusions.add(m)) {
+    		modified();
+    	}
+    }
+
+    /**
+     * Includes all given members in their order, members that are
+     * already included keep their position.
+     */
+    protected void include(Collection<Member> members) {
+    	boolean changed = false;
+    	for (Member m : members) {
+    		changed |= inclusions.add(m);
+    	}
+    	if (changed) {
+    		modified();
     	}
     }
     
     protected void exclude(Member m) {
-    	if(inclusions.contains(m)) {
+    	inclusions.remove(m);
+    	exclusions.add(m);
+    	modified();
+    }
+
+    /**
+     * Excludes all given members, removing them from the inclusions.
+     */
+    protected void exclude(Collection<Member> members) {
+    	for (Member m : members) {
     		inclusions.remove(m);
-    	}
-    	if(!exclusions.contains(m)) {
     		exclusions.add(m);
     	}
+    	modified();
     }
     
     protected void setRange(Member start, Member end) {
     	rangeStart = start;
     	rangeEnd = end;
+    	modified();
     }
     
     public void setRangeSynonyms(String startSynonym, String endSynonym) {
     	rangeStartSyn = startSynonym;
     	rangeEndSyn = endSynonym;
+    	modified();
     }
     
     public void setRangeStartSynonym(String startSyn) {
     	rangeStartSyn = startSyn;
+    	modified();
     }
     public void setRangeEndSynonym(String endSyn) {
     	rangeEndSyn = endSyn;
+    	modified();
     }
 
     public void setRangeStartExpr(String startExp) {
     	rangeStart = null;
     	rangeStartExpr = startExp;
+    	modified();
     }
     public void setRangeEndExpr(String endExp) {
     	rangeEnd = null;
     	rangeEndExpr = endExp;
+    	modified();
     }
 
     public void setRangeExpressions(String startExpr, String endExpr) {
@@ -175,6 +210,7 @@ public class QueryLevel extends AbstractQuerySet implements Named {
     	rangeEnd = null;
     	rangeStartExpr = startExpr;
     	rangeEndExpr = endExpr;
+    	modified();
     }    
 
     /* (non-Javadoc)
@@ -215,12 +251,12 @@ public class QueryLevel extends AbstractQuerySet implements Named {
 
 	public void setParameterName(String parameter) {
 		this.parameterName  = parameter;
-		
+		modified();
 	}
 
 	public void setParameterSelectionType(SelectionType selectionType) {
 		this.parameterSelectionType = selectionType;
-		
+		modified();
 	}
 
 	/**
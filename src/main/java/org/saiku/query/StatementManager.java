@@ -0,0 +1,144 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.olap4j.CellSet;
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapException;
+import org.olap4j.OlapStatement;
+
+/**
+ * Creates and closes the statements used to execute queries.
+ * <p>If statement reuse is requested, one statement per connection is kept
+ * open and used for all executions on that connection. Executing a query
+ * on a statement closes the previous CellSet of the statement, so reuse
+ * must only be enabled if a connection is not used by several threads
+ * at the same time and CellSets are consumed before the next execution.
+ */
+public class StatementManager {
+
+	private static final Map<OlapConnection, OlapStatement> statements =
+			Collections.synchronizedMap(new WeakHashMap<OlapConnection, OlapStatement>());
+
+	private static final AtomicInteger openStatements = new AtomicInteger();
+
+	private StatementManager() {
+	}
+
+	/**
+	 * Returns a statement for the given connection.
+	 * @param connection the connection
+	 * @param reuse whether to use the shared statement of the connection
+	 * @return an open statement
+	 * @throws OlapException if the statement cannot be created
+	 */
+	public static OlapStatement acquire(OlapConnection connection, boolean reuse) throws OlapException {
+		if (!reuse) {
+			return create(connection);
+		}
+		synchronized (statements) {
+			OlapStatement statement = statements.get(connection);
+			if (statement != null && isClosed(statement)) {
+				// closed by someone else
+				openStatements.decrementAndGet();
+				statement = null;
+			}
+			if (statement == null) {
+				statement = create(connection);
+				statements.put(connection, statement);
+			}
+			return statement;
+		}
+	}
+
+	/**
+	 * Releases a statement after its results have been consumed. Statements
+	 * that are not reused are closed, for reused ones only the CellSet is closed.
+	 * @param statement the statement returned by {@link #acquire(OlapConnection, boolean)}
+	 * @param cellSet the result of the execution, may be null
+	 * @param reuse whether the statement was acquired for reuse
+	 * @throws OlapException if closing fails
+	 */
+	public static void release(OlapStatement statement, CellSet cellSet, boolean reuse) throws OlapException {
+		try {
+			if (!reuse) {
+				close(statement);
+			} else if (cellSet != null) {
+				cellSet.close();
+			}
+		} catch (SQLException e) {
+			throw new OlapException("Error while closing statement", e);
+		}
+	}
+
+	/**
+	 * Closes the shared statement of a connection, e.g. before the
+	 * connection is closed.
+	 * @param connection the connection
+	 * @throws OlapException if closing fails
+	 */
+	public static void closeStatement(OlapConnection connection) throws OlapException {
+		OlapStatement statement = statements.remove(connection);
+		if (statement != null) {
+			try {
+				close(statement);
+			} catch (SQLException e) {
+				throw new OlapException("Error while closing statement", e);
+			}
+		}
+	}
+
+	/**
+	 * Statements handed out by {@link org.saiku.query.Query#execute()} are
+	 * closed by the caller and not through this class, they stay in the
+	 * count once execution succeeded. The count is only reliable for the
+	 * paths that release their statements themselves, like
+	 * {@link org.saiku.query.Query#executeSnapshot()}, and for shared
+	 * statements.
+	 * @return the number of statements created by this class that were not
+	 * released or closed through it yet
+	 */
+	public static int getOpenStatements() {
+		return openStatements.get();
+	}
+
+	private static OlapStatement create(OlapConnection connection) throws OlapException {
+		OlapStatement statement = connection.createStatement();
+		openStatements.incrementAndGet();
+		return statement;
+	}
+
+	private static void close(OlapStatement statement) throws SQLException {
+		if (!statement.isClosed()) {
+			statement.close();
+			openStatements.decrementAndGet();
+		}
+	}
+
+	private static boolean isClosed(OlapStatement statement) {
+		try {
+			return statement.isClosed();
+		} catch (SQLException e) {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.mdx;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.olap4j.mdx.ParseTreeNode;
+import org.olap4j.mdx.SelectNode;
+import org.olap4j.mdx.parser.MdxParser;
+import org.olap4j.mdx.parser.impl.DefaultMdxParserImpl;
+import org.saiku.query.util.CacheStatistics;
+
+/**
+ * MdxParser that keeps the parse trees of expressions in a cache shared by
+ * all instances, so formulas and filters that are part of many queries are
+ * only parsed once. The cache is bounded and evicts the least recently used
+ * expressions. Cached trees are never handed out, every call returns a
+ * deep copy which the caller is free to modify.
+ * Select statements are not cached.
+ */
+public class CachingMdxParser implements MdxParser {
+
+	public static final int DEFAULT_MAXIMUM_SIZE = 1000;
+
+	private static int maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+	private static final CacheStatistics statistics = new CacheStatistics();
+
+	private static final Map<String, ParseTreeNode> expressions =
+			new LinkedHashMap<String, ParseTreeNode>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, ParseTreeNode> eldest) {
+					return size() > maximumSize;
+				}
+			};
+
+	private MdxParser parser;
+
+	@Override
+	public SelectNode parseSelect(String mdx) {
+		return getParser().parseSelect(mdx);
+	}
+
+	@Override
+	public ParseTreeNode parseExpression(String mdx) {
+		ParseTreeNode expression;
+		synchronized (expressions) {
+			expression = expressions.get(mdx);
+		}
+		if (expression == null) {
+			statistics.miss();
+			expression = getParser().parseExpression(mdx);
+			synchronized (expressions) {
+				expressions.put(mdx, expression);
+			}
+		} else {
+			statistics.hit();
+		}
+		return expression.deepCopy();
+	}
+
+	private MdxParser getParser() {
+		if (parser == null) {
+			parser = new DefaultMdxParserImpl();
+		}
+		return parser;
+	}
+
+	/**
+	 * Sets the maximum number of expressions kept in the cache.
+	 * @param size maximum number of cached expressions, 0 disables caching
+	 */
+	public static void setMaximumSize(int size) {
+		synchronized (expressions) {
+			maximumSize = size;
+			while (expressions.size() > maximumSize) {
+				expressions.remove(expressions.keySet().iterator().next());
+			}
+		}
+	}
+
+	public static int getMaximumSize() {
+		return maximumSize;
+	}
+
+	public static int size() {
+		synchronized (expressions) {
+			return expressions.size();
+		}
+	}
+
+	public static void clear() {
+		synchronized (expressions) {
+			expressions.clear();
+		}
+	}
+
+	public static CacheStatistics getStatistics() {
+		return statistics;
+	}
+}
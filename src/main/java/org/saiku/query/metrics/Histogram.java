@@ -0,0 +1,149 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values in buckets of powers of two. Bucket
+ * <code>i</code> counts the values from <code>2^(i-1)</code> to
+ * <code>2^i - 1</code>, bucket 0 counts zeros, so percentiles are exact up
+ * to a factor of two. Safe to be updated from multiple threads.
+ */
+public class Histogram {
+
+	private static final int BUCKETS = 65;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+	/**
+	 * @param value the value to record, negative values are counted as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(bucketOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current = min.get();
+		while (value < current && !min.compareAndSet(current, value)) {
+			current = min.get();
+		}
+		current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * @return the smallest value recorded, 0 if there is none
+	 */
+	public long getMin() {
+		return (getCount() == 0 ? 0 : min.get());
+	}
+
+	/**
+	 * @return the largest value recorded, 0 if there is none
+	 */
+	public long getMax() {
+		return (getCount() == 0 ? 0 : max.get());
+	}
+
+	/**
+	 * @return the average of the values recorded, 0 if there is none
+	 */
+	public double getMean() {
+		long c = getCount();
+		return (c == 0 ? 0d : (double) getSum() / c);
+	}
+
+	/**
+	 * Returns an upper bound of the given percentile: the upper end of the
+	 * bucket that contains it, but no more than the largest value.
+	 * @param percentile the percentile between 0 and 100
+	 * @return the percentile, 0 if no value was recorded
+	 */
+	public long getPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile out of range: " + percentile);
+		}
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += buckets.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile / 100d * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank && seen > 0) {
+				return Math.min(upperBound(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * @return the number of values counted by each bucket
+	 */
+	public long[] getBuckets() {
+		long[] result = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			result[i] = buckets.get(i);
+		}
+		return result;
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		min.set(Long.MAX_VALUE);
+		max.set(Long.MIN_VALUE);
+	}
+
+	static int bucketOf(long value) {
+		return 64 - Long.numberOfLeadingZeros(value);
+	}
+
+	static long upperBound(int bucket) {
+		return (bucket == 64 ? Long.MAX_VALUE : (1L << bucket) - 1);
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + ", min=" + getMin() + ", mean=" + Math.round(getMean())
+				+ ", p50=" + getPercentile(50) + ", p99=" + getPercentile(99) + ", max=" + getMax();
+	}
+}
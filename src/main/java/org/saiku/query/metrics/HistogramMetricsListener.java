@@ -0,0 +1,105 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.saiku.query.Query;
+
+/**
+ * Keeps the metrics of all queries it listens to in memory, as one
+ * {@link Histogram} per phase and per size. One instance can be shared
+ * by any number of queries.
+ */
+public class HistogramMetricsListener implements QueryMetricsListener {
+
+	private final Map<QueryPhase, Histogram> phases = new EnumMap<QueryPhase, Histogram>(QueryPhase.class);
+	private final Histogram mdxLengths = new Histogram();
+	private final Histogram withMemberCounts = new Histogram();
+	private final Histogram withSetCounts = new Histogram();
+	private final Histogram axisCounts = new Histogram();
+
+	public HistogramMetricsListener() {
+		for (QueryPhase phase : QueryPhase.values()) {
+			phases.put(phase, new Histogram());
+		}
+	}
+
+	public void phaseCompleted(Query query, QueryPhase phase, long nanos) {
+		phases.get(phase).record(nanos);
+	}
+
+	public void queryCompiled(Query query, int withMemberCount, int withSetCount, int axisCount) {
+		withMemberCounts.record(withMemberCount);
+		withSetCounts.record(withSetCount);
+		axisCounts.record(axisCount);
+	}
+
+	public void mdxWritten(Query query, long length) {
+		mdxLengths.record(length);
+	}
+
+	/**
+	 * @param phase the phase
+	 * @return the durations of the phase in nanoseconds
+	 */
+	public Histogram getPhase(QueryPhase phase) {
+		return phases.get(phase);
+	}
+
+	/**
+	 * @return the lengths of the MDX written in characters
+	 */
+	public Histogram getMdxLengths() {
+		return mdxLengths;
+	}
+
+	public Histogram getWithMemberCounts() {
+		return withMemberCounts;
+	}
+
+	public Histogram getWithSetCounts() {
+		return withSetCounts;
+	}
+
+	public Histogram getAxisCounts() {
+		return axisCounts;
+	}
+
+	public void reset() {
+		for (Histogram histogram : phases.values()) {
+			histogram.reset();
+		}
+		mdxLengths.reset();
+		withMemberCounts.reset();
+		withSetCounts.reset();
+		axisCounts.reset();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (QueryPhase phase : QueryPhase.values()) {
+			builder.append(phase).append(" [").append(phases.get(phase)).append("]\n");
+		}
+		builder.append("MDX length [").append(mdxLengths).append("]\n");
+		builder.append("WITH members [").append(withMemberCounts).append("]\n");
+		builder.append("WITH sets [").append(withSetCounts).append("]\n");
+		builder.append("axes [").append(axisCounts).append("]");
+		return builder.toString();
+	}
+}
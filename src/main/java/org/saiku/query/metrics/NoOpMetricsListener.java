@@ -0,0 +1,36 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.metrics;
+
+import org.saiku.query.Query;
+
+/**
+ * Ignores all metrics, the default listener of every query. Subclasses
+ * can override only the methods they are interested in.
+ */
+public class NoOpMetricsListener implements QueryMetricsListener {
+
+	public static final NoOpMetricsListener INSTANCE = new NoOpMetricsListener();
+
+	public void phaseCompleted(Query query, QueryPhase phase, long nanos) {
+	}
+
+	public void queryCompiled(Query query, int withMemberCount, int withSetCount, int axisCount) {
+	}
+
+	public void mdxWritten(Query query, long length) {
+	}
+}
@@ -0,0 +1,54 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.metrics;
+
+import org.saiku.query.Query;
+
+/**
+ * Receives the timings and sizes of the work done for a {@link Query}, see
+ * {@link Query#setMetricsListener(QueryMetricsListener)}.
+ *
+ * <p>Queries executed asynchronously or in a batch report the execution
+ * and traversal from worker threads, so implementations have to be
+ * thread safe. The methods are called while the query is answered and
+ * should return quickly.
+ */
+public interface QueryMetricsListener {
+
+	/**
+	 * Called after a phase of answering the query completed.
+	 * @param query the query
+	 * @param phase the phase that completed
+	 * @param nanos the time the phase took in nanoseconds
+	 */
+	void phaseCompleted(Query query, QueryPhase phase, long nanos);
+
+	/**
+	 * Called after the query model was converted into a parse tree.
+	 * @param query the query
+	 * @param withMemberCount the number of calculated members in the WITH clause
+	 * @param withSetCount the number of named sets in the WITH clause
+	 * @param axisCount the number of axes, not counting the slicer
+	 */
+	void queryCompiled(Query query, int withMemberCount, int withSetCount, int axisCount);
+
+	/**
+	 * Called after the MDX of the query was written.
+	 * @param query the query
+	 * @param length the number of characters written
+	 */
+	void mdxWritten(Query query, long length);
+}
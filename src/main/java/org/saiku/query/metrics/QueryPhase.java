@@ -0,0 +1,39 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.metrics;
+
+/**
+ * The phases of answering a query that are reported to a
+ * {@link QueryMetricsListener}.
+ */
+public enum QueryPhase {
+	/**
+	 * Conversion of the query model into an MDX parse tree.
+	 */
+	COMPILE,
+	/**
+	 * Writing the parse tree as MDX text.
+	 */
+	UNPARSE,
+	/**
+	 * Execution of the MDX on the server, until the cell set is returned.
+	 */
+	EXECUTE,
+	/**
+	 * Reading the positions and cells of the cell set.
+	 */
+	TRAVERSE
+}
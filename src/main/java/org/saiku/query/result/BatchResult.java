@@ -0,0 +1,131 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.result;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.olap4j.OlapException;
+
+/**
+ * Results of a batch of queries in the order the queries were submitted,
+ * together with the time each query took and the wall-clock time of the
+ * whole batch.
+ */
+public class BatchResult {
+
+	private final List<ResultSnapshot> snapshots;
+	private final List<OlapException> errors;
+	private final long[] latencies;
+	private final long wallTime;
+
+	/**
+	 * @param snapshots the result of every query, null for failed queries
+	 * @param errors the error of every query, null for successful queries
+	 * @param latencies the execution time of every query in nanoseconds
+	 * @param wallTime the time the whole batch took in nanoseconds
+	 */
+	public BatchResult(List<ResultSnapshot> snapshots, List<OlapException> errors, long[] latencies, long wallTime) {
+		if (snapshots.size() != errors.size() || snapshots.size() != latencies.length) {
+			throw new IllegalArgumentException("Inconsistent batch result");
+		}
+		this.snapshots = Collections.unmodifiableList(snapshots);
+		this.errors = Collections.unmodifiableList(errors);
+		this.latencies = latencies.clone();
+		this.wallTime = wallTime;
+	}
+
+	/**
+	 * @return the number of queries in the batch
+	 */
+	public int size() {
+		return snapshots.size();
+	}
+
+	/**
+	 * @param index the position of the query in the batch
+	 * @return the result of the query
+	 * @throws OlapException if the query failed
+	 */
+	public ResultSnapshot getSnapshot(int index) throws OlapException {
+		if (errors.get(index) != null) {
+			throw errors.get(index);
+		}
+		return snapshots.get(index);
+	}
+
+	/**
+	 * @param index the position of the query in the batch
+	 * @return the error of the query, null if it succeeded
+	 */
+	public OlapException getError(int index) {
+		return errors.get(index);
+	}
+
+	public boolean hasErrors() {
+		for (OlapException error : errors) {
+			if (error != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param index the position of the query in the batch
+	 * @return the time the query took in nanoseconds, excluding the time
+	 * it waited for a connection
+	 */
+	public long getLatency(int index) {
+		return latencies[index];
+	}
+
+	/**
+	 * @return the sum of all query latencies in nanoseconds, roughly the
+	 * time the batch takes when executed sequentially
+	 */
+	public long getTotalLatency() {
+		long total = 0;
+		for (long latency : latencies) {
+			total += latency;
+		}
+		return total;
+	}
+
+	/**
+	 * @return the wall-clock time of the whole batch in nanoseconds
+	 */
+	public long getWallTime() {
+		return wallTime;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("BatchResult[queries=").append(size());
+		sb.append(", wallTime=").append(wallTime / 1000000).append("ms");
+		sb.append(", totalLatency=").append(getTotalLatency() / 1000000).append("ms");
+		sb.append(", latencies=[");
+		for (int i = 0; i < latencies.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(latencies[i] / 1000000).append("ms");
+		}
+		sb.append("]]");
+		return sb.toString();
+	}
+}
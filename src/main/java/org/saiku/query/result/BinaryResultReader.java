@@ -0,0 +1,233 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.result;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.olap4j.Axis;
+
+/**
+ * Reads a result written by {@link BinaryResultWriter} into a
+ * {@link ColumnarSnapshot}. Values that were not numbers are read back as
+ * strings.
+ * <p>All counts and ids are validated, a corrupted result fails with an
+ * IOException. Members and strings are only allocated as their bytes
+ * arrive. The member ids and cells are allocated up front, when reading
+ * from a {@link FileChannel} their size is checked against the size of the
+ * file first.
+ */
+public final class BinaryResultReader {
+
+	/** AXIS(0) to AXIS(127), as in MDX, plus the filter axis. */
+	private static final int MAXIMUM_AXES = 129;
+
+	private final ReadableByteChannel channel;
+	private final ByteBuffer buffer;
+
+	private BinaryResultReader(ReadableByteChannel channel) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(BinaryResultWriter.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.flip();
+	}
+
+	/**
+	 * Reads a result from the channel, the channel is not closed.
+	 * @param channel the channel to read from
+	 * @return the result
+	 * @throws IOException if the channel cannot be read or does not hold
+	 * a result
+	 */
+	public static ColumnarSnapshot read(ReadableByteChannel channel) throws IOException {
+		return new BinaryResultReader(channel).readResult();
+	}
+
+	private ColumnarSnapshot readResult() throws IOException {
+		require(12);
+		for (byte b : BinaryResultWriter.MAGIC) {
+			if (buffer.get() != b) {
+				throw new IOException("Not a binary result");
+			}
+		}
+		int version = buffer.getInt();
+		if (version != BinaryResultWriter.VERSION) {
+			throw new IOException("Unsupported binary result version: " + version);
+		}
+		int axisCount = buffer.getInt();
+		if (axisCount < 0 || axisCount > MAXIMUM_AXES) {
+			throw new IOException("Invalid axis count: " + axisCount);
+		}
+		Axis[] axisOrdinals = new Axis[axisCount];
+		int[] axisSizes = new int[axisCount];
+		int[] tupleSizes = new int[axisCount];
+		long idCount = 0;
+		long cells = 1;
+		for (int i = 0; i < axisCount; i++) {
+			require(12);
+			int ordinal = buffer.getInt();
+			if (ordinal < Axis.FILTER.axisOrdinal() || ordinal >= MAXIMUM_AXES - 1) {
+				throw new IOException("Invalid axis ordinal: " + ordinal);
+			}
+			axisOrdinals[i] = Axis.Factory.forOrdinal(ordinal);
+			axisSizes[i] = buffer.getInt();
+			tupleSizes[i] = buffer.getInt();
+			if (axisSizes[i] < 0 || tupleSizes[i] < 0) {
+				throw new IOException("Invalid size of axis " + i + ": "
+						+ axisSizes[i] + " positions of " + tupleSizes[i] + " members");
+			}
+			long ids = (long) axisSizes[i] * tupleSizes[i];
+			cells *= axisSizes[i];
+			if (ids > Integer.MAX_VALUE || cells > Integer.MAX_VALUE) {
+				throw new IOException("Axis " + i + " is too large: "
+						+ axisSizes[i] + " positions of " + tupleSizes[i] + " members");
+			}
+			idCount += ids;
+		}
+		require(4);
+		int memberCount = buffer.getInt();
+		if (memberCount < 0) {
+			throw new IOException("Invalid member count: " + memberCount);
+		}
+		List<ResultMember> memberList = new ArrayList<ResultMember>(Math.min(memberCount, 1024));
+		for (int i = 0; i < memberCount; i++) {
+			String uniqueName = readString();
+			String name = readString();
+			String caption = readString();
+			String levelUniqueName = readString();
+			require(4);
+			memberList.add(new ResultMember(uniqueName, name, caption, levelUniqueName, buffer.getInt()));
+		}
+		ResultMember[] members = memberList.toArray(new ResultMember[memberCount]);
+		// member ids, cell count, null bits and values
+		checkAvailable(idCount * 4 + 4 + (cells + 7) / 8 + cells * 8);
+		ColumnarSnapshot result = new ColumnarSnapshot(axisOrdinals, axisSizes, tupleSizes, members);
+
+		for (int i = 0; i < axisCount; i++) {
+			int ids = axisSizes[i] * tupleSizes[i];
+			for (int id = 0; id < ids; id++) {
+				require(4);
+				int memberId = buffer.getInt();
+				if (memberId < 0 || memberId >= members.length) {
+					throw new IOException("Invalid member id on axis " + i + ": " + memberId);
+				}
+				result.storeMemberId(i, id, memberId);
+			}
+		}
+
+		require(4);
+		int cellCount = buffer.getInt();
+		if (cellCount != result.getCellCount()) {
+			throw new IOException("Expected " + result.getCellCount() + " cells, found " + cellCount);
+		}
+		for (int i = 0; i < cellCount; i += 8) {
+			require(1);
+			int bits = buffer.get() & 0xff;
+			for (int bit = 0; bit < 8 && bits != 0; bit++, bits >>>= 1) {
+				if ((bits & 1) != 0) {
+					result.storeNull(i + bit);
+				}
+			}
+		}
+		for (int i = 0; i < cellCount; i++) {
+			require(8);
+			result.storeValue(i, buffer.getDouble());
+		}
+
+		require(4);
+		int otherCount = buffer.getInt();
+		if (otherCount < 0 || otherCount > cellCount) {
+			throw new IOException("Invalid number of non-numeric values: " + otherCount);
+		}
+		for (int i = 0; i < otherCount; i++) {
+			require(4);
+			int ordinal = buffer.getInt();
+			if (ordinal < 0 || ordinal >= cellCount) {
+				throw new IOException("Invalid cell ordinal of a non-numeric value: " + ordinal);
+			}
+			result.storeOtherValue(ordinal, readString());
+		}
+		return result;
+	}
+
+	private String readString() throws IOException {
+		require(4);
+		int length = buffer.getInt();
+		if (length == -1) {
+			return null;
+		}
+		if (length < 0) {
+			throw new IOException("Invalid string length: " + length);
+		}
+		if (length <= buffer.capacity()) {
+			require(length);
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			return new String(bytes, BinaryResultWriter.UTF8);
+		}
+		// long strings grow with the bytes read, a corrupted length fails
+		// at the end of the stream instead of allocating its size
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(buffer.capacity());
+		byte[] chunk = new byte[buffer.capacity()];
+		int offset = 0;
+		while (offset < length) {
+			require(1);
+			int count = Math.min(buffer.remaining(), length - offset);
+			buffer.get(chunk, 0, count);
+			bytes.write(chunk, 0, count);
+			offset += count;
+		}
+		return new String(bytes.toByteArray(), BinaryResultWriter.UTF8);
+	}
+
+	/**
+	 * Fails if the channel is a file that holds less than the given number
+	 * of bytes after the ones read so far.
+	 */
+	private void checkAvailable(long bytes) throws IOException {
+		if (channel instanceof FileChannel) {
+			FileChannel file = (FileChannel) channel;
+			long available = file.size() - file.position() + buffer.remaining();
+			if (bytes > available) {
+				throw new IOException("Binary result declares " + bytes
+						+ " more bytes, the file holds " + available);
+			}
+		}
+	}
+
+	/**
+	 * Reads from the channel until the buffer holds the given number of
+	 * bytes.
+	 */
+	private void require(int bytes) throws IOException {
+		if (buffer.remaining() >= bytes) {
+			return;
+		}
+		buffer.compact();
+		while (buffer.position() < bytes) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Unexpected end of binary result");
+			}
+		}
+		buffer.flip();
+	}
+}
@@ -0,0 +1,202 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.result;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Writes a {@link ColumnarResult} in a compact binary format, to be read
+ * back with {@link BinaryResultReader}. All numbers are little-endian:
+ *
+ * <pre>
+ * magic       "SQRB"
+ * int         format version
+ * int         axis count
+ * per axis:   int axis ordinal, int position count, int members per position
+ * int         member count
+ * per member: string unique name, name, caption, level unique name, int depth
+ * per axis:   int[] member ids of the positions
+ * int         cell count
+ * byte[]      bitmap of the empty cells, lowest bit first
+ * double[]    cell values, 0 for empty and non-numeric cells
+ * int         count of non-numeric values
+ * per value:  int cell ordinal, string value
+ * </pre>
+ *
+ * Strings are written as the int length of their UTF-8 bytes followed by
+ * the bytes, -1 for null. Everything goes through one direct buffer into
+ * the channel, results stored in memory-mapped files are written to the
+ * channel straight from the mapping.
+ */
+public final class BinaryResultWriter {
+
+	static final byte[] MAGIC = { 'S', 'Q', 'R', 'B' };
+	static final int VERSION = 1;
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	static final int BUFFER_SIZE = 64 * 1024;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private long written = 0;
+
+	private BinaryResultWriter(final WritableByteChannel target) {
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		this.channel = new WritableByteChannel() {
+			public int write(ByteBuffer src) throws IOException {
+				int bytes = target.write(src);
+				written += bytes;
+				return bytes;
+			}
+
+			public boolean isOpen() {
+				return target.isOpen();
+			}
+
+			public void close() throws IOException {
+				target.close();
+			}
+		};
+	}
+
+	/**
+	 * Writes the result to the channel, the channel is not closed.
+	 * @param result the result to write
+	 * @param channel the channel to write to
+	 * @return the number of bytes written
+	 * @throws IOException if the channel cannot be written
+	 */
+	public static long write(ColumnarResult result, WritableByteChannel channel) throws IOException {
+		BinaryResultWriter writer = new BinaryResultWriter(channel);
+		writer.writeResult(result);
+		return writer.written;
+	}
+
+	private void writeResult(ColumnarResult result) throws IOException {
+		int axisCount = result.getAxisCount();
+		require(16 + 12 * axisCount);
+		buffer.put(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(axisCount);
+		for (int i = 0; i < axisCount; i++) {
+			buffer.putInt(result.getAxisOrdinal(i).axisOrdinal());
+			buffer.putInt(result.getPositionCount(i));
+			buffer.putInt(result.getTupleSize(i));
+		}
+		buffer.putInt(result.getMemberCount());
+		for (int i = 0; i < result.getMemberCount(); i++) {
+			ResultMember member = result.getMember(i);
+			writeString(member.getUniqueName());
+			writeString(member.getName());
+			writeString(member.getCaption());
+			writeString(member.getLevelUniqueName());
+			require(4);
+			buffer.putInt(member.getDepth());
+		}
+
+		for (int i = 0; i < axisCount; i++) {
+			int ids = result.getPositionCount(i) * result.getTupleSize(i);
+			flush();
+			if (!result.transferMemberIds(i, channel)) {
+				for (int id = 0; id < ids; id++) {
+					require(4);
+					buffer.putInt(result.loadMemberId(i, id));
+				}
+			}
+		}
+
+		int cellCount = result.getCellCount();
+		require(4);
+		buffer.putInt(cellCount);
+		flush();
+		if (!result.transferNulls(channel)) {
+			for (int i = 0; i < cellCount; i += 8) {
+				int bits = 0;
+				for (int bit = 0; bit < 8 && i + bit < cellCount; bit++) {
+					if (result.loadNull(i + bit)) {
+						bits |= 1 << bit;
+					}
+				}
+				require(1);
+				buffer.put((byte) bits);
+			}
+		}
+		flush();
+		if (!result.transferValues(channel)) {
+			for (int i = 0; i < cellCount; i++) {
+				require(8);
+				buffer.putDouble(result.loadValue(i));
+			}
+		}
+
+		Map<Integer, Object> otherValues = result.getOtherValues();
+		require(4);
+		buffer.putInt(otherValues.size());
+		for (Map.Entry<Integer, Object> entry : otherValues.entrySet()) {
+			require(4);
+			buffer.putInt(entry.getKey());
+			writeString(String.valueOf(entry.getValue()));
+		}
+		flush();
+	}
+
+	private void writeString(String value) throws IOException {
+		require(4);
+		if (value == null) {
+			buffer.putInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF8);
+		buffer.putInt(bytes.length);
+		if (bytes.length > buffer.remaining()) {
+			flush();
+			if (bytes.length > buffer.capacity()) {
+				write(ByteBuffer.wrap(bytes));
+				return;
+			}
+		}
+		buffer.put(bytes);
+	}
+
+	/**
+	 * Makes room for the given number of bytes in the buffer.
+	 */
+	private void require(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes the buffer to the channel, before writing to the channel
+	 * directly.
+	 */
+	private void flush() throws IOException {
+		buffer.flip();
+		write(buffer);
+		buffer.clear();
+	}
+
+	private void write(ByteBuffer src) throws IOException {
+		while (src.hasRemaining()) {
+			channel.write(src);
+		}
+	}
+}
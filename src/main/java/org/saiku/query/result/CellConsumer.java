@@ -0,0 +1,60 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.result;
+
+import java.util.List;
+
+import org.olap4j.metadata.Member;
+
+/**
+ * Receives the cells of a result one at a time, see {@link CellStream}.
+ * The callbacks are made in this order: {@link #start(int, int)}, one
+ * {@link #column(int, List)} per column, then per row one
+ * {@link #row(int, List)} followed by the {@link #cell(StreamedCell)}
+ * callbacks of the row, and finally {@link #end()}.
+ *
+ * <p>Neither the cell nor the member lists may be kept after the callback
+ * returns, the cell is reused for the next one.
+ */
+public interface CellConsumer {
+
+	/**
+	 * @param columnCount the number of columns, 1 if the result has no axes
+	 * @param rowCount the number of rows, 1 if the result has less than two axes
+	 */
+	void start(int columnCount, int rowCount);
+
+	/**
+	 * @param column the ordinal of the column
+	 * @param members the members of the column position, empty if the
+	 * result has no axes
+	 */
+	void column(int column, List<Member> members);
+
+	/**
+	 * @param row the ordinal of the row
+	 * @param members the members of the row position, empty if the
+	 * result has less than two axes
+	 */
+	void row(int row, List<Member> members);
+
+	/**
+	 * @param cell the current cell
+	 */
+	void cell(StreamedCell cell);
+
+	void end();
+}
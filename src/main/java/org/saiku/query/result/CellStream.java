@@ -0,0 +1,80 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.result;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.olap4j.Cell;
+import org.olap4j.CellSet;
+import org.olap4j.CellSetAxis;
+import org.olap4j.Position;
+import org.olap4j.metadata.Member;
+
+/**
+ * Pushes the cells of a {@link CellSet} to a {@link CellConsumer} in row
+ * major order. Unlike a {@link ResultSnapshot} nothing is copied: positions
+ * and cells are requested from the CellSet one at a time and no per-cell
+ * copies are made. Drivers such as Mondrian and XMLA hold the complete
+ * result in the CellSet before streaming starts, streaming avoids a second
+ * copy of it but does not bound the heap the driver needs.
+ */
+public class CellStream {
+
+	private CellStream() {
+	}
+
+	/**
+	 * @param cellSet a CellSet with at most two axes
+	 * @param consumer the consumer of the cells
+	 * @return the number of cells streamed
+	 */
+	public static long stream(CellSet cellSet, CellConsumer consumer) {
+		List<CellSetAxis> axes = cellSet.getAxes();
+		if (axes.size() > 2) {
+			throw new IllegalArgumentException("Cannot stream a result with " + axes.size() + " axes");
+		}
+		CellSetAxis columns = (axes.size() > 0 ? axes.get(0) : null);
+		CellSetAxis rows = (axes.size() > 1 ? axes.get(1) : null);
+		int columnCount = (columns == null ? 1 : columns.getPositionCount());
+		int rowCount = (rows == null ? 1 : rows.getPositionCount());
+		List<Member> noMembers = Collections.emptyList();
+
+		consumer.start(columnCount, rowCount);
+		if (columns == null) {
+			consumer.column(0, noMembers);
+		} else {
+			for (Position p : columns.getPositions()) {
+				consumer.column(p.getOrdinal(), p.getMembers());
+			}
+		}
+		StreamedCell holder = new StreamedCell();
+		long cells = 0;
+		List<Position> rowPositions = (rows == null ? null : rows.getPositions());
+		for (int row = 0; row < rowCount; row++) {
+			consumer.row(row, rowPositions == null ? noMembers : rowPositions.get(row).getMembers());
+			int ordinal = row * columnCount;
+			for (int column = 0; column < columnCount; column++, ordinal++) {
+				Cell cell = cellSet.getCell(ordinal);
+				holder.set(cell, row, column, ordinal);
+				consumer.cell(holder);
+				cells++;
+			}
+		}
+		consumer.end();
+		return cells;
+	}
+}
@@ -0,0 +1,375 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.result;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.olap4j.Axis;
+import org.olap4j.Cell;
+import org.olap4j.CellSet;
+import org.olap4j.CellSetAxis;
+import org.olap4j.Position;
+import org.olap4j.metadata.Member;
+
+/**
+ * Copy of a {@link CellSet} in columns of primitives that is detached from
+ * the statement and connection it was created by. Numeric cell values are
+ * stored as doubles with a bitmap of the empty cells, the positions of each
+ * axis as tuples of member ids into a dictionary that holds every member of
+ * the result once. Cell access by ordinal is O(1).
+ *
+ * <p>Subclasses decide where the columns are stored, see
+ * {@link ColumnarSnapshot} and {@link SpilledSnapshot}.
+ */
+public abstract class ColumnarResult implements Closeable {
+
+	private final Axis[] axisOrdinals;
+	private final int[] axisSizes;
+	private final int[] tupleSizes;
+	private final int cellCount;
+	private ResultMember[] members = new ResultMember[0];
+	private Map<Integer, Object> otherValues;
+
+	ColumnarResult(CellSet cellSet) {
+		List<CellSetAxis> axes = cellSet.getAxes();
+		this.axisOrdinals = new Axis[axes.size()];
+		this.axisSizes = new int[axes.size()];
+		this.tupleSizes = new int[axes.size()];
+		long cells = 1;
+		for (int i = 0; i < axes.size(); i++) {
+			CellSetAxis axis = axes.get(i);
+			axisOrdinals[i] = axis.getAxisOrdinal();
+			axisSizes[i] = axis.getPositionCount();
+			tupleSizes[i] = (axisSizes[i] == 0 ? 0 : axis.getPositions().get(0).getMembers().size());
+			cells *= axisSizes[i];
+		}
+		this.cellCount = cellCount(cells);
+	}
+
+	/**
+	 * Creates a result with the given axes and members, the cells are
+	 * stored by the caller.
+	 */
+	ColumnarResult(Axis[] axisOrdinals, int[] axisSizes, int[] tupleSizes, ResultMember[] members) {
+		this.axisOrdinals = axisOrdinals;
+		this.axisSizes = axisSizes;
+		this.tupleSizes = tupleSizes;
+		this.members = members;
+		long cells = 1;
+		for (int size : axisSizes) {
+			cells *= size;
+		}
+		this.cellCount = cellCount(cells);
+	}
+
+	private static int cellCount(long cells) {
+		if (cells > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Result has too many cells: " + cells);
+		}
+		return (int) cells;
+	}
+
+	/**
+	 * Copies the member ids of all axes and the cells of the CellSet into
+	 * the storage of the subclass. Called by subclass constructors once
+	 * the storage is allocated.
+	 */
+	final void copy(CellSet cellSet) {
+		Map<String, Integer> memberIds = new HashMap<String, Integer>();
+		List<ResultMember> dictionary = new ArrayList<ResultMember>();
+		List<CellSetAxis> axes = cellSet.getAxes();
+		for (int i = 0; i < axes.size(); i++) {
+			int index = 0;
+			for (Position p : axes.get(i).getPositions()) {
+				List<Member> tuple = p.getMembers();
+				if (tuple.size() != tupleSizes[i]) {
+					throw new IllegalArgumentException("Positions of axis " + axisOrdinals[i]
+							+ " have different numbers of members");
+				}
+				for (Member m : tuple) {
+					storeMemberId(i, index++, memberId(memberIds, dictionary, m));
+				}
+			}
+		}
+		this.members = dictionary.toArray(new ResultMember[dictionary.size()]);
+		for (int i = 0; i < cellCount; i++) {
+			Cell cell = cellSet.getCell(i);
+			Object value = (cell.isNull() ? null : cell.getValue());
+			if (value == null) {
+				storeNull(i);
+			} else if (value instanceof Number) {
+				storeValue(i, ((Number) value).doubleValue());
+			} else {
+				storeOtherValue(i, value);
+			}
+			storeCell(i, cell);
+		}
+	}
+
+	/**
+	 * Stores a value that is not a number.
+	 */
+	final void storeOtherValue(int ordinal, Object value) {
+		if (otherValues == null) {
+			otherValues = new HashMap<Integer, Object>();
+		}
+		otherValues.put(ordinal, value);
+	}
+
+	/**
+	 * @return the values that are not numbers by cell ordinal
+	 */
+	final Map<Integer, Object> getOtherValues() {
+		if (otherValues == null) {
+			return Collections.emptyMap();
+		}
+		return Collections.unmodifiableMap(otherValues);
+	}
+
+	private static int memberId(Map<String, Integer> memberIds, List<ResultMember> dictionary, Member m) {
+		Integer id = memberIds.get(m.getUniqueName());
+		if (id == null) {
+			id = dictionary.size();
+			dictionary.add(new ResultMember(
+					m.getUniqueName(),
+					m.getName(),
+					m.getCaption(),
+					m.getLevel().getUniqueName(),
+					m.getDepth()));
+			memberIds.put(m.getUniqueName(), id);
+		}
+		return id;
+	}
+
+	abstract void storeMemberId(int axis, int index, int id);
+
+	abstract void storeNull(int ordinal);
+
+	abstract void storeValue(int ordinal, double value);
+
+	/**
+	 * Called for every cell after its value is stored.
+	 */
+	void storeCell(int ordinal, Cell cell) {
+	}
+
+	abstract int loadMemberId(int axis, int index);
+
+	/**
+	 * Writes the member ids of an axis as little-endian ints to the channel,
+	 * if the storage allows to do so without converting them one by one.
+	 * @return whether the member ids were written
+	 */
+	boolean transferMemberIds(int axis, WritableByteChannel channel) throws IOException {
+		return false;
+	}
+
+	/**
+	 * Writes the bitmap of the empty cells to the channel, eight cells per
+	 * byte starting with the lowest bit, if the storage allows to do so
+	 * without converting it.
+	 * @return whether the bitmap was written
+	 */
+	boolean transferNulls(WritableByteChannel channel) throws IOException {
+		return false;
+	}
+
+	/**
+	 * Writes the cell values as little-endian doubles to the channel, if
+	 * the storage allows to do so without converting them one by one.
+	 * @return whether the values were written
+	 */
+	boolean transferValues(WritableByteChannel channel) throws IOException {
+		return false;
+	}
+
+	/**
+	 * @return the number of bytes of the member id, empty cell and value
+	 * columns that are kept on the heap, without the member dictionary and
+	 * the non-numeric values
+	 */
+	public abstract long getHeapColumnSize();
+
+	abstract boolean loadNull(int ordinal);
+
+	abstract double loadValue(int ordinal);
+
+	public int getAxisCount() {
+		return axisOrdinals.length;
+	}
+
+	public Axis getAxisOrdinal(int axis) {
+		return axisOrdinals[axis];
+	}
+
+	public int getPositionCount(int axis) {
+		return axisSizes[axis];
+	}
+
+	/**
+	 * @param axis the index of the axis
+	 * @return the number of members of each position of the axis
+	 */
+	public int getTupleSize(int axis) {
+		return tupleSizes[axis];
+	}
+
+	/**
+	 * @param axis the index of the axis
+	 * @param position the ordinal of the position
+	 * @param index the index of the member in the position
+	 * @return the id of the member, see {@link #getMember(int)}
+	 */
+	public int getMemberId(int axis, int position, int index) {
+		if (position < 0 || position >= axisSizes[axis]) {
+			throw new IndexOutOfBoundsException("Position " + position + " of axis " + axis + " out of range");
+		}
+		if (index < 0 || index >= tupleSizes[axis]) {
+			throw new IndexOutOfBoundsException("Member " + index + " of axis " + axis + " out of range");
+		}
+		return loadMemberId(axis, position * tupleSizes[axis] + index);
+	}
+
+	/**
+	 * @param axis the index of the axis
+	 * @param position the ordinal of the position
+	 * @return the members of the position, one per hierarchy on the axis
+	 */
+	public List<ResultMember> getMembers(final int axis, final int position) {
+		if (position < 0 || position >= axisSizes[axis]) {
+			throw new IndexOutOfBoundsException("Position " + position + " of axis " + axis + " out of range");
+		}
+		return new AbstractList<ResultMember>() {
+			@Override
+			public ResultMember get(int index) {
+				return members[getMemberId(axis, position, index)];
+			}
+
+			@Override
+			public int size() {
+				return tupleSizes[axis];
+			}
+		};
+	}
+
+	/**
+	 * @return the number of distinct members on all axes
+	 */
+	public int getMemberCount() {
+		return members.length;
+	}
+
+	public ResultMember getMember(int id) {
+		return members[id];
+	}
+
+	public int getCellCount() {
+		return cellCount;
+	}
+
+	/**
+	 * Converts cell coordinates to the ordinal of the cell, the same way
+	 * {@link CellSet#coordinatesToOrdinal(List)} does.
+	 * @param coordinates one position per axis
+	 * @return the cell ordinal
+	 */
+	public int getOrdinal(int... coordinates) {
+		if (coordinates.length != axisSizes.length) {
+			throw new IllegalArgumentException(
+					"Expected " + axisSizes.length + " coordinates, got " + coordinates.length);
+		}
+		int ordinal = 0;
+		int modulo = 1;
+		for (int i = 0; i < coordinates.length; i++) {
+			if (coordinates[i] < 0 || coordinates[i] >= axisSizes[i]) {
+				throw new IndexOutOfBoundsException(
+						"Coordinate " + coordinates[i] + " of axis " + i + " out of range");
+			}
+			ordinal += coordinates[i] * modulo;
+			modulo *= axisSizes[i];
+		}
+		return ordinal;
+	}
+
+	public boolean isNull(int ordinal) {
+		checkOrdinal(ordinal);
+		return loadNull(ordinal);
+	}
+
+	/**
+	 * @param ordinal the cell ordinal
+	 * @return whether the cell holds a value that is not a number
+	 */
+	public boolean isNumeric(int ordinal) {
+		return !isNull(ordinal) && (otherValues == null || !otherValues.containsKey(ordinal));
+	}
+
+	/**
+	 * @param ordinal the cell ordinal
+	 * @return the numeric value of the cell, 0 if the cell is empty or
+	 * not numeric
+	 */
+	public double getDoubleValue(int ordinal) {
+		checkOrdinal(ordinal);
+		return loadValue(ordinal);
+	}
+
+	/**
+	 * @param ordinal the cell ordinal
+	 * @return the value of the cell, numbers are returned as Double
+	 */
+	public Object getValue(int ordinal) {
+		if (isNull(ordinal)) {
+			return null;
+		}
+		if (otherValues != null) {
+			Object value = otherValues.get(ordinal);
+			if (value != null) {
+				return value;
+			}
+		}
+		return Double.valueOf(loadValue(ordinal));
+	}
+
+	/**
+	 * @param ordinal the cell ordinal
+	 * @return the formatted value, null if formatted values were not kept
+	 */
+	public String getFormattedValue(int ordinal) {
+		return null;
+	}
+
+	/**
+	 * Releases the storage of the result. The default implementation does
+	 * nothing.
+	 */
+	public void close() {
+	}
+
+	private void checkOrdinal(int ordinal) {
+		if (ordinal < 0 || ordinal >= cellCount) {
+			throw new IndexOutOfBoundsException("Cell " + ordinal + " out of range");
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.result;
+
+import org.olap4j.Axis;
+import org.olap4j.Cell;
+import org.olap4j.CellSet;
+
+/**
+ * {@link ColumnarResult} held in arrays on the heap. Compared to a
+ * {@link ResultSnapshot} it takes a fraction of the heap, as no object is
+ * kept per cell.
+ *
+ * <p>Formatted values are only kept if asked for, as they are usually
+ * unique per cell and take more heap than everything else together.
+ * Snapshots are immutable and can be shared between threads.
+ */
+public class ColumnarSnapshot extends ColumnarResult {
+
+	private final int[][] tuples;
+	private final double[] values;
+	private final long[] nulls;
+	private final String[] formattedValues;
+
+	/**
+	 * Copies all axes and cell values of the given CellSet, without the
+	 * formatted values.
+	 * @param cellSet the executed CellSet
+	 */
+	public ColumnarSnapshot(CellSet cellSet) {
+		this(cellSet, false);
+	}
+
+	/**
+	 * Copies all axes and cells of the given CellSet.
+	 * @param cellSet the executed CellSet
+	 * @param keepFormattedValues whether to copy the formatted values
+	 */
+	public ColumnarSnapshot(CellSet cellSet, boolean keepFormattedValues) {
+		super(cellSet);
+		this.tuples = new int[getAxisCount()][];
+		for (int i = 0; i < tuples.length; i++) {
+			tuples[i] = new int[getPositionCount(i) * getTupleSize(i)];
+		}
+		int cellCount = getCellCount();
+		this.values = new double[cellCount];
+		this.nulls = new long[(cellCount + 63) >>> 6];
+		this.formattedValues = (keepFormattedValues ? new String[cellCount] : null);
+		copy(cellSet);
+	}
+
+	/**
+	 * Creates a snapshot with the given axes and members and no values,
+	 * see {@link BinaryResultReader}.
+	 */
+	ColumnarSnapshot(Axis[] axisOrdinals, int[] axisSizes, int[] tupleSizes, ResultMember[] members) {
+		super(axisOrdinals, axisSizes, tupleSizes, members);
+		this.tuples = new int[axisSizes.length][];
+		for (int i = 0; i < tuples.length; i++) {
+			tuples[i] = new int[axisSizes[i] * tupleSizes[i]];
+		}
+		int cellCount = getCellCount();
+		this.values = new double[cellCount];
+		this.nulls = new long[(cellCount + 63) >>> 6];
+		this.formattedValues = null;
+	}
+
+	@Override
+	void storeMemberId(int axis, int index, int id) {
+		tuples[axis][index] = id;
+	}
+
+	@Override
+	void storeNull(int ordinal) {
+		nulls[ordinal >>> 6] |= 1L << ordinal;
+	}
+
+	@Override
+	void storeValue(int ordinal, double value) {
+		values[ordinal] = value;
+	}
+
+	@Override
+	void storeCell(int ordinal, Cell cell) {
+		if (formattedValues != null) {
+			formattedValues[ordinal] = cell.getFormattedValue();
+		}
+	}
+
+	@Override
+	int loadMemberId(int axis, int index) {
+		return tuples[axis][index];
+	}
+
+	@Override
+	boolean loadNull(int ordinal) {
+		return (nulls[ordinal >>> 6] & (1L << ordinal)) != 0;
+	}
+
+	@Override
+	double loadValue(int ordinal) {
+		return values[ordinal];
+	}
+
+	@Override
+	public long getHeapColumnSize() {
+		long size = 0;
+		for (int[] tuple : tuples) {
+			size += tuple.length * 4L;
+		}
+		return size + values.length * 8L + nulls.length * 8L;
+	}
+
+	public boolean hasFormattedValues() {
+		return formattedValues != null;
+	}
+
+	@Override
+	public String getFormattedValue(int ordinal) {
+		return (formattedValues == null ? null : formattedValues[ordinal]);
+	}
+}
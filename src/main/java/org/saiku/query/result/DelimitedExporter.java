@@ -0,0 +1,371 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.result;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.olap4j.Axis;
+import org.olap4j.OlapException;
+import org.olap4j.metadata.Level;
+import org.olap4j.metadata.Measure;
+import org.olap4j.metadata.Member;
+import org.saiku.query.Query;
+import org.saiku.query.QueryDetails;
+import org.saiku.query.QueryHierarchy;
+import org.saiku.query.QueryLevel;
+
+/**
+ * Exports the results of a query as a flat CSV or TSV table: one header
+ * column per level of the hierarchies on rows, followed by one column per
+ * position of the columns axis. Cells are streamed from the CellSet, see
+ * {@link Query#execute(CellConsumer)}, and written through a buffer of
+ * fixed size. The exporter keeps nothing per row, but drivers such as
+ * Mondrian and XMLA hold the complete result in the CellSet, so the heap
+ * needed for the execution itself still grows with the result.
+ */
+public class DelimitedExporter {
+
+	public enum Format {
+		/**
+		 * Comma separated, fields are quoted as in RFC 4180.
+		 */
+		CSV(',', "\r\n"),
+		/**
+		 * Tab separated, tabs and line breaks in fields are replaced by spaces.
+		 */
+		TSV('\t', "\n");
+
+		private final char delimiter;
+		private final String lineSeparator;
+
+		private Format(char delimiter, String lineSeparator) {
+			this.delimiter = delimiter;
+			this.lineSeparator = lineSeparator;
+		}
+
+		public char getDelimiter() {
+			return delimiter;
+		}
+	}
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final String TUPLE_SEPARATOR = " / ";
+
+	private final Format format;
+	private Charset charset = Charset.forName("UTF-8");
+	private boolean formattedValues = false;
+
+	public DelimitedExporter(Format format) {
+		this.format = format;
+	}
+
+	public Format getFormat() {
+		return format;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+	}
+
+	public boolean isFormattedValues() {
+		return formattedValues;
+	}
+
+	/**
+	 * @param formattedValues whether to write the formatted cell values
+	 * instead of the raw values, the default is false
+	 */
+	public void setFormattedValues(boolean formattedValues) {
+		this.formattedValues = formattedValues;
+	}
+
+	/**
+	 * Executes the query and writes the table to the stream. The stream is
+	 * flushed, but not closed.
+	 * @param query the query to export
+	 * @param out the stream to write to
+	 * @return the number of rows written, without the header
+	 * @throws OlapException if the query cannot be executed
+	 * @throws IOException if the stream cannot be written
+	 */
+	public long export(Query query, OutputStream out) throws OlapException, IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, charset), BUFFER_SIZE);
+		TableWriter table = new TableWriter(writer, headerColumns(query));
+		try {
+			query.execute(table);
+		} catch (WriteFailure e) {
+			throw e.getCause();
+		}
+		writer.flush();
+		return table.rows;
+	}
+
+	/**
+	 * Collects the header columns for the hierarchies on rows, including
+	 * the measures if they are on rows as well.
+	 */
+	private static Map<String, HeaderColumns> headerColumns(Query query) {
+		Map<String, HeaderColumns> columns = new HashMap<String, HeaderColumns>();
+		List<HeaderColumns> ordered = new ArrayList<HeaderColumns>();
+		for (QueryHierarchy qh : query.getAxis(Axis.ROWS).getQueryHierarchies()) {
+			List<Level> levels = new ArrayList<Level>();
+			for (QueryLevel ql : qh.getActiveQueryLevels()) {
+				levels.add(ql.getLevel());
+			}
+			HeaderColumns hc = new HeaderColumns(qh.getCaption(), levels);
+			columns.put(qh.getUniqueName(), hc);
+			ordered.add(hc);
+		}
+		QueryDetails details = query.getDetails();
+		List<Measure> measures = details.getMeasures();
+		if (measures.size() > 0 && Axis.ROWS.equals(details.getAxis())) {
+			HeaderColumns hc = new HeaderColumns(measures.get(0).getHierarchy().getCaption(), new ArrayList<Level>());
+			columns.put(measures.get(0).getHierarchy().getUniqueName(), hc);
+			if (details.getLocation() == QueryDetails.Location.TOP) {
+				ordered.add(0, hc);
+			} else {
+				ordered.add(hc);
+			}
+		}
+		int first = 0;
+		for (HeaderColumns hc : ordered) {
+			hc.first = first;
+			first += hc.captions.length;
+		}
+		return columns;
+	}
+
+	/**
+	 * The header columns of one hierarchy on rows, one per included level,
+	 * or a single column if no levels are included.
+	 */
+	private static class HeaderColumns {
+		private final String[] captions;
+		private final List<Level> levels;
+		private int first;
+
+		private HeaderColumns(String caption, List<Level> levels) {
+			this.levels = levels;
+			if (levels.isEmpty()) {
+				this.captions = new String[] { caption };
+			} else {
+				this.captions = new String[levels.size()];
+				for (int i = 0; i < captions.length; i++) {
+					captions[i] = levels.get(i).getCaption();
+				}
+			}
+		}
+
+		/**
+		 * Puts the caption of the member and of its ancestors on included
+		 * levels into the header fields of a row.
+		 */
+		private void fill(Member member, String[] fields) {
+			if (levels.isEmpty()) {
+				fields[first] = member.getCaption();
+				return;
+			}
+			int index = indexOf(member.getLevel());
+			fields[first + (index < 0 ? levels.size() - 1 : index)] = member.getCaption();
+			for (Member parent = member.getParentMember(); parent != null; parent = parent.getParentMember()) {
+				index = indexOf(parent.getLevel());
+				if (index >= 0) {
+					fields[first + index] = parent.getCaption();
+				}
+			}
+		}
+
+		private int indexOf(Level level) {
+			for (int i = 0; i < levels.size(); i++) {
+				if (levels.get(i).getUniqueName().equals(level.getUniqueName())) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * Writes the streamed cells, one line per row.
+	 */
+	private class TableWriter implements CellConsumer {
+
+		private final Writer writer;
+		private final Map<String, HeaderColumns> headerColumns;
+		private final String[] rowFields;
+		private long rows = 0;
+		private int fields = 0;
+
+		private TableWriter(Writer writer, Map<String, HeaderColumns> headerColumns) {
+			this.writer = writer;
+			this.headerColumns = headerColumns;
+			int count = 0;
+			for (HeaderColumns hc : headerColumns.values()) {
+				count += hc.captions.length;
+			}
+			this.rowFields = new String[count];
+		}
+
+		public void start(int columnCount, int rowCount) {
+			for (HeaderColumns hc : headerColumns.values()) {
+				System.arraycopy(hc.captions, 0, rowFields, hc.first, hc.captions.length);
+			}
+			for (String caption : rowFields) {
+				field(caption);
+			}
+		}
+
+		public void column(int column, List<Member> members) {
+			StringBuilder caption = new StringBuilder();
+			for (Member m : members) {
+				if (caption.length() > 0) {
+					caption.append(TUPLE_SEPARATOR);
+				}
+				caption.append(m.getCaption());
+			}
+			field(caption.toString());
+		}
+
+		public void row(int row, List<Member> members) {
+			endLine();
+			Arrays.fill(rowFields, null);
+			for (Member m : members) {
+				HeaderColumns hc = headerColumns.get(m.getHierarchy().getUniqueName());
+				if (hc != null) {
+					hc.fill(m, rowFields);
+				}
+			}
+			for (String value : rowFields) {
+				field(value);
+			}
+			rows++;
+		}
+
+		public void cell(StreamedCell cell) {
+			if (cell.isEmpty()) {
+				field(null);
+			} else if (formattedValues) {
+				field(cell.getFormattedValue());
+			} else if (cell.isNumeric()) {
+				field(toString((Number) cell.getValue(), cell.getDoubleValue()));
+			} else {
+				field(String.valueOf(cell.getValue()));
+			}
+		}
+
+		public void end() {
+			endLine();
+		}
+
+		/*
+		 * Only doubles and floats go through the primitive value, whole
+		 * numbers are written without a fraction. Other numbers, e.g.
+		 * BigDecimal or Long, are written exactly.
+		 */
+		private String toString(Number number, double value) {
+			if (number instanceof BigDecimal) {
+				return ((BigDecimal) number).toPlainString();
+			} else if (!(number instanceof Double || number instanceof Float)) {
+				return number.toString();
+			} else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+				return Long.toString((long) value);
+			}
+			return Double.toString(value);
+		}
+
+		private void endLine() {
+			try {
+				writer.write(format.lineSeparator);
+				fields = 0;
+			} catch (IOException e) {
+				throw new WriteFailure(e);
+			}
+		}
+
+		private void field(String value) {
+			try {
+				if (fields++ > 0) {
+					writer.write(format.delimiter);
+				}
+				if (value != null) {
+					writeEscaped(value);
+				}
+			} catch (IOException e) {
+				throw new WriteFailure(e);
+			}
+		}
+
+		private void writeEscaped(String value) throws IOException {
+			if (format == Format.TSV) {
+				for (int i = 0; i < value.length(); i++) {
+					char c = value.charAt(i);
+					writer.write(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+				}
+				return;
+			}
+			boolean quote = false;
+			for (int i = 0; i < value.length() && !quote; i++) {
+				char c = value.charAt(i);
+				quote = (c == format.delimiter || c == '"' || c == '\n' || c == '\r');
+			}
+			if (!quote) {
+				writer.write(value);
+				return;
+			}
+			writer.write('"');
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == '"') {
+					writer.write('"');
+				}
+				writer.write(c);
+			}
+			writer.write('"');
+		}
+	}
+
+	/**
+	 * Carries an IOException of the writer out of the cell callbacks.
+	 */
+	private static class WriteFailure extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		private WriteFailure(IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public IOException getCause() {
+			return (IOException) super.getCause();
+		}
+	}
+}
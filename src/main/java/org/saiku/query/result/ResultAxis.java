@@ -0,0 +1,51 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.result;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.olap4j.Axis;
+
+/**
+ * An axis of a {@link ResultSnapshot}.
+ */
+public class ResultAxis {
+
+	private final Axis axisOrdinal;
+	private final List<List<ResultMember>> positions;
+
+	public ResultAxis(Axis axisOrdinal, List<List<ResultMember>> positions) {
+		this.axisOrdinal = axisOrdinal;
+		this.positions = positions;
+	}
+
+	public Axis getAxisOrdinal() {
+		return axisOrdinal;
+	}
+
+	public int getPositionCount() {
+		return positions.size();
+	}
+
+	/**
+	 * @param position the ordinal of the position
+	 * @return the members of the position, one per hierarchy on the axis
+	 */
+	public List<ResultMember> getMembers(int position) {
+		return Collections.unmodifiableList(positions.get(position));
+	}
+}
@@ -0,0 +1,181 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.result;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.saiku.query.util.CacheStatistics;
+
+/**
+ * Cache of query results, meant to be shared by the queries of one user
+ * session (see {@link org.saiku.query.Query#setResultCache(ResultCache)}).
+ * Results are keyed by the normalized MDX, the catalog and the role they
+ * were executed with. The cache is bounded by the total number of cells
+ * of the cached results, the least recently used results are evicted first.
+ * Results older than the time to live are not returned anymore.
+ */
+public class ResultCache {
+
+	public static final long DEFAULT_MAXIMUM_CELLS = 1000000;
+	public static final long DEFAULT_TIME_TO_LIVE = 10 * 60 * 1000;
+
+	private final long maximumCells;
+	private final long timeToLive;
+	private final CacheStatistics statistics = new CacheStatistics();
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long cells = 0;
+
+	public ResultCache() {
+		this(DEFAULT_MAXIMUM_CELLS, DEFAULT_TIME_TO_LIVE);
+	}
+
+	/**
+	 * @param maximumCells the maximum number of cells of all cached results
+	 * @param timeToLive time in milliseconds a result is valid, 0 to keep results until evicted
+	 */
+	public ResultCache(long maximumCells, long timeToLive) {
+		this.maximumCells = maximumCells;
+		this.timeToLive = timeToLive;
+	}
+
+	public synchronized ResultSnapshot get(String mdx, String catalog, String role) {
+		String key = key(mdx, catalog, role);
+		Entry entry = entries.get(key);
+		if (entry != null && isExpired(entry)) {
+			remove(key);
+			entry = null;
+		}
+		if (entry == null) {
+			statistics.miss();
+			return null;
+		}
+		statistics.hit();
+		return entry.snapshot;
+	}
+
+	/**
+	 * Adds a result to the cache. Results that are bigger than the whole
+	 * cache are ignored. Expired results are removed before the least
+	 * recently used ones are evicted.
+	 */
+	public synchronized void put(String mdx, String catalog, String role, ResultSnapshot snapshot) {
+		if (snapshot.getCellCount() > maximumCells) {
+			return;
+		}
+		String key = key(mdx, catalog, role);
+		remove(key);
+		entries.put(key, new Entry(snapshot));
+		cells += snapshot.getCellCount();
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (cells > maximumCells && it.hasNext()) {
+			Entry entry = it.next().getValue();
+			if (isExpired(entry)) {
+				it.remove();
+				cells -= entry.snapshot.getCellCount();
+			}
+		}
+		it = entries.entrySet().iterator();
+		while (cells > maximumCells && it.hasNext()) {
+			Entry eldest = it.next().getValue();
+			it.remove();
+			cells -= eldest.snapshot.getCellCount();
+		}
+	}
+
+	public synchronized void invalidate() {
+		entries.clear();
+		cells = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getCellCount() {
+		return cells;
+	}
+
+	public long getMaximumCells() {
+		return maximumCells;
+	}
+
+	public long getTimeToLive() {
+		return timeToLive;
+	}
+
+	public CacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	private void remove(String key) {
+		Entry entry = entries.remove(key);
+		if (entry != null) {
+			cells -= entry.snapshot.getCellCount();
+		}
+	}
+
+	private boolean isExpired(Entry entry) {
+		return timeToLive > 0 && System.currentTimeMillis() - entry.created > timeToLive;
+	}
+
+	private static String key(String mdx, String catalog, String role) {
+		return catalog + "\n" + role + "\n" + normalize(mdx);
+	}
+
+	/**
+	 * Collapses all whitespace outside of quoted identifiers and strings,
+	 * so queries that only differ in formatting share a cache entry.
+	 */
+	static String normalize(String mdx) {
+		StringBuilder sb = new StringBuilder(mdx.length());
+		char quote = 0;
+		boolean space = false;
+		for (int i = 0; i < mdx.length(); i++) {
+			char c = mdx.charAt(i);
+			if (quote != 0) {
+				sb.append(c);
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (Character.isWhitespace(c)) {
+				space = sb.length() > 0;
+			} else {
+				if (space) {
+					sb.append(' ');
+					space = false;
+				}
+				if (c == '[') {
+					quote = ']';
+				} else if (c == '"' || c == '\'') {
+					quote = c;
+				}
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static class Entry {
+		private final ResultSnapshot snapshot;
+		private final long created = System.currentTimeMillis();
+
+		private Entry(ResultSnapshot snapshot) {
+			this.snapshot = snapshot;
+		}
+	}
+}
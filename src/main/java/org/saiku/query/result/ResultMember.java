@@ -0,0 +1,63 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.result;
+
+/**
+ * A member on a position of a {@link ResultAxis}. Only holds the names
+ * of the member, not the olap4j metadata object, so it does not keep the
+ * connection alive.
+ */
+public class ResultMember {
+
+	private final String uniqueName;
+	private final String name;
+	private final String caption;
+	private final String levelUniqueName;
+	private final int depth;
+
+	public ResultMember(String uniqueName, String name, String caption, String levelUniqueName, int depth) {
+		this.uniqueName = uniqueName;
+		this.name = name;
+		this.caption = caption;
+		this.levelUniqueName = levelUniqueName;
+		this.depth = depth;
+	}
+
+	public String getUniqueName() {
+		return uniqueName;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getCaption() {
+		return caption;
+	}
+
+	public String getLevelUniqueName() {
+		return levelUniqueName;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	@Override
+	public String toString() {
+		return uniqueName;
+	}
+}
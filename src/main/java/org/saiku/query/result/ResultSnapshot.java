@@ -0,0 +1,140 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.result;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.olap4j.Cell;
+import org.olap4j.CellSet;
+import org.olap4j.CellSetAxis;
+import org.olap4j.Position;
+import org.olap4j.metadata.Member;
+
+/**
+ * Copy of the axes and cells of a {@link CellSet} that is detached from
+ * the statement and connection it was created by. Once the snapshot is
+ * taken the CellSet can be closed. Snapshots are immutable and can be
+ * shared between threads.
+ */
+public class ResultSnapshot {
+
+	private final List<ResultAxis> axes;
+	private final int[] axisSizes;
+	private final Object[] values;
+	private final String[] formattedValues;
+
+	/**
+	 * Copies all axes and cells of the given CellSet.
+	 * @param cellSet the executed CellSet
+	 * @throws IllegalArgumentException if the CellSet has more cells than
+	 * fit into an array
+	 */
+	public ResultSnapshot(CellSet cellSet) {
+		Map<String, ResultMember> members = new HashMap<String, ResultMember>();
+		List<ResultAxis> resultAxes = new ArrayList<ResultAxis>();
+		for (CellSetAxis axis : cellSet.getAxes()) {
+			List<List<ResultMember>> positions = new ArrayList<List<ResultMember>>(axis.getPositionCount());
+			for (Position p : axis.getPositions()) {
+				List<ResultMember> position = new ArrayList<ResultMember>(p.getMembers().size());
+				for (Member m : p.getMembers()) {
+					position.add(toResultMember(members, m));
+				}
+				positions.add(position);
+			}
+			resultAxes.add(new ResultAxis(axis.getAxisOrdinal(), positions));
+		}
+		this.axes = Collections.unmodifiableList(resultAxes);
+		this.axisSizes = new int[axes.size()];
+		long cells = 1;
+		for (int i = 0; i < axisSizes.length; i++) {
+			axisSizes[i] = axes.get(i).getPositionCount();
+			cells *= axisSizes[i];
+		}
+		if (cells > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Result has too many cells: " + cells);
+		}
+		int cellCount = (int) cells;
+		this.values = new Object[cellCount];
+		this.formattedValues = new String[cellCount];
+		for (int i = 0; i < cellCount; i++) {
+			Cell cell = cellSet.getCell(i);
+			values[i] = (cell.isNull() ? null : cell.getValue());
+			formattedValues[i] = cell.getFormattedValue();
+		}
+	}
+
+	private static ResultMember toResultMember(Map<String, ResultMember> members, Member m) {
+		ResultMember member = members.get(m.getUniqueName());
+		if (member == null) {
+			member = new ResultMember(
+					m.getUniqueName(),
+					m.getName(),
+					m.getCaption(),
+					m.getLevel().getUniqueName(),
+					m.getDepth());
+			members.put(member.getUniqueName(), member);
+		}
+		return member;
+	}
+
+	public List<ResultAxis> getAxes() {
+		return axes;
+	}
+
+	public int getCellCount() {
+		return values.length;
+	}
+
+	/**
+	 * Converts cell coordinates to the ordinal of the cell, the same way
+	 * {@link CellSet#coordinatesToOrdinal(List)} does.
+	 * @param coordinates one position per axis
+	 * @return the cell ordinal
+	 */
+	public int getOrdinal(int... coordinates) {
+		if (coordinates.length != axisSizes.length) {
+			throw new IllegalArgumentException(
+					"Expected " + axisSizes.length + " coordinates, got " + coordinates.length);
+		}
+		int ordinal = 0;
+		int modulo = 1;
+		for (int i = 0; i < coordinates.length; i++) {
+			if (coordinates[i] < 0 || coordinates[i] >= axisSizes[i]) {
+				throw new IndexOutOfBoundsException(
+						"Coordinate " + coordinates[i] + " of axis " + i + " out of range");
+			}
+			ordinal += coordinates[i] * modulo;
+			modulo *= axisSizes[i];
+		}
+		return ordinal;
+	}
+
+	public Object getValue(int ordinal) {
+		return values[ordinal];
+	}
+
+	public String getFormattedValue(int ordinal) {
+		return formattedValues[ordinal];
+	}
+
+	public boolean isNull(int ordinal) {
+		return values[ordinal] == null;
+	}
+}
@@ -0,0 +1,98 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.result;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.olap4j.CellSet;
+import org.olap4j.CellSetAxis;
+
+/**
+ * Decides where a {@link ColumnarResult} is stored: results that fit into
+ * the heap budget are copied into a {@link ColumnarSnapshot}, larger ones
+ * are spilled to a memory-mapped {@link SpilledSnapshot}. The budget
+ * applies to each result, not to all results together.
+ */
+public class SpillStore {
+
+	private final File directory;
+	private final long heapBudget;
+
+	/**
+	 * Creates a store that spills to the default temporary directory.
+	 * @param heapBudget the largest number of bytes a result may take on
+	 * the heap
+	 */
+	public SpillStore(long heapBudget) {
+		this(null, heapBudget);
+	}
+
+	/**
+	 * @param directory the directory for spilled results, null for the
+	 * default temporary directory
+	 * @param heapBudget the largest number of bytes a result may take on
+	 * the heap
+	 */
+	public SpillStore(File directory, long heapBudget) {
+		if (heapBudget < 0) {
+			throw new IllegalArgumentException("Heap budget must not be negative: " + heapBudget);
+		}
+		this.directory = directory;
+		this.heapBudget = heapBudget;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public long getHeapBudget() {
+		return heapBudget;
+	}
+
+	/**
+	 * Copies the CellSet, on the heap if it fits into the budget.
+	 * @param cellSet the executed CellSet
+	 * @return the copy, to be closed when no longer needed
+	 * @throws IOException if the result cannot be spilled
+	 */
+	public ColumnarResult copy(CellSet cellSet) throws IOException {
+		if (estimateHeap(cellSet) <= heapBudget) {
+			return new ColumnarSnapshot(cellSet);
+		}
+		return new SpilledSnapshot(cellSet, directory);
+	}
+
+	/**
+	 * Estimates the heap a {@link ColumnarSnapshot} of the CellSet takes
+	 * for member ids and cell values, without the member dictionary.
+	 * @param cellSet the executed CellSet
+	 * @return the estimated number of bytes
+	 */
+	public static long estimateHeap(CellSet cellSet) {
+		List<CellSetAxis> axes = cellSet.getAxes();
+		long cells = 1;
+		long bytes = 0;
+		for (CellSetAxis axis : axes) {
+			int positions = axis.getPositionCount();
+			int tupleSize = (positions == 0 ? 0 : axis.getPositions().get(0).getMembers().size());
+			bytes += 4L * positions * tupleSize;
+			cells *= positions;
+		}
+		return bytes + 8 * cells + ((cells + 63) >>> 6) * 8;
+	}
+}
@@ -0,0 +1,224 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.result;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+
+import org.olap4j.CellSet;
+
+/**
+ * {@link ColumnarResult} whose member ids and cell values are stored in a
+ * temporary file that is mapped into memory, so that results of any size
+ * can be kept without taking heap. Only the member dictionary and the rare
+ * non-numeric values are kept on the heap. Formatted values are not kept.
+ *
+ * <p>The file is mapped in segments of 1 GB and deleted by {@link #close()}.
+ * The mapping itself is only released once the snapshot is garbage
+ * collected, reading a closed snapshot is not supported.
+ */
+public class SpilledSnapshot extends ColumnarResult {
+
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+	private final File file;
+	private final long size;
+	private final long[] tupleOffsets;
+	private final long nullOffset;
+	private final long valueOffset;
+	private final MappedByteBuffer[] segments;
+
+	/**
+	 * Copies all axes and cell values of the given CellSet into a new file.
+	 * @param cellSet the executed CellSet
+	 * @param directory the directory of the file, null for the default
+	 * temporary directory
+	 * @throws IOException if the file cannot be created or mapped
+	 */
+	public SpilledSnapshot(CellSet cellSet, File directory) throws IOException {
+		super(cellSet);
+		// every region starts at a multiple of 8, no value crosses a segment
+		long offset = 0;
+		this.tupleOffsets = new long[getAxisCount()];
+		for (int i = 0; i < tupleOffsets.length; i++) {
+			tupleOffsets[i] = offset;
+			offset += align(4L * getPositionCount(i) * getTupleSize(i));
+		}
+		this.nullOffset = offset;
+		offset += align((getCellCount() + 7L) >>> 3);
+		this.valueOffset = offset;
+		offset += 8L * getCellCount();
+		this.size = offset;
+
+		this.file = File.createTempFile("saiku-result", ".bin", directory);
+		try {
+			this.segments = map(file, size);
+			copy(cellSet);
+		} catch (IOException e) {
+			delete();
+			throw e;
+		} catch (RuntimeException e) {
+			delete();
+			throw e;
+		}
+	}
+
+	private static long align(long length) {
+		return (length + 7) & ~7L;
+	}
+
+	private static MappedByteBuffer[] map(File file, long size) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(size);
+			FileChannel channel = raf.getChannel();
+			int count = (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+			MappedByteBuffer[] segments = new MappedByteBuffer[count];
+			for (int i = 0; i < count; i++) {
+				long start = (long) i << SEGMENT_SHIFT;
+				segments[i] = channel.map(MapMode.READ_WRITE, start, Math.min(size - start, SEGMENT_MASK + 1));
+				segments[i].order(ByteOrder.nativeOrder());
+			}
+			return segments;
+		} finally {
+			// the mapping stays valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	private MappedByteBuffer segment(long offset) {
+		return segments[(int) (offset >>> SEGMENT_SHIFT)];
+	}
+
+	@Override
+	void storeMemberId(int axis, int index, int id) {
+		long offset = tupleOffsets[axis] + 4L * index;
+		segment(offset).putInt((int) (offset & SEGMENT_MASK), id);
+	}
+
+	@Override
+	void storeNull(int ordinal) {
+		long offset = nullOffset + (ordinal >>> 3);
+		MappedByteBuffer segment = segment(offset);
+		int index = (int) (offset & SEGMENT_MASK);
+		segment.put(index, (byte) (segment.get(index) | (1 << (ordinal & 7))));
+	}
+
+	@Override
+	void storeValue(int ordinal, double value) {
+		long offset = valueOffset + 8L * ordinal;
+		segment(offset).putDouble((int) (offset & SEGMENT_MASK), value);
+	}
+
+	@Override
+	int loadMemberId(int axis, int index) {
+		long offset = tupleOffsets[axis] + 4L * index;
+		return segment(offset).getInt((int) (offset & SEGMENT_MASK));
+	}
+
+	@Override
+	boolean loadNull(int ordinal) {
+		long offset = nullOffset + (ordinal >>> 3);
+		return (segment(offset).get((int) (offset & SEGMENT_MASK)) & (1 << (ordinal & 7))) != 0;
+	}
+
+	@Override
+	double loadValue(int ordinal) {
+		long offset = valueOffset + 8L * ordinal;
+		return segment(offset).getDouble((int) (offset & SEGMENT_MASK));
+	}
+
+	@Override
+	boolean transferMemberIds(int axis, WritableByteChannel channel) throws IOException {
+		return transfer(tupleOffsets[axis], 4L * getPositionCount(axis) * getTupleSize(axis), channel);
+	}
+
+	@Override
+	boolean transferNulls(WritableByteChannel channel) throws IOException {
+		return transfer(nullOffset, (getCellCount() + 7L) >>> 3, channel);
+	}
+
+	@Override
+	boolean transferValues(WritableByteChannel channel) throws IOException {
+		return transfer(valueOffset, 8L * getCellCount(), channel);
+	}
+
+	/**
+	 * Writes a region of the file straight from the mapped segments, the
+	 * file holds the same bytes as the binary format on little-endian
+	 * platforms.
+	 */
+	private boolean transfer(long offset, long length, WritableByteChannel channel) throws IOException {
+		if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+			return false;
+		}
+		long end = offset + length;
+		while (offset < end) {
+			ByteBuffer region = segment(offset).duplicate();
+			int start = (int) (offset & SEGMENT_MASK);
+			int limit = (int) Math.min(region.capacity(), start + (end - offset));
+			region.limit(limit);
+			region.position(start);
+			offset += limit - start;
+			while (region.hasRemaining()) {
+				channel.write(region);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return 0, all columns are kept in the file
+	 */
+	@Override
+	public long getHeapColumnSize() {
+		return 0;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the size of the file in bytes
+	 */
+	public long getFileSize() {
+		return size;
+	}
+
+	/**
+	 * Deletes the file. If the file cannot be deleted while it is mapped,
+	 * as on Windows, it is deleted when the JVM exits.
+	 */
+	@Override
+	public void close() {
+		delete();
+	}
+
+	private void delete() {
+		if (file.exists() && !file.delete()) {
+			file.deleteOnExit();
+		}
+	}
+}
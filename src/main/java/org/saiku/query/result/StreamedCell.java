@@ -0,0 +1,98 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.result;
+
+import org.olap4j.Cell;
+
+/**
+ * The cell passed to {@link CellConsumer#cell(StreamedCell)}. One instance
+ * is reused for all cells of a result. Numeric values are available as a
+ * primitive, the formatted value is only requested from the server if it
+ * is asked for.
+ */
+public final class StreamedCell {
+
+	private Cell cell;
+	private int row;
+	private int column;
+	private int ordinal;
+	private boolean empty;
+	private boolean numeric;
+	private double doubleValue;
+	private Object value;
+
+	StreamedCell() {
+	}
+
+	void set(Cell cell, int row, int column, int ordinal) {
+		this.cell = cell;
+		this.row = row;
+		this.column = column;
+		this.ordinal = ordinal;
+		Object v = (cell.isNull() ? null : cell.getValue());
+		this.empty = (v == null);
+		this.numeric = (v instanceof Number);
+		this.doubleValue = (numeric ? ((Number) v).doubleValue() : 0d);
+		this.value = v;
+	}
+
+	public int getRow() {
+		return row;
+	}
+
+	public int getColumn() {
+		return column;
+	}
+
+	/**
+	 * @return the ordinal of the cell in the cell set
+	 */
+	public int getOrdinal() {
+		return ordinal;
+	}
+
+	/**
+	 * @return whether the cell has no value
+	 */
+	public boolean isEmpty() {
+		return empty;
+	}
+
+	public boolean isNumeric() {
+		return numeric;
+	}
+
+	/**
+	 * @return the numeric value of the cell, 0 if the cell is empty or
+	 * not numeric. Values such as BigDecimal or large Long values can lose
+	 * precision, see {@link #getValue()}.
+	 */
+	public double getDoubleValue() {
+		return doubleValue;
+	}
+
+	/**
+	 * @return the value of the cell as returned by the driver, null if the
+	 * cell is empty
+	 */
+	public Object getValue() {
+		return value;
+	}
+
+	public String getFormattedValue() {
+		return cell.getFormattedValue();
+	}
+}
@@ -0,0 +1,66 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hit and miss counters of a cache. Safe to be updated from multiple threads.
+ */
+public class CacheStatistics {
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public void hit() {
+		hits.incrementAndGet();
+	}
+
+	public void miss() {
+		misses.incrementAndGet();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getRequests() {
+		return getHits() + getMisses();
+	}
+
+	/**
+	 * @return the ratio of hits to all requests, 0 if there were no requests yet
+	 */
+	public double getHitRate() {
+		long h = getHits();
+		long total = h + getMisses();
+		return (total == 0 ? 0d : (double) h / total);
+	}
+
+	public void reset() {
+		hits.set(0);
+		misses.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "hits=" + getHits() + ", misses=" + getMisses();
+	}
+}
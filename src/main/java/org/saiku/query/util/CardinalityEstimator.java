@@ -0,0 +1,219 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.util;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.olap4j.Axis;
+import org.olap4j.metadata.Level;
+import org.olap4j.metadata.Member;
+import org.saiku.query.QueryAxis;
+import org.saiku.query.QueryDetails;
+import org.saiku.query.QueryHierarchy;
+import org.saiku.query.QueryLevel;
+import org.saiku.query.mdx.IFilterFunction;
+import org.saiku.query.mdx.IFilterFunction.MdxFunctionType;
+import org.saiku.query.mdx.NFilter;
+
+/**
+ * Estimates the number of tuples of a query axis before it is executed,
+ * from the cardinality of the levels and the selections made on them.
+ * The estimate is a worst case: members are assumed to exist for every
+ * combination of a crossjoin, and filters only count if they limit the
+ * number of members (TopCount and BottomCount). Paged axes count the
+ * tuples of the page.
+ *
+ * <p>Sets given as free MDX expressions cannot be estimated, neither can
+ * levels whose cardinality is unknown. The estimate of anything that
+ * contains them is {@link #UNKNOWN}.
+ */
+public class CardinalityEstimator {
+
+	/**
+	 * The estimate of a set whose size cannot be known before execution.
+	 */
+	public static final long UNKNOWN = -1;
+
+	private CardinalityEstimator() {
+	}
+
+	/**
+	 * @param axis the axis
+	 * @return the number of tuples of the axis, including the measures
+	 * placed on it, or {@link #UNKNOWN}
+	 */
+	public static long estimate(QueryAxis axis) {
+		return estimate(axis, axis.getQuery().getParameters());
+	}
+
+	/**
+	 * @param axis the axis
+	 * @param parameters the parameter values to estimate with, instead of
+	 * the parameters of the query
+	 * @return the number of tuples of the axis, including the measures
+	 * placed on it, or {@link #UNKNOWN}
+	 */
+	public static long estimate(QueryAxis axis, Map<String, String> parameters) {
+		if (axis.isMdxSetExpression()) {
+			return UNKNOWN;
+		}
+		long tuples = 1;
+		boolean empty = true;
+		for (QueryHierarchy hierarchy : axis.getQueryHierarchies()) {
+			tuples = multiply(tuples, estimate(hierarchy, parameters));
+			empty = false;
+		}
+		QueryDetails details = axis.getQuery().getDetails();
+		if (details.getMeasures().size() > 0 && details.getAxis().equals(axis.getLocation())) {
+			tuples = multiply(tuples, details.getMeasures().size());
+			empty = false;
+		}
+		if (empty) {
+			return 0;
+		}
+		tuples = limit(tuples, axis.getFilters());
+		if (axis.isPaged() && !Axis.FILTER.equals(axis.getLocation())) {
+			long page = axis.getPageLimit();
+			tuples = (tuples == UNKNOWN ? page : Math.min(Math.max(0, tuples - axis.getPageOffset()), page));
+		}
+		return tuples;
+	}
+
+	/**
+	 * @param hierarchy the hierarchy
+	 * @return the number of members selected on the hierarchy, or {@link #UNKNOWN}
+	 */
+	public static long estimate(QueryHierarchy hierarchy) {
+		return estimate(hierarchy, hierarchy.getQuery().getParameters());
+	}
+
+	/**
+	 * @param hierarchy the hierarchy
+	 * @param parameters the parameter values to estimate with
+	 * @return the number of members selected on the hierarchy, or {@link #UNKNOWN}
+	 */
+	public static long estimate(QueryHierarchy hierarchy, Map<String, String> parameters) {
+		if (hierarchy.isMdxSetExpression()) {
+			return UNKNOWN;
+		}
+		List<QueryLevel> levels = hierarchy.getActiveQueryLevels();
+		if (levels.size() > 1 && hierarchy.getAxis() != null
+				&& hierarchy.getAxis().getLocation() != null && hierarchy.getAxis().isLowestLevelsOnly())
+		{
+			levels = levels.subList(levels.size() - 1, levels.size());
+		}
+		long members = hierarchy.getActiveCalculatedMembers().size();
+		for (QueryLevel level : levels) {
+			members = add(members, estimate(level, parameters));
+		}
+		return limit(members, hierarchy.getFilters());
+	}
+
+	/**
+	 * @param level the level
+	 * @return the number of members selected on the level, or {@link #UNKNOWN}
+	 */
+	public static long estimate(QueryLevel level) {
+		return estimate(level, level.getQueryHierarchy().getQuery().getParameters());
+	}
+
+	/**
+	 * @param level the level
+	 * @param parameters the parameter values to estimate with
+	 * @return the number of members selected on the level, or {@link #UNKNOWN}
+	 */
+	public static long estimate(QueryLevel level, Map<String, String> parameters) {
+		if (level.isMdxSetExpression()) {
+			return UNKNOWN;
+		}
+		if (level.getLevel().getLevelType().equals(Level.Type.ALL)) {
+			return 1;
+		}
+		long cardinality = level.getLevel().getCardinality();
+		if (cardinality < 0) {
+			cardinality = UNKNOWN;
+		}
+		long members = cardinality;
+		String parameterValue = null;
+		if (level.hasParameter()) {
+			parameterValue = (parameters == null ? null : parameters.get(level.getParameterName()));
+		}
+		if (StringUtils.isNotBlank(parameterValue)) {
+			// the inclusions are replaced by the members of the parameter value
+			members = parameterValue.split(",").length;
+		} else if (level.getInclusions().size() > 0) {
+			members = level.getInclusions().size();
+		} else {
+			if (level.isRange()) {
+				members = estimateRange(level, cardinality);
+			}
+			if (members != UNKNOWN) {
+				for (Member excluded : level.getExclusions()) {
+					if (excluded.getLevel().equals(level.getLevel()) && members > 0) {
+						members--;
+					}
+				}
+			}
+		}
+		return limit(members, level.getFilters());
+	}
+
+	/*
+	 * Ranges given as members are estimated from the ordinals of the members,
+	 * if the server provides them.
+	 */
+	private static long estimateRange(QueryLevel level, long cardinality) {
+		Member start = level.getRangeStart();
+		Member end = level.getRangeEnd();
+		if (start != null && end != null && start.getOrdinal() >= 0 && end.getOrdinal() >= 0) {
+			long members = Math.abs((long) end.getOrdinal() - start.getOrdinal()) + 1;
+			return (cardinality == UNKNOWN ? members : Math.min(members, cardinality));
+		}
+		return cardinality;
+	}
+
+	private static long limit(long members, List<IFilterFunction> filters) {
+		for (IFilterFunction filter : filters) {
+			if (filter instanceof NFilter) {
+				MdxFunctionType type = filter.getFunctionType();
+				if (type == MdxFunctionType.TopCount || type == MdxFunctionType.BottomCount) {
+					long n = Math.max(0, ((NFilter) filter).getN());
+					members = (members == UNKNOWN ? n : Math.min(members, n));
+				}
+			}
+		}
+		return members;
+	}
+
+	private static long add(long a, long b) {
+		if (a == UNKNOWN || b == UNKNOWN) {
+			return UNKNOWN;
+		}
+		return (Long.MAX_VALUE - a < b ? Long.MAX_VALUE : a + b);
+	}
+
+	private static long multiply(long a, long b) {
+		if (a == UNKNOWN || b == UNKNOWN) {
+			return UNKNOWN;
+		}
+		if (a == 0 || b == 0) {
+			return 0;
+		}
+		return (a > Long.MAX_VALUE / b ? Long.MAX_VALUE : a * b);
+	}
+}
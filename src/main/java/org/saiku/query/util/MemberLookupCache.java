@@ -0,0 +1,288 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.util;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapException;
+import org.olap4j.mdx.IdentifierSegment;
+import org.olap4j.metadata.Cube;
+import org.olap4j.metadata.Member;
+import org.olap4j.metadata.Schema;
+
+/**
+ * Cache of {@link Cube#lookupMember(List)} results for one cube and role,
+ * used to resolve parameter values that are part of many queries.
+ * <p>Each cache is bounded and evicts the least recently used names.
+ * Names that do not exist are cached as well, so repeated lookups of a
+ * wrong parameter value do not hit the server either, they count as hits.
+ * Member metadata can change when the schema is flushed on the server, in
+ * that case the caches of the schema have to be invalidated with
+ * {@link #invalidate(Schema)} or {@link #invalidateAll()}, which drops
+ * cached members and missing names alike.
+ * <p>Caches are identified by the connection of the cube, compared by
+ * identity, plus catalog, schema and cube name and role. At most
+ * {@link #MAXIMUM_CUBES} caches are kept, the caches of closed connections
+ * are removed whenever a new cache is created.
+ */
+public class MemberLookupCache {
+
+	public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+	public static final int MAXIMUM_CUBES = 100;
+
+	private static int defaultMaximumSize = DEFAULT_MAXIMUM_SIZE;
+
+	private static final CacheStatistics totalStatistics = new CacheStatistics();
+
+	/** Cached in place of a member for names that do not exist. */
+	private static final Object MISSING = new Object();
+
+	private static final Map<Key, MemberLookupCache> caches =
+			new LinkedHashMap<Key, MemberLookupCache>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Key, MemberLookupCache> eldest) {
+					return size() > MAXIMUM_CUBES;
+				}
+			};
+
+	private final Cube cube;
+	private final OlapConnection connection;
+	private final String schemaKey;
+	private final CacheStatistics statistics = new CacheStatistics();
+	private int maximumSize = defaultMaximumSize;
+	private final Map<String, Object> members =
+			new LinkedHashMap<String, Object>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+					return size() > maximumSize;
+				}
+			};
+
+	private MemberLookupCache(Cube cube, OlapConnection connection, String schemaKey) {
+		this.cube = cube;
+		this.connection = connection;
+		this.schemaKey = schemaKey;
+	}
+
+	/**
+	 * Returns the cache for a cube as seen by a role.
+	 * @param cube the cube
+	 * @param role the role of the connection, null for no role
+	 * @return the cache
+	 * @throws OlapException if the connection of the cube cannot be determined
+	 */
+	public static MemberLookupCache forCube(Cube cube, String role) throws OlapException {
+		OlapConnection connection;
+		try {
+			connection = cube.getSchema().getCatalog().getMetaData().getConnection();
+		} catch (SQLException e) {
+			throw new OlapException("Cannot determine the connection of cube " + cube.getUniqueName(), e);
+		}
+		String schemaKey = key(cube.getSchema());
+		Key key = new Key(connection, schemaKey + "\u0000" + cube.getUniqueName() + "\u0000" + role);
+		synchronized (caches) {
+			MemberLookupCache cache = caches.get(key);
+			if (cache == null) {
+				removeClosed();
+				cache = new MemberLookupCache(cube, connection, schemaKey);
+				caches.put(key, cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * Removes the caches of closed connections, must hold the lock of
+	 * the caches.
+	 */
+	private static void removeClosed() {
+		Iterator<MemberLookupCache> it = caches.values().iterator();
+		while (it.hasNext()) {
+			OlapConnection c = it.next().connection;
+			boolean closed;
+			try {
+				closed = c.isClosed();
+			} catch (SQLException e) {
+				closed = true;
+			}
+			if (closed) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Removes the caches of all cubes of a schema, e.g. after the schema
+	 * was flushed.
+	 * @param schema the schema
+	 */
+	public static void invalidate(Schema schema) {
+		String schemaKey = key(schema);
+		synchronized (caches) {
+			Iterator<MemberLookupCache> it = caches.values().iterator();
+			while (it.hasNext()) {
+				if (it.next().schemaKey.equals(schemaKey)) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all caches.
+	 */
+	public static void invalidateAll() {
+		synchronized (caches) {
+			caches.clear();
+		}
+	}
+
+	/**
+	 * Sets the maximum number of names kept by caches created from now on.
+	 * @param size maximum number of names per cube, 0 disables caching
+	 */
+	public static void setDefaultMaximumSize(int size) {
+		defaultMaximumSize = size;
+	}
+
+	public static int getDefaultMaximumSize() {
+		return defaultMaximumSize;
+	}
+
+	/**
+	 * @return the hit and miss counters summed up over all caches
+	 */
+	public static CacheStatistics getTotalStatistics() {
+		return totalStatistics;
+	}
+
+	/**
+	 * @return the caches currently kept
+	 */
+	public static List<MemberLookupCache> getCaches() {
+		synchronized (caches) {
+			return new ArrayList<MemberLookupCache>(caches.values());
+		}
+	}
+
+	/**
+	 * Looks up a member, see {@link Cube#lookupMember(List)}.
+	 * @param nameParts the segments of the member's unique name
+	 * @return the member, null if there is no such member
+	 * @throws OlapException if the lookup fails, failures are not cached
+	 */
+	public Member lookupMember(List<IdentifierSegment> nameParts) throws OlapException {
+		String key = MemberResolver.normalize(nameParts);
+		synchronized (members) {
+			Object cached = members.get(key);
+			if (cached != null) {
+				statistics.hit();
+				totalStatistics.hit();
+				return (cached == MISSING ? null : (Member) cached);
+			}
+		}
+		statistics.miss();
+		totalStatistics.miss();
+		Member member = cube.lookupMember(nameParts);
+		synchronized (members) {
+			members.put(key, member != null ? member : MISSING);
+		}
+		return member;
+	}
+
+	/**
+	 * Removes all names from this cache.
+	 */
+	public void invalidate() {
+		synchronized (members) {
+			members.clear();
+		}
+	}
+
+	public Cube getCube() {
+		return cube;
+	}
+
+	/**
+	 * Sets the maximum number of names kept by this cache.
+	 * @param size maximum number of names, 0 disables caching
+	 */
+	public void setMaximumSize(int size) {
+		synchronized (members) {
+			maximumSize = size;
+			while (members.size() > maximumSize) {
+				members.remove(members.keySet().iterator().next());
+			}
+		}
+	}
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	public int size() {
+		synchronized (members) {
+			return members.size();
+		}
+	}
+
+	public CacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	private static String key(Schema schema) {
+		return schema.getCatalog().getName() + "\u0000" + schema.getName();
+	}
+
+	/**
+	 * Identifies a cache by the identity of its connection and the names of
+	 * its cube and role.
+	 */
+	private static final class Key {
+		private final OlapConnection connection;
+		private final String name;
+
+		private Key(OlapConnection connection, String name) {
+			this.connection = connection;
+			this.name = name;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(connection) + name.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return connection == other.connection && name.equals(other.name);
+		}
+	}
+}
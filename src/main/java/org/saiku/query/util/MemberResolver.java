@@ -0,0 +1,178 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.olap4j.OlapException;
+import org.olap4j.impl.IdentifierParser;
+import org.olap4j.mdx.IdentifierSegment;
+import org.olap4j.mdx.Quoting;
+import org.olap4j.metadata.Cube;
+import org.olap4j.metadata.Level;
+import org.olap4j.metadata.Member;
+
+/**
+ * Resolves many members by unique name with few metadata calls.
+ * <p>Names are grouped by the number of segments, which usually
+ * corresponds to one level. The first name of a group is looked up on its
+ * own to find the level. If the names remaining in the group amount to at
+ * least a quarter of the level's cardinality, all members of that level
+ * are fetched at once with {@link Level#getMembers()} and the remaining
+ * names are matched against them, otherwise they are looked up one by
+ * one. Names that are not found that way are looked up individually,
+ * which detects further levels (e.g. in ragged or parent-child
+ * hierarchies) or marks the name as unresolved.
+ */
+public class MemberResolver {
+
+	private static final int LEVEL_FETCH_DIVISOR = 4;
+
+	private final Cube cube;
+
+	public MemberResolver(Cube cube) {
+		this.cube = cube;
+	}
+
+	/**
+	 * Resolves the given unique member names.
+	 * @param uniqueNames the names to resolve
+	 * @return the resolved members and the names that could not be resolved
+	 * @throws OlapException if the metadata cannot be read
+	 */
+	public Resolution resolve(Collection<String> uniqueNames) throws OlapException {
+		Map<String, Member> resolved = new HashMap<String, Member>();
+		Map<Integer, List<String>> groups = new LinkedHashMap<Integer, List<String>>();
+		Map<String, List<IdentifierSegment>> parsed = new HashMap<String, List<IdentifierSegment>>();
+		for (String name : uniqueNames) {
+			if (parsed.containsKey(name)) {
+				continue;
+			}
+			List<IdentifierSegment> segments = IdentifierParser.parseIdentifier(name);
+			parsed.put(name, segments);
+			List<String> group = groups.get(segments.size());
+			if (group == null) {
+				group = new ArrayList<String>();
+				groups.put(segments.size(), group);
+			}
+			group.add(name);
+		}
+		for (List<String> group : groups.values()) {
+			Map<String, Member> levelMembers = new HashMap<String, Member>();
+			Set<Level> fetched = new HashSet<Level>();
+			for (int i = 0; i < group.size(); i++) {
+				String name = group.get(i);
+				String key = normalize(parsed.get(name));
+				Member member = levelMembers.get(key);
+				if (member == null) {
+					member = cube.lookupMember(parsed.get(name));
+					if (member != null && fetched.add(member.getLevel())) {
+						// a new level, fetch all of its members at once
+						// unless only a few of them are still needed
+						Level level = member.getLevel();
+						int remaining = group.size() - i - 1;
+						if ((long) remaining * LEVEL_FETCH_DIVISOR >= level.getCardinality()) {
+							for (Member m : level.getMembers()) {
+								levelMembers.put(m.getUniqueName(), m);
+							}
+						}
+					}
+				}
+				if (member != null) {
+					resolved.put(name, member);
+				}
+			}
+		}
+		Map<String, Member> members = new LinkedHashMap<String, Member>();
+		Set<String> unresolved = new LinkedHashSet<String>();
+		for (String name : uniqueNames) {
+			Member member = resolved.get(name);
+			if (member != null) {
+				members.put(name, member);
+			} else {
+				unresolved.add(name);
+			}
+		}
+		return new Resolution(members, new ArrayList<String>(unresolved));
+	}
+
+	/*
+	 * Unique names of members use bracket quoting for every segment,
+	 * the names given by the caller might be quoted differently.
+	 */
+	static String normalize(List<IdentifierSegment> segments) {
+		StringBuilder sb = new StringBuilder();
+		for (IdentifierSegment segment : segments) {
+			if (sb.length() > 0) {
+				sb.append('.');
+			}
+			if (segment.getQuoting() == Quoting.KEY) {
+				segment.toString(sb);
+			} else {
+				sb.append('[').append(segment.getName().replace("]", "]]")).append(']');
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * The result of {@link MemberResolver#resolve(Collection)}.
+	 */
+	public static class Resolution {
+
+		private final Map<String, Member> members;
+		private final List<String> unresolved;
+
+		Resolution(Map<String, Member> members, List<String> unresolved) {
+			this.members = Collections.unmodifiableMap(members);
+			this.unresolved = Collections.unmodifiableList(unresolved);
+		}
+
+		/**
+		 * @return the resolved members in the order of the names
+		 */
+		public List<Member> getMembers() {
+			return new ArrayList<Member>(new LinkedHashSet<Member>(members.values()));
+		}
+
+		/**
+		 * @return the resolved members by the name they were requested with
+		 */
+		public Map<String, Member> getMembersByName() {
+			return members;
+		}
+
+		/**
+		 * @return the names that could not be resolved, in the order of the names
+		 */
+		public List<String> getUnresolved() {
+			return unresolved;
+		}
+
+		public boolean isComplete() {
+			return unresolved.isEmpty();
+		}
+	}
+}
@@ -0,0 +1,287 @@
+/*  
+ *   Copyright 2014 Paul Stoellberger
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.query.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.olap4j.metadata.Member;
+
+/**
+ * List of selected members that keeps insertion order, but does not allow
+ * duplicates and finds and removes members in constant time.
+ * <p>Members are stored in an array by ordinal, a hash index maps every
+ * member to its ordinal. Removing a member only clears its slot, the
+ * array is compacted once the cleared slots outnumber the members or a
+ * member is accessed by position. Adding a member that is already
+ * selected does not change the list and returns false.
+ */
+public class MemberSelection extends AbstractList<Member> {
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	private Member[] members = new Member[INITIAL_CAPACITY];
+	private final Map<Member, Integer> ordinals = new HashMap<Member, Integer>();
+	private int end = 0;
+	private int removed = 0;
+	private int compactions = 0;
+
+	public MemberSelection() {
+	}
+
+	public MemberSelection(Collection<? extends Member> members) {
+		addAll(members);
+	}
+
+	@Override
+	public int size() {
+		return end - removed;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return ordinals.containsKey(o);
+	}
+
+	@Override
+	public int indexOf(Object o) {
+		if (!ordinals.containsKey(o)) {
+			return -1;
+		}
+		compact();
+		return ordinals.get(o);
+	}
+
+	@Override
+	public int lastIndexOf(Object o) {
+		return indexOf(o);
+	}
+
+	@Override
+	public Member get(int index) {
+		checkIndex(index, size());
+		compact();
+		return members[index];
+	}
+
+	@Override
+	public boolean add(Member m) {
+		if (m == null) {
+			throw new NullPointerException("Member must not be null");
+		}
+		if (ordinals.containsKey(m)) {
+			return false;
+		}
+		ensureCapacity(end + 1);
+		members[end] = m;
+		ordinals.put(m, end);
+		end++;
+		modCount++;
+		return true;
+	}
+
+	/**
+	 * Inserts a member at the given position. Inserting a member that is
+	 * already selected does nothing. Unlike {@link #add(Member)} this takes
+	 * linear time.
+	 */
+	@Override
+	public void add(int index, Member m) {
+		checkIndex(index, size() + 1);
+		if (m == null) {
+			throw new NullPointerException("Member must not be null");
+		}
+		if (ordinals.containsKey(m)) {
+			return;
+		}
+		compact();
+		ensureCapacity(end + 1);
+		System.arraycopy(members, index, members, index + 1, end - index);
+		members[index] = m;
+		end++;
+		reindex(index);
+		modCount++;
+	}
+
+	@Override
+	public Member set(int index, Member m) {
+		checkIndex(index, size());
+		compact();
+		Member old = members[index];
+		if (old.equals(m)) {
+			return old;
+		}
+		if (ordinals.containsKey(m)) {
+			throw new IllegalArgumentException("Member already selected: " + m.getUniqueName());
+		}
+		ordinals.remove(old);
+		members[index] = m;
+		ordinals.put(m, index);
+		return old;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		Integer ordinal = ordinals.remove(o);
+		if (ordinal == null) {
+			return false;
+		}
+		members[ordinal] = null;
+		removed++;
+		modCount++;
+		if (removed > size()) {
+			compact();
+		}
+		return true;
+	}
+
+	@Override
+	public Member remove(int index) {
+		Member m = get(index);
+		remove(m);
+		return m;
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		boolean changed = false;
+		for (Object o : c) {
+			changed |= remove(o);
+		}
+		return changed;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(members, 0, end, null);
+		ordinals.clear();
+		end = 0;
+		removed = 0;
+		modCount++;
+	}
+
+	@Override
+	public Iterator<Member> iterator() {
+		return new Iterator<Member>() {
+			private int next = skip(0);
+			private int last = -1;
+			// members before next, the position of next once compacted
+			private int passed = 0;
+			private int expectedModCount = modCount;
+			private int expectedCompactions = compactions;
+
+			public boolean hasNext() {
+				sync();
+				return next < end;
+			}
+
+			public Member next() {
+				if (expectedModCount != modCount) {
+					throw new ConcurrentModificationException();
+				}
+				sync();
+				if (next >= end) {
+					throw new NoSuchElementException();
+				}
+				last = next;
+				next = skip(next + 1);
+				passed++;
+				return members[last];
+			}
+
+			public void remove() {
+				if (last < 0) {
+					throw new IllegalStateException();
+				}
+				if (expectedModCount != modCount) {
+					throw new ConcurrentModificationException();
+				}
+				sync();
+				// clear the slot without compacting, positions must stay stable
+				ordinals.remove(members[last]);
+				members[last] = null;
+				removed++;
+				modCount++;
+				expectedModCount = modCount;
+				last = -1;
+				passed--;
+			}
+
+			/*
+			 * A read compacted the array, the members did not change but
+			 * moved to the slots of their positions.
+			 */
+			private void sync() {
+				if (expectedCompactions != compactions) {
+					if (last >= 0) {
+						last = passed - 1;
+					}
+					next = skip(passed);
+					expectedCompactions = compactions;
+				}
+			}
+		};
+	}
+
+	private int skip(int index) {
+		while (index < end && members[index] == null) {
+			index++;
+		}
+		return index;
+	}
+
+	private void compact() {
+		if (removed == 0) {
+			return;
+		}
+		int target = 0;
+		for (int i = 0; i < end; i++) {
+			if (members[i] != null) {
+				members[target++] = members[i];
+			}
+		}
+		Arrays.fill(members, target, end, null);
+		end = target;
+		removed = 0;
+		reindex(0);
+		// the contents did not change, iterators follow the moved slots
+		compactions++;
+	}
+
+	private void reindex(int from) {
+		for (int i = from; i < end; i++) {
+			ordinals.put(members[i], i);
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > members.length) {
+			members = Arrays.copyOf(members, Math.max(capacity, members.length * 2));
+		}
+	}
+
+	private static void checkIndex(int index, int size) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package org.saiku.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.olap4j.Axis;
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapException;
+import org.saiku.query.result.BatchResult;
+
+public class BatchExecutorTest extends TestCase {
+
+	private MockCube mock;
+	private BatchExecutor executor;
+
+	@Override
+	protected void setUp() throws Exception {
+		mock = new MockCube(3, 1, 5);
+		mock.setResultSize(3, 2);
+		List<OlapConnection> pool = new ArrayList<OlapConnection>();
+		for (int i = 0; i < 3; i++) {
+			pool.add(mock.createConnection());
+		}
+		executor = new BatchExecutor(pool);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		executor.shutdown();
+	}
+
+	public void testResultsInInputOrder() throws Exception {
+		mock.setFailingMdx("[Dim2]");
+		List<Query> queries = new ArrayList<Query>();
+		for (int i = 0; i < 10; i++) {
+			queries.add(query(mock, i % 2 == 0 ? "Dim1" : "Dim2"));
+		}
+		mock.resetCalls();
+		BatchResult result = executor.execute(queries);
+		assertEquals(10, result.size());
+		assertTrue(result.hasErrors());
+		for (int i = 0; i < 10; i++) {
+			if (i % 2 == 0) {
+				assertNull(result.getError(i));
+				assertEquals(6, result.getSnapshot(i).getCellCount());
+			} else {
+				assertNotNull(result.getError(i));
+				try {
+					result.getSnapshot(i);
+					fail("query " + i + " failed");
+				} catch (OlapException e) {
+					assertSame(result.getError(i), e);
+				}
+			}
+			assertTrue(result.getLatency(i) > 0);
+		}
+		assertEquals(10, mock.getCalls("OlapConnection.createStatement"));
+		assertEquals(0, mock.getOpenStatements());
+	}
+
+	public void testRunsInParallel() throws Exception {
+		mock.setExecutionTime(50);
+		List<Query> queries = new ArrayList<Query>();
+		for (int i = 0; i < 6; i++) {
+			queries.add(query(mock, "Dim1"));
+		}
+		BatchResult result = executor.execute(queries);
+		assertFalse(result.hasErrors());
+		assertEquals(3, mock.getMaximumRunningExecutions());
+	}
+
+	public void testCompileFailureExecutesNothing() throws Exception {
+		List<Query> queries = new ArrayList<Query>();
+		for (int i = 0; i < 3; i++) {
+			queries.add(query(mock, "Dim1"));
+		}
+		queries.get(2).setCardinalityGuard(new CardinalityGuard(1, CardinalityGuard.Action.REJECT));
+		mock.resetCalls();
+		try {
+			executor.execute(queries);
+			fail("the guard should reject the last query");
+		} catch (OlapException e) {
+			// expected
+		}
+		assertEquals(0, mock.getCalls("OlapConnection.createStatement"));
+	}
+
+	static Query query(MockCube mock, String rowHierarchy) throws Exception {
+		Query query = new Query("batch", mock.getCube());
+		query.getHierarchy("Dim0").includeLevel("Level1");
+		query.moveHierarchy(query.getHierarchy("Dim0"), Axis.COLUMNS);
+		query.getHierarchy(rowHierarchy).includeLevel("Level1");
+		query.moveHierarchy(query.getHierarchy(rowHierarchy), Axis.ROWS);
+		return query;
+	}
+}
@@ -0,0 +1,229 @@
+package org.saiku.query;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.olap4j.Axis;
+import org.olap4j.Cell;
+import org.olap4j.CellSet;
+import org.olap4j.CellSetAxis;
+import org.olap4j.OlapStatement;
+import org.olap4j.Position;
+import org.olap4j.metadata.Member;
+
+/**
+ * CellSet built from dynamic proxies with members of a {@link MockCube}.
+ * Cell values are derived from the cell ordinal: every tenth cell is
+ * empty, all others hold the ordinal as a double, unless a value is set
+ * with {@link #setValue(int, Object)}.
+ */
+public class MockCellSet {
+
+	private final List<List<Member>> columns;
+	private final List<List<Member>> rows;
+	private final CellSet cellSet;
+	private final OlapStatement statement;
+	private boolean closed = false;
+	private int cellsRead = 0;
+	private final Map<Integer, Object> values = new HashMap<Integer, Object>();
+
+	/**
+	 * @param columns members of each column position
+	 * @param rows members of each row position, null for a single axis result
+	 */
+	public MockCellSet(List<List<Member>> columns, List<List<Member>> rows) {
+		this(columns, rows, null);
+	}
+
+	/**
+	 * @param columns members of each column position
+	 * @param rows members of each row position, null for a single axis result
+	 * @param statement the statement that created the result, null to use
+	 * a statement of its own
+	 */
+	public MockCellSet(List<List<Member>> columns, List<List<Member>> rows, OlapStatement statement) {
+		this.columns = columns;
+		this.rows = rows;
+		this.statement = statement != null ? statement : proxy(OlapStatement.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (name.equals("close")) {
+					closed = true;
+					return null;
+				} else if (name.equals("isClosed")) {
+					return closed;
+				} else if (name.equals("getResultSet")) {
+					return cellSet;
+				}
+				return defaults(proxy, method, args);
+			}
+		});
+		final List<CellSetAxis> axes = new ArrayList<CellSetAxis>();
+		this.cellSet = proxy(CellSet.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (name.equals("getAxes")) {
+					return axes;
+				} else if (name.equals("getCell") && args[0] instanceof Integer) {
+					return cell((Integer) args[0]);
+				} else if (name.equals("getStatement")) {
+					return MockCellSet.this.statement;
+				} else if (name.equals("close")) {
+					closed = true;
+					return null;
+				} else if (name.equals("isClosed")) {
+					return closed;
+				}
+				return defaults(proxy, method, args);
+			}
+		});
+		axes.add(axis(Axis.COLUMNS, columns));
+		if (rows != null) {
+			axes.add(axis(Axis.ROWS, rows));
+		}
+	}
+
+	/**
+	 * Creates a result with the members of the first regular level of
+	 * "Dim0" on columns and "Dim1" on rows. Positions repeat the members
+	 * of the level if more positions are requested than there are members.
+	 */
+	public static MockCellSet create(MockCube cube, int columnCount, int rowCount) {
+		return create(cube, columnCount, rowCount, null);
+	}
+
+	public static MockCellSet create(MockCube cube, int columnCount, int rowCount, OlapStatement statement) {
+		List<Member> columnMembers = cube.getMembers(cube.getCube().getHierarchies().get("Dim0"), 1);
+		List<Member> rowMembers = cube.getMembers(cube.getCube().getHierarchies().get("Dim1"), 1);
+		List<List<Member>> columns = new ArrayList<List<Member>>();
+		for (int i = 0; i < columnCount; i++) {
+			columns.add(Collections.singletonList(columnMembers.get(i % columnMembers.size())));
+		}
+		List<List<Member>> rows = new ArrayList<List<Member>>();
+		for (int i = 0; i < rowCount; i++) {
+			rows.add(Collections.singletonList(rowMembers.get(i % rowMembers.size())));
+		}
+		return new MockCellSet(columns, rows, statement);
+	}
+
+	public CellSet getCellSet() {
+		return cellSet;
+	}
+
+	public OlapStatement getStatement() {
+		return statement;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	public int getCellsRead() {
+		return cellsRead;
+	}
+
+	public int getCellCount() {
+		return columns.size() * (rows == null ? 1 : rows.size());
+	}
+
+	/**
+	 * Overrides the value of a cell.
+	 */
+	public void setValue(int ordinal, Object value) {
+		values.put(ordinal, value);
+	}
+
+	public static Double valueOf(int ordinal) {
+		return (ordinal % 10 == 9 ? null : Double.valueOf(ordinal));
+	}
+
+	private Cell cell(final int ordinal) {
+		cellsRead++;
+		final Object value = (values.containsKey(ordinal) ? values.get(ordinal) : valueOf(ordinal));
+		return proxy(Cell.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (name.equals("getValue")) {
+					return value;
+				} else if (name.equals("getDoubleValue")) {
+					return (value instanceof Number ? ((Number) value).doubleValue() : 0d);
+				} else if (name.equals("isNull") || name.equals("isEmpty")) {
+					return value == null;
+				} else if (name.equals("isError")) {
+					return false;
+				} else if (name.equals("getFormattedValue")) {
+					return (value == null ? "" : "#" + ordinal);
+				} else if (name.equals("getOrdinal")) {
+					return ordinal;
+				} else if (name.equals("getCellSet")) {
+					return cellSet;
+				}
+				return defaults(proxy, method, args);
+			}
+		});
+	}
+
+	private CellSetAxis axis(final Axis ordinal, final List<List<Member>> positions) {
+		final List<Position> positionList = new AbstractList<Position>() {
+			@Override
+			public Position get(final int index) {
+				return proxy(Position.class, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("getMembers")) {
+							return positions.get(index);
+						} else if (method.getName().equals("getOrdinal")) {
+							return index;
+						}
+						return defaults(proxy, method, args);
+					}
+				});
+			}
+
+			@Override
+			public int size() {
+				return positions.size();
+			}
+		};
+		return proxy(CellSetAxis.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (name.equals("getAxisOrdinal")) {
+					return ordinal;
+				} else if (name.equals("getPositionCount")) {
+					return positions.size();
+				} else if (name.equals("getPositions")) {
+					return positionList;
+				} else if (name.equals("iterator")) {
+					return positionList.listIterator();
+				} else if (name.equals("getCellSet")) {
+					return cellSet;
+				}
+				return defaults(proxy, method, args);
+			}
+		});
+	}
+
+	private static Object defaults(Object proxy, Method method, Object[] args) {
+		String name = method.getName();
+		if (name.equals("equals")) {
+			return proxy == args[0];
+		} else if (name.equals("hashCode")) {
+			return System.identityHashCode(proxy);
+		} else if (name.equals("toString")) {
+			return method.getDeclaringClass().getSimpleName();
+		}
+		throw new UnsupportedOperationException("MockCellSet does not support " + name);
+	}
+
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(
+				MockCellSet.class.getClassLoader(), new Class<?>[] { type }, handler));
+	}
+}
@@ -0,0 +1,567 @@
+package org.saiku.query;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapDatabaseMetaData;
+import org.olap4j.OlapException;
+import org.olap4j.OlapStatement;
+import org.olap4j.impl.ArrayNamedListImpl;
+import org.olap4j.mdx.IdentifierSegment;
+import org.olap4j.metadata.Catalog;
+import org.olap4j.metadata.Cube;
+import org.olap4j.metadata.Database;
+import org.olap4j.metadata.Dimension;
+import org.olap4j.metadata.Hierarchy;
+import org.olap4j.metadata.Level;
+import org.olap4j.metadata.Measure;
+import org.olap4j.metadata.Member;
+import org.olap4j.metadata.MetadataElement;
+import org.olap4j.metadata.NamedList;
+import org.olap4j.metadata.Schema;
+
+/**
+ * Metadata-only olap4j cube built from dynamic proxies. It lets tests and
+ * benchmarks build queries against arbitrarily wide cubes without a database.
+ * Every call to the metadata is counted, "remote" calls (the ones that would
+ * cause a round trip against an XMLA server) can be slowed down artificially.
+ * Executing statements is not supported.
+ */
+public class MockCube {
+
+	public static final String[] REMOTE_CALLS = {
+		"OlapConnection.getOlapDatabase",
+		"Cube.lookupMember",
+		"Level.getMembers"
+	};
+
+	private final ConcurrentHashMap<String, AtomicInteger> calls = new ConcurrentHashMap<String, AtomicInteger>();
+	private final Map<String, Member> membersByUniqueName = new HashMap<String, Member>();
+	private final Map<String, String> captions = new ConcurrentHashMap<String, String>();
+	private final Map<Integer, Object> cellValues = new ConcurrentHashMap<Integer, Object>();
+	private final Map<Level, List<Member>> membersByLevel = new HashMap<Level, List<Member>>();
+	private long remoteLatencyMillis = 0;
+	private final AtomicInteger openStatements = new AtomicInteger();
+	private int resultColumns = 10;
+	private int resultRows = 10;
+	private volatile long executionMillis = 0;
+	private volatile String failingMdx = null;
+	private final AtomicInteger runningExecutions = new AtomicInteger();
+	private final AtomicInteger maximumRunningExecutions = new AtomicInteger();
+
+	private final int membersPerLevel;
+	private final OlapConnection connection;
+	private final Catalog catalog;
+	private final Schema schema;
+	private final Cube cube;
+	private final MockList<Hierarchy> hierarchies = new MockList<Hierarchy>();
+	private final MockList<Dimension> dimensions = new MockList<Dimension>();
+	private final MockList<Measure> measures = new MockList<Measure>();
+
+	/**
+	 * Creates a cube with the given shape. Every hierarchy has an all level
+	 * plus <code>levels</code> regular levels, every regular level has
+	 * <code>membersPerLevel</code> members.
+	 */
+	public MockCube(int hierarchyCount, int levels, int membersPerLevel) {
+		this("Mock", hierarchyCount, levels, membersPerLevel);
+	}
+
+	public MockCube(final String name, int hierarchyCount, int levels, int membersPerLevel) {
+		this.membersPerLevel = membersPerLevel;
+		this.connection = createConnection();
+		final OlapDatabaseMetaData metaData = proxy(OlapDatabaseMetaData.class, "OlapDatabaseMetaData", new Handler() {
+			public Object invoke(String method, Object[] args) {
+				if (method.equals("getConnection")) {
+					return connection;
+				}
+				return UNSUPPORTED;
+			}
+		});
+		this.catalog = proxy(Catalog.class, "Catalog", new Handler() {
+			public Object invoke(String method, Object[] args) {
+				if (method.equals("getName")) {
+					return "MockCatalog";
+				} else if (method.equals("getMetaData")) {
+					return metaData;
+				}
+				return UNSUPPORTED;
+			}
+		});
+		this.schema = proxy(Schema.class, "Schema", new Handler() {
+			public Object invoke(String method, Object[] args) {
+				if (method.equals("getName")) {
+					return "MockSchema";
+				} else if (method.equals("getCatalog")) {
+					return catalog;
+				}
+				return UNSUPPORTED;
+			}
+		});
+		this.cube = proxy(Cube.class, "Cube", new Handler() {
+			public Object invoke(String method, Object[] args) {
+				if (method.equals("getName") || method.equals("getCaption")) {
+					return name;
+				} else if (method.equals("getUniqueName")) {
+					return "[" + name + "]";
+				} else if (method.equals("getSchema")) {
+					return schema;
+				} else if (method.equals("getHierarchies")) {
+					return hierarchies;
+				} else if (method.equals("getDimensions")) {
+					return dimensions;
+				} else if (method.equals("getMeasures")) {
+					return measures;
+				} else if (method.equals("lookupMember")) {
+					return lookupMember(args[0]);
+				}
+				return UNSUPPORTED;
+			}
+		});
+		createMeasures();
+		for (int i = 0; i < hierarchyCount; i++) {
+			createHierarchy("Dim" + i, levels);
+		}
+	}
+
+	public Cube getCube() {
+		return cube;
+	}
+
+	public OlapConnection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Creates another connection to the same cube, e.g. for a connection pool.
+	 */
+	public OlapConnection createConnection() {
+		final OlapConnection[] self = new OlapConnection[1];
+		self[0] = proxy(OlapConnection.class, "OlapConnection", new Handler() {
+			public Object invoke(String method, Object[] args) {
+				if (method.equals("unwrap")) {
+					return self[0];
+				} else if (method.equals("getOlapDatabase")) {
+					return database();
+				} else if (method.equals("getCatalog")) {
+					return catalog.getName();
+				} else if (method.equals("setCatalog") || method.equals("getRoleName")) {
+					return null;
+				} else if (method.equals("isClosed")) {
+					return false;
+				} else if (method.equals("createStatement")) {
+					return statement();
+				}
+				return UNSUPPORTED;
+			}
+		});
+		return self[0];
+	}
+
+	/**
+	 * @return the members of the n-th regular level (1 based) of a hierarchy
+	 */
+	public List<Member> getMembers(Hierarchy hierarchy, int depth) {
+		return membersByLevel.get(hierarchy.getLevels().get(depth));
+	}
+
+	/**
+	 * Slows down every remote call by the given amount of time.
+	 */
+	public void setRemoteLatency(long millis) {
+		this.remoteLatencyMillis = millis;
+	}
+
+	public int getCalls(String method) {
+		AtomicInteger count = calls.get(method);
+		return (count == null ? 0 : count.get());
+	}
+
+	public int getRemoteCalls() {
+		int total = 0;
+		for (String method : REMOTE_CALLS) {
+			total += getCalls(method);
+		}
+		return total;
+	}
+
+	public void resetCalls() {
+		calls.clear();
+	}
+
+	/**
+	 * Sets the shape of the results returned by statements of the connection,
+	 * see {@link MockCellSet#create(MockCube, int, int)}.
+	 */
+	public void setResultSize(int columns, int rows) {
+		this.resultColumns = columns;
+		this.resultRows = rows;
+	}
+
+	/**
+	 * Makes every statement execution take the given time, unless the
+	 * statement is cancelled.
+	 */
+	public void setExecutionTime(long millis) {
+		this.executionMillis = millis;
+	}
+
+	/**
+	 * Overrides the value of a cell in the results returned by statements
+	 * of the connection, see {@link MockCellSet#setValue(int, Object)}.
+	 */
+	public void setCellValue(int ordinal, Object value) {
+		cellValues.put(ordinal, value);
+	}
+
+	/**
+	 * Overrides the caption of an element, by default it is the name.
+	 */
+	public void setCaption(String uniqueName, String caption) {
+		captions.put(uniqueName, caption);
+	}
+
+	/**
+	 * Makes every statement execution fail whose MDX contains the given text.
+	 */
+	public void setFailingMdx(String fragment) {
+		this.failingMdx = fragment;
+	}
+
+	/**
+	 * @return the highest number of statement executions running at the same time
+	 */
+	public int getMaximumRunningExecutions() {
+		return maximumRunningExecutions.get();
+	}
+
+	/**
+	 * @return the number of statements created and not closed yet
+	 */
+	public int getOpenStatements() {
+		return openStatements.get();
+	}
+
+	private OlapStatement statement() {
+		openStatements.incrementAndGet();
+		final OlapStatement[] statement = new OlapStatement[1];
+		final MockCellSet[] current = new MockCellSet[1];
+		final boolean[] closed = new boolean[1];
+		final CountDownLatch cancelled = new CountDownLatch(1);
+		statement[0] = proxy(OlapStatement.class, "OlapStatement", new Handler() {
+			public Object invoke(String method, Object[] args) throws Exception {
+				if (method.equals("executeOlapQuery")) {
+					if (closed[0]) {
+						throw new OlapException("Statement is closed");
+					}
+					if (failingMdx != null && String.valueOf(args[0]).contains(failingMdx)) {
+						throw new OlapException("Mock failure");
+					}
+					if (current[0] != null) {
+						current[0].getCellSet().close();
+					}
+					int running = runningExecutions.incrementAndGet();
+					try {
+						int maximum = maximumRunningExecutions.get();
+						while (running > maximum && !maximumRunningExecutions.compareAndSet(maximum, running)) {
+							maximum = maximumRunningExecutions.get();
+						}
+						if (cancelled.await(executionMillis, TimeUnit.MILLISECONDS)) {
+							throw new OlapException("Query canceled");
+						}
+					} finally {
+						runningExecutions.decrementAndGet();
+					}
+					current[0] = MockCellSet.create(MockCube.this, resultColumns, resultRows, statement[0]);
+					for (Map.Entry<Integer, Object> value : cellValues.entrySet()) {
+						current[0].setValue(value.getKey(), value.getValue());
+					}
+					return current[0].getCellSet();
+				} else if (method.equals("close")) {
+					if (!closed[0]) {
+						closed[0] = true;
+						openStatements.decrementAndGet();
+						if (current[0] != null) {
+							current[0].getCellSet().close();
+						}
+					}
+					return null;
+				} else if (method.equals("isClosed")) {
+					return closed[0];
+				} else if (method.equals("cancel")) {
+					cancelled.countDown();
+					return null;
+				}
+				return UNSUPPORTED;
+			}
+		});
+		return statement[0];
+	}
+
+	private Database database() {
+		return proxy(Database.class, "Database", new Handler() {
+			public Object invoke(String method, Object[] args) {
+				if (method.equals("getDataSourceInfo")) {
+					return "Provider=Mondrian;MockCube";
+				} else if (method.equals("getProviderName")) {
+					return "Mondrian";
+				}
+				return UNSUPPORTED;
+			}
+		});
+	}
+
+	private void createMeasures() {
+		final Dimension[] dimension = new Dimension[1];
+		final Hierarchy[] hierarchy = new Hierarchy[1];
+		final MockList<Member> measureMembers = new MockList<Member>();
+		dimension[0] = proxy(Dimension.class, "Dimension", elementHandler("Measures", "[Measures]", new Handler() {
+			public Object invoke(String method, Object[] args) {
+				if (method.equals("getDimensionType")) {
+					return Dimension.Type.MEASURE;
+				} else if (method.equals("getDefaultHierarchy")) {
+					return hierarchy[0];
+				}
+				return UNSUPPORTED;
+			}
+		}));
+		hierarchy[0] = proxy(Hierarchy.class, "Hierarchy", elementHandler("Measures", "[Measures]", new Handler() {
+			public Object invoke(String method, Object[] args) {
+				if (method.equals("getDimension")) {
+					return dimension[0];
+				} else if (method.equals("getLevels")) {
+					return new MockList<Level>();
+				} else if (method.equals("hasAll")) {
+					return false;
+				} else if (method.equals("getRootMembers")) {
+					return measureMembers;
+				}
+				return UNSUPPORTED;
+			}
+		}));
+		for (final String name : new String[] { "Sales", "Count" }) {
+			final String uniqueName = "[Measures].[" + name + "]";
+			Measure m = proxy(Measure.class, "Measure", elementHandler(name, uniqueName, new Handler() {
+				public Object invoke(String method, Object[] args) {
+					if (method.equals("getHierarchy")) {
+						return hierarchy[0];
+					} else if (method.equals("getDimension")) {
+						return dimension[0];
+					} else if (method.equals("isCalculatedInQuery") || method.equals("isCalculated")) {
+						return false;
+					} else if (method.equals("getMemberType")) {
+						return Member.Type.MEASURE;
+					}
+					return UNSUPPORTED;
+				}
+			}));
+			measures.add(m);
+			measureMembers.add(m);
+			membersByUniqueName.put(uniqueName, m);
+		}
+	}
+
+	private void createHierarchy(final String name, int levelCount) {
+		final String uniqueName = "[" + name + "]";
+		final Hierarchy[] hierarchy = new Hierarchy[1];
+		final MockList<Level> levels = new MockList<Level>();
+		final Dimension dimension = proxy(Dimension.class, "Dimension", elementHandler(name, uniqueName, new Handler() {
+			public Object invoke(String method, Object[] args) {
+				if (method.equals("getDimensionType")) {
+					return Dimension.Type.OTHER;
+				} else if (method.equals("getDefaultHierarchy")) {
+					return hierarchy[0];
+				}
+				return UNSUPPORTED;
+			}
+		}));
+		final Member[] allMember = new Member[1];
+		hierarchy[0] = proxy(Hierarchy.class, "Hierarchy", elementHandler(name, uniqueName, new Handler() {
+			public Object invoke(String method, Object[] args) {
+				if (method.equals("getDimension")) {
+					return dimension;
+				} else if (method.equals("getLevels")) {
+					return levels;
+				} else if (method.equals("hasAll")) {
+					return true;
+				} else if (method.equals("getDefaultMember")) {
+					return allMember[0];
+				}
+				return UNSUPPORTED;
+			}
+		}));
+		for (int depth = 0; depth <= levelCount; depth++) {
+			levels.add(createLevel(hierarchy[0], dimension, depth));
+		}
+		allMember[0] = membersByLevel.get(levels.get(0)).get(0);
+		hierarchies.add(hierarchy[0]);
+		dimensions.add(dimension);
+	}
+
+	private Level createLevel(final Hierarchy hierarchy, final Dimension dimension, final int depth) {
+		final String name = (depth == 0 ? "(All)" : "Level" + depth);
+		final String uniqueName = hierarchy.getUniqueName() + ".[" + name + "]";
+		final List<Member> members = new ArrayList<Member>();
+		final Level level = proxy(Level.class, "Level", elementHandler(name, uniqueName, new Handler() {
+			public Object invoke(String method, Object[] args) {
+				if (method.equals("getHierarchy")) {
+					return hierarchy;
+				} else if (method.equals("getDimension")) {
+					return dimension;
+				} else if (method.equals("getDepth")) {
+					return depth;
+				} else if (method.equals("getLevelType")) {
+					return (depth == 0 ? Level.Type.ALL : Level.Type.REGULAR);
+				} else if (method.equals("getCardinality")) {
+					return members.size();
+				} else if (method.equals("getMembers")) {
+					return new ArrayList<Member>(members);
+				} else if (method.equals("isCalculated")) {
+					return false;
+				}
+				return UNSUPPORTED;
+			}
+		}));
+		membersByLevel.put(level, members);
+		if (depth == 0) {
+			members.add(createMember(level, null, "All " + hierarchy.getName() + "s", 0));
+		} else {
+			List<Member> parents = membersByLevel.get(hierarchy.getLevels().get(depth - 1));
+			for (int i = 0; i < membersPerLevel; i++) {
+				Member parent = (depth == 1 ? null : parents.get(i % parents.size()));
+				members.add(createMember(level, parent, "M" + depth + "-" + i, i));
+			}
+		}
+		return level;
+	}
+
+	private Member createMember(final Level level, final Member parent, final String name, final int ordinal) {
+		final String uniqueName = (parent == null
+				? level.getHierarchy().getUniqueName()
+				: parent.getUniqueName()) + ".[" + name + "]";
+		Member member = proxy(Member.class, "Member", elementHandler(name, uniqueName, new Handler() {
+			public Object invoke(String method, Object[] args) {
+				if (method.equals("getLevel")) {
+					return level;
+				} else if (method.equals("getHierarchy")) {
+					return level.getHierarchy();
+				} else if (method.equals("getDimension")) {
+					return level.getDimension();
+				} else if (method.equals("getParentMember")) {
+					return parent;
+				} else if (method.equals("getOrdinal")) {
+					return ordinal;
+				} else if (method.equals("getDepth")) {
+					return level.getDepth();
+				} else if (method.equals("getMemberType")) {
+					return (level.getDepth() == 0 ? Member.Type.ALL : Member.Type.REGULAR);
+				} else if (method.equals("isAll")) {
+					return level.getDepth() == 0;
+				} else if (method.equals("isCalculated") || method.equals("isCalculatedInQuery")) {
+					return false;
+				}
+				return UNSUPPORTED;
+			}
+		}));
+		membersByUniqueName.put(uniqueName, member);
+		return member;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Member lookupMember(Object segments) {
+		StringBuilder uniqueName = new StringBuilder();
+		for (IdentifierSegment segment : (List<IdentifierSegment>) segments) {
+			if (uniqueName.length() > 0) {
+				uniqueName.append('.');
+			}
+			uniqueName.append('[').append(segment.getName()).append(']');
+		}
+		return membersByUniqueName.get(uniqueName.toString());
+	}
+
+	private static final Object UNSUPPORTED = new Object();
+
+	private interface Handler {
+		Object invoke(String method, Object[] args) throws Exception;
+	}
+
+	private Handler elementHandler(final String name, final String uniqueName, final Handler delegate) {
+		return new Handler() {
+			public Object invoke(String method, Object[] args) throws Exception {
+				if (method.equals("getCaption") && captions.containsKey(uniqueName)) {
+					return captions.get(uniqueName);
+				} else if (method.equals("getName") || method.equals("getCaption") || method.equals("getDescription")) {
+					return name;
+				} else if (method.equals("getUniqueName") || method.equals("toString")) {
+					return uniqueName;
+				} else if (method.equals("isVisible")) {
+					return true;
+				}
+				return delegate.invoke(method, args);
+			}
+		};
+	}
+
+	private <T> T proxy(Class<T> type, final String typeName, final Handler handler) {
+		Object proxy = Proxy.newProxyInstance(
+				MockCube.class.getClassLoader(),
+				new Class<?>[] { type },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+						if (name.equals("equals")) {
+							return proxy == args[0];
+						} else if (name.equals("hashCode")) {
+							return System.identityHashCode(proxy);
+						}
+						String call = typeName + "." + name;
+						AtomicInteger count = calls.get(call);
+						if (count == null) {
+							calls.putIfAbsent(call, new AtomicInteger());
+							count = calls.get(call);
+						}
+						count.incrementAndGet();
+						if (remoteLatencyMillis > 0) {
+							for (String remote : REMOTE_CALLS) {
+								if (remote.equals(call)) {
+									Thread.sleep(remoteLatencyMillis);
+								}
+							}
+						}
+						try {
+							Object result = handler.invoke(name, args);
+							if (result == UNSUPPORTED) {
+								if (name.equals("toString")) {
+									return typeName;
+								}
+								throw new UnsupportedOperationException("MockCube does not support " + call);
+							}
+							return result;
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				});
+		return type.cast(proxy);
+	}
+
+	private static class MockList<T extends MetadataElement> extends ArrayNamedListImpl<T> implements NamedList<T> {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public String getName(Object element) {
+			return ((MetadataElement) element).getName();
+		}
+	}
+}
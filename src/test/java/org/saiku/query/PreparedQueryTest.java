@@ -0,0 +1,168 @@
+package org.saiku.query;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.lang.StringUtils;
+import org.olap4j.Axis;
+import org.saiku.query.Parameter.SelectionType;
+import org.saiku.query.metrics.NoOpMetricsListener;
+import org.saiku.query.metrics.QueryPhase;
+
+public class PreparedQueryTest extends TestCase {
+
+	private MockCube mock;
+
+	@Override
+	protected void setUp() throws Exception {
+		mock = new MockCube(3, 2, 10);
+	}
+
+	public void testLevelParametersMatchCompiledQuery() throws Exception {
+		Query reference = query();
+		Query prepared = query();
+		PreparedQuery template = prepared.prepare();
+		assertEquals("[columns, rows]", template.getLevelParameterNames().toString());
+
+		String[][] bindings = {
+			{ "[Dim0].[M1-1], [Dim0].[M1-2]", "[Dim1].[M1-3]" },
+			{ "[Dim0].[M1-4]", "[Dim1].[M1-3], [Dim1].[M1-5]" },
+			{ "", "[Dim1].[M1-3]" },
+			{ null, null },
+			{ "[Dim0].[M1-1], [Dim0].[M1-2]", null },
+		};
+		for (String[] binding : bindings) {
+			Map<String, String> values = new HashMap<String, String>();
+			values.put("columns", binding[0]);
+			values.put("rows", binding[1]);
+			reference.setParameters(new HashMap<String, String>(values));
+			assertEquals(reference.getMdx(), template.getMdx(values));
+		}
+		// one template per combination of missing, blank and set values
+		assertEquals(4, template.getStatistics().getMisses());
+		assertEquals(1, template.getStatistics().getHits());
+	}
+
+	public void testHoles() throws Exception {
+		Query query = query();
+		QueryHierarchy dim2 = query.getHierarchy("Dim2");
+		dim2.setMdxSetExpression("{[Dim2].[${member}]}");
+		query.moveHierarchy(dim2, Axis.FILTER);
+		PreparedQuery template = query.prepare();
+
+		Map<String, String> values = new HashMap<String, String>();
+		assertTrue(template.getMdx(values).contains("[Dim2].[${member}]"));
+		assertEquals(query.getMdx(), template.getMdx(values));
+		values.put("member", "M1-7");
+		String mdx = template.getMdx(values);
+		assertTrue(mdx.contains("[Dim2].[M1-7]"));
+		assertFalse(mdx.contains("${member}"));
+
+		// Query.getMdx() does not fill holes, even for parameters of the query
+		query.setParameters(values);
+		assertTrue(query.getMdx().contains("[Dim2].[${member}]"));
+		assertEquals(mdx, template.getMdx(new HashMap<String, String>()));
+	}
+
+	public void testModificationDiscardsTemplates() throws Exception {
+		Query query = query();
+		PreparedQuery template = query.prepare();
+		Map<String, String> values = new HashMap<String, String>();
+		values.put("rows", "[Dim1].[M1-3]");
+		String before = template.getMdx(values);
+		query.getAxis(Axis.ROWS).setNonEmpty(true);
+		String after = template.getMdx(values);
+		assertFalse(before.equals(after));
+		assertTrue(after.contains("NON EMPTY"));
+		assertEquals(2, template.getStatistics().getMisses());
+	}
+
+	public void testCardinalityGuardUsesBoundValues() throws Exception {
+		StringBuilder large = new StringBuilder();
+		for (int i = 0; i < 13; i++) {
+			large.append(i > 0 ? ", " : "").append("[Dim0].[M1-").append(i % 10).append("]");
+		}
+		Query query = query();
+		query.setParameter("columns", large.toString());
+		query.setCardinalityGuard(new CardinalityGuard(12, CardinalityGuard.Action.REJECT));
+		PreparedQuery template = query.prepare();
+
+		// the large default of the query is replaced by the bound value
+		Map<String, String> values = new HashMap<String, String>();
+		values.put("columns", "[Dim0].[M1-1]");
+		values.put("rows", "[Dim1].[M1-3]");
+		template.execute(values).getStatement().close();
+
+		values.put("columns", large.toString());
+		try {
+			template.execute(values);
+			fail();
+		} catch (CardinalityExceededException e) {
+			assertEquals(Axis.COLUMNS, e.getAxis());
+			assertEquals(13, e.getEstimate());
+		}
+		assertEquals(0, mock.getOpenStatements());
+	}
+
+	public void testExecuteClosesStatementOnRuntimeException() throws Exception {
+		Query query = query();
+		query.setMetricsListener(new NoOpMetricsListener() {
+			@Override
+			public void phaseCompleted(Query query, QueryPhase phase, long nanos) {
+				if (phase == QueryPhase.EXECUTE) {
+					throw new IllegalStateException("listener failure");
+				}
+			}
+		});
+		try {
+			query.prepare().execute(new HashMap<String, String>());
+			fail("listener failure expected");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(0, mock.getOpenStatements());
+	}
+
+	public void testCardinalityGuardNonEmptyPerBinding() throws Exception {
+		CardinalityGuard guard = new CardinalityGuard(5, CardinalityGuard.Action.NON_EMPTY);
+		Query reference = query();
+		reference.setCardinalityGuard(guard);
+		Query prepared = query();
+		prepared.setCardinalityGuard(guard);
+		PreparedQuery template = prepared.prepare();
+
+		String[] columns = {
+			"[Dim0].[M1-1]",
+			"[Dim0].[M1-1], [Dim0].[M1-2], [Dim0].[M1-3], [Dim0].[M1-4], [Dim0].[M1-5], [Dim0].[M1-6]",
+			"[Dim0].[M1-2]",
+		};
+		String[] mdx = new String[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			Map<String, String> values = new HashMap<String, String>();
+			values.put("columns", columns[i]);
+			reference.setParameters(new HashMap<String, String>(values));
+			mdx[i] = template.getMdx(values);
+			assertEquals(reference.getMdx(), mdx[i]);
+		}
+		// rows are always forced, columns only for six members
+		assertEquals(1, StringUtils.countMatches(mdx[0], "NON EMPTY"));
+		assertEquals(2, StringUtils.countMatches(mdx[1], "NON EMPTY"));
+		assertEquals(2, template.getStatistics().getMisses());
+	}
+
+	private Query query() throws Exception {
+		Query query = new Query("prepared", mock.getCube());
+		QueryHierarchy dim0 = query.getHierarchy("Dim0");
+		dim0.includeLevel("Level1").setParameterName("columns");
+		query.moveHierarchy(dim0, Axis.COLUMNS);
+		QueryHierarchy dim1 = query.getHierarchy("Dim1");
+		QueryLevel level = dim1.includeLevel("Level1");
+		level.setParameterName("rows");
+		level.setParameterSelectionType(SelectionType.EXCLUSION);
+		dim1.includeLevel("Level2");
+		query.moveHierarchy(dim1, Axis.ROWS);
+		return query;
+	}
+}
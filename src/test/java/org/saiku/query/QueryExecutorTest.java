@@ -0,0 +1,144 @@
+package org.saiku.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+
+import org.olap4j.Axis;
+import org.olap4j.CellSet;
+
+public class QueryExecutorTest extends TestCase {
+
+	private MockCube mock;
+	private MockCube otherMock;
+
+	@Override
+	protected void setUp() throws Exception {
+		mock = new MockCube(2, 1, 5);
+		otherMock = new MockCube("Other", 2, 1, 5);
+	}
+
+	public void testExecuteAsync() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Query query = query(mock);
+			QueryFuture future = query.executeAsync(executor);
+			// the query was compiled before it was handed over
+			query.getHierarchy("Dim1").clearSelection();
+			CellSet cellSet = future.get(5, TimeUnit.SECONDS);
+			assertEquals(100, cellSet.getAxes().get(0).getPositionCount() * cellSet.getAxes().get(1).getPositionCount());
+			assertTrue(future.getMdx().contains("[Dim1]"));
+			cellSet.getStatement().close();
+			assertEquals(0, mock.getOpenStatements());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testTimeoutCancelsStatement() throws Exception {
+		mock.setExecutionTime(10000);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			QueryFuture future = query(mock).executeAsync(executor);
+			long start = System.currentTimeMillis();
+			try {
+				future.getResult(100, TimeUnit.MILLISECONDS);
+				fail("query should time out");
+			} catch (TimeoutException e) {
+				// expected
+			}
+			assertTrue(future.isCancelled());
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+			assertTrue(System.currentTimeMillis() - start < 5000);
+			assertEquals(1, mock.getCalls("OlapStatement.cancel"));
+			assertEquals(0, mock.getOpenStatements());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	public void testCancelBeforeExecution() throws Exception {
+		QueryFuture future = query(mock).executeAsync(new java.util.concurrent.Executor() {
+			public void execute(Runnable command) {
+				// never runs
+			}
+		});
+		assertTrue(future.cancel(true));
+		future.run();
+		try {
+			future.get();
+			fail("future is cancelled");
+		} catch (CancellationException e) {
+			// expected
+		}
+		assertEquals(0, mock.getCalls("OlapConnection.createStatement"));
+	}
+
+	public void testConcurrencyLimitPerCube() throws Exception {
+		mock.setExecutionTime(50);
+		otherMock.setExecutionTime(50);
+		QueryExecutor executor = new QueryExecutor(4, 1, 20);
+		try {
+			List<QueryFuture> futures = new ArrayList<QueryFuture>();
+			for (int i = 0; i < 4; i++) {
+				futures.add(executor.submit(query(mock)));
+				futures.add(executor.submit(query(otherMock)));
+			}
+			assertEquals(1, executor.getRunning(mock.getCube()));
+			assertEquals(6, executor.getWaiting());
+			for (QueryFuture future : futures) {
+				future.get(5, TimeUnit.SECONDS).getStatement().close();
+			}
+			assertEquals(1, mock.getMaximumRunningExecutions());
+			assertEquals(1, otherMock.getMaximumRunningExecutions());
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+			assertEquals(0, executor.getWaiting());
+			assertEquals(0, executor.getRunning(mock.getCube()));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	public void testCubeLimitAndRejection() throws Exception {
+		mock.setExecutionTime(10000);
+		QueryExecutor executor = new QueryExecutor(4, 1, 1);
+		executor.setConcurrencyLimit(mock.getCube(), 2);
+		try {
+			QueryFuture first = executor.submit(query(mock));
+			QueryFuture second = executor.submit(query(mock));
+			QueryFuture waiting = executor.submit(query(mock));
+			assertEquals(2, executor.getRunning(mock.getCube()));
+			try {
+				executor.submit(query(mock));
+				fail("too many queries waiting");
+			} catch (RejectedExecutionException e) {
+				// expected
+			}
+			executor.shutdownNow();
+			assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+			assertTrue(first.isCancelled() || first.isDone());
+			assertTrue(second.isCancelled() || second.isDone());
+			assertTrue(waiting.isCancelled());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static Query query(MockCube mock) throws Exception {
+		Query query = new Query("async", mock.getCube());
+		query.getHierarchy("Dim0").includeLevel("Level1");
+		query.moveHierarchy(query.getHierarchy("Dim0"), Axis.COLUMNS);
+		query.getHierarchy("Dim1").includeLevel("Level1");
+		query.moveHierarchy(query.getHierarchy("Dim1"), Axis.ROWS);
+		return query;
+	}
+}
@@ -0,0 +1,99 @@
+package org.saiku.query;
+
+import junit.framework.TestCase;
+
+import org.olap4j.Axis;
+import org.saiku.query.ISortableQuerySet.HierarchizeMode;
+
+public class QueryPagingTest extends TestCase {
+
+	private MockCube mock;
+	private Query query;
+
+	@Override
+	protected void setUp() throws Exception {
+		mock = new MockCube(3, 1, 50);
+		query = new Query("paging", mock.getCube());
+		query.getHierarchy("Dim0").includeLevel("Level1");
+		query.moveHierarchy(query.getHierarchy("Dim0"), Axis.COLUMNS);
+		query.getHierarchy("Dim1").includeLevel("Level1");
+		query.moveHierarchy(query.getHierarchy("Dim1"), Axis.ROWS);
+		query.getHierarchy("Dim2").includeLevel("Level1");
+		query.moveHierarchy(query.getHierarchy("Dim2"), Axis.ROWS);
+		query.getDetails().add(query.getMeasure("Sales"));
+	}
+
+	public void testPage() throws Exception {
+		QueryAxis rows = query.getAxis(Axis.ROWS);
+		rows.setHierarchizeMode(HierarchizeMode.PRE);
+		rows.setPaging(1000, 100);
+		TestUtil.assertEqualsVerbose(
+				"WITH\n"
+				+ "SET [~COLUMNS] AS\n"
+				+ "    {[Dim0].[Level1].Members}\n"
+				+ "SET [~ROWS_Dim1_Dim1] AS\n"
+				+ "    {[Dim1].[Level1].Members}\n"
+				+ "SET [~ROWS_Dim2_Dim2] AS\n"
+				+ "    {[Dim2].[Level1].Members}\n"
+				+ "SELECT\n"
+				+ "CrossJoin([~COLUMNS], {[Measures].[Sales]}) ON COLUMNS,\n"
+				+ "Subset(Hierarchize(CrossJoin([~ROWS_Dim1_Dim1], [~ROWS_Dim2_Dim2])), 1000, 100) ON ROWS\n"
+				+ "FROM [Mock]",
+				query.getMdx());
+		assertEquals(100, query.getEstimatedCardinality(Axis.ROWS));
+		rows.setPaging(2450, 100);
+		assertEquals(50, query.getEstimatedCardinality(Axis.ROWS));
+
+		// empty tuples are removed before the page is cut
+		rows.setNonEmpty(true);
+		String mdx = query.getMdx();
+		assertTrue(mdx, mdx.contains("NON EMPTY Subset(NonEmpty(Hierarchize(NonEmptyCrossJoin("
+				+ "[~ROWS_Dim1_Dim1], [~ROWS_Dim2_Dim2])), CrossJoin([~COLUMNS], {[Measures].[Sales]})), 2450, 100) ON ROWS"));
+
+		rows.clearPaging();
+		assertFalse(query.getMdx().contains("Subset"));
+		assertEquals(2500, query.getEstimatedCardinality(Axis.ROWS));
+	}
+
+	public void testCount() throws Exception {
+		QueryAxis rows = query.getAxis(Axis.ROWS);
+		rows.setPaging(0, 10);
+		rows.setNonEmpty(true);
+		TestUtil.assertEqualsVerbose(
+				"WITH\n"
+				+ "SET [~ROWS_Dim1_Dim1] AS\n"
+				+ "    {[Dim1].[Level1].Members}\n"
+				+ "SET [~ROWS_Dim2_Dim2] AS\n"
+				+ "    {[Dim2].[Level1].Members}\n"
+				+ "SET [~COLUMNS] AS\n"
+				+ "    {[Dim0].[Level1].Members}\n"
+				+ "MEMBER [Measures].[~COUNT] AS\n"
+				+ "    Count(NonEmpty(NonEmptyCrossJoin([~ROWS_Dim1_Dim1], [~ROWS_Dim2_Dim2]), CrossJoin([~COLUMNS], {[Measures].[Sales]})))\n"
+				+ "SELECT\n"
+				+ "{[Measures].[~COUNT]} ON COLUMNS\n"
+				+ "FROM [Mock]",
+				query.getCountMdx(Axis.ROWS));
+		// the first cell of the mock results is 0
+		assertEquals(0, query.executeCount(Axis.ROWS));
+		assertEquals(0, mock.getOpenStatements());
+	}
+
+	public void testNonEmptyAgainstFilteredColumns() throws Exception {
+		// rows with data only outside of the selected columns must not count
+		// toward the page, NON EMPTY would remove them afterwards
+		QueryHierarchy dim0 = query.getHierarchy("Dim0");
+		dim0.includeMember(mock.getMembers(dim0.getHierarchy(), 1).get(1));
+		dim0.includeMember(mock.getMembers(dim0.getHierarchy(), 1).get(2));
+		QueryAxis rows = query.getAxis(Axis.ROWS);
+		rows.setNonEmpty(true);
+		rows.setPaging(0, 10);
+		String mdx = query.getMdx();
+		assertTrue(mdx, mdx.contains("SET [~COLUMNS] AS\n    {[Dim0].[M1-1], [Dim0].[M1-2]}\n"));
+		assertTrue(mdx, mdx.contains("NON EMPTY Subset(NonEmpty(NonEmptyCrossJoin([~ROWS_Dim1_Dim1], [~ROWS_Dim2_Dim2]), "
+				+ "CrossJoin([~COLUMNS], {[Measures].[Sales]})), 0, 10) ON ROWS"));
+		String countMdx = query.getCountMdx(Axis.ROWS);
+		assertTrue(countMdx, countMdx.contains("SET [~COLUMNS] AS\n    {[Dim0].[M1-1], [Dim0].[M1-2]}\n"));
+		assertTrue(countMdx, countMdx.contains("Count(NonEmpty(NonEmptyCrossJoin([~ROWS_Dim1_Dim1], [~ROWS_Dim2_Dim2]), "
+				+ "CrossJoin([~COLUMNS], {[Measures].[Sales]})))"));
+	}
+}
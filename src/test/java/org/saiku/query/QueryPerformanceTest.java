@@ -0,0 +1,588 @@
+package org.saiku.query;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.olap4j.Axis;
+import org.olap4j.OlapConnection;
+import org.olap4j.mdx.ParseTreeWriter;
+import org.olap4j.mdx.SelectNode;
+import org.olap4j.metadata.Level;
+import org.olap4j.metadata.Member;
+import org.saiku.query.result.BatchResult;
+import org.saiku.query.result.CellConsumer;
+import org.saiku.query.result.ColumnarResult;
+import org.saiku.query.result.ColumnarSnapshot;
+import org.saiku.query.result.DelimitedExporter;
+import org.saiku.query.result.DelimitedExporter.Format;
+import org.saiku.query.result.ResultSnapshot;
+import org.saiku.query.result.SpillStore;
+import org.saiku.query.result.SpilledSnapshot;
+import org.saiku.query.result.StreamedCell;
+
+/**
+ * Rough benchmarks of the query model against metadata-only cubes, see
+ * {@link MockCube}. The timings are printed if {@link TestContext#DEBUG}
+ * is enabled, the assertions only check the amount of work done.
+ */
+public class QueryPerformanceTest extends TestCase {
+
+	private static final int ITERATIONS = 200;
+
+	public void testFlavorLookup() throws Exception {
+		MockCube mock = new MockCube(10, 3, 10);
+		mock.setRemoteLatency(1);
+		Query query = new Query("flavor", mock.getCube());
+		query.getHierarchy("Dim0").includeLevel("Level1");
+		query.moveHierarchy(query.getHierarchy("Dim0"), Axis.COLUMNS);
+		query.getHierarchy("Dim1").includeLevel("Level2");
+		query.moveHierarchy(query.getHierarchy("Dim1"), Axis.ROWS);
+		query.getHierarchy("Dim2").includeLevel("Level1");
+		query.moveHierarchy(query.getHierarchy("Dim2"), Axis.FILTER);
+
+		// every compile detects the flavor again
+		BackendFlavorCache.clear();
+		mock.resetCalls();
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			BackendFlavorCache.clear(mock.getConnection());
+			query.markModified();
+			query.getSelect();
+		}
+		long uncached = System.nanoTime() - start;
+		int uncachedCalls = mock.getRemoteCalls();
+		assertEquals(2 * ITERATIONS, uncachedCalls);
+
+		// the flavor is detected once per connection
+		mock.resetCalls();
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			query.markModified();
+			query.getSelect();
+		}
+		long cached = System.nanoTime() - start;
+		assertEquals(0, mock.getRemoteCalls());
+
+		print("flavor lookup per compile", uncached);
+		print("flavor lookup per connection", cached);
+	}
+
+	public void testBatchExecution() throws Exception {
+		MockCube mock = new MockCube(2, 1, 10);
+		mock.setExecutionTime(20);
+		List<Query> queries = new ArrayList<Query>();
+		for (int i = 0; i < 20; i++) {
+			queries.add(BatchExecutorTest.query(mock, "Dim1"));
+		}
+
+		long start = System.nanoTime();
+		for (Query query : queries) {
+			query.executeSnapshot();
+		}
+		long sequential = System.nanoTime() - start;
+
+		List<OlapConnection> pool = new ArrayList<OlapConnection>();
+		for (int i = 0; i < 4; i++) {
+			pool.add(mock.createConnection());
+		}
+		BatchExecutor executor = new BatchExecutor(pool);
+		try {
+			BatchResult result = executor.execute(queries);
+			assertFalse(result.hasErrors());
+			assertEquals(4, mock.getMaximumRunningExecutions());
+			if (TestContext.DEBUG) {
+				System.out.println("sequential: " + (sequential / 1000000) + " ms, " + result);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testLazyConstruction() throws Exception {
+		MockCube mock = new MockCube(200, 4, 5);
+		mock.resetCalls();
+		Query[] queries = new Query[50];
+		long heap = usedHeap();
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			queries[i % queries.length] = query(mock);
+		}
+		long lazy = System.nanoTime() - start;
+		long lazyHeap = usedHeap() - heap;
+		// only the hierarchies and levels used by the query are looked at
+		assertEquals(2 * ITERATIONS, mock.getCalls("Hierarchy.getLevels"));
+		mock.resetCalls();
+		queries[0].retrieveParameters();
+		assertEquals(0, mock.getCalls("Hierarchy.getLevels"));
+		assertEquals(0, mock.getCalls("Cube.getHierarchies"));
+
+		queries = new Query[queries.length];
+		heap = usedHeap();
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			Query query = query(mock);
+			for (QueryHierarchy qh : query.getUnusedAxis().getQueryHierarchies()) {
+				for (Level level : qh.getHierarchy().getLevels()) {
+					qh.includeLevel(level.getName());
+					qh.excludeLevel(level.getName());
+				}
+			}
+			queries[i % queries.length] = query;
+		}
+		long eager = System.nanoTime() - start;
+		long eagerHeap = usedHeap() - heap;
+		assertEquals(200, queries[0].getUnusedAxis().getQueryHierarchies().size());
+
+		print("query construction, lazy", lazy);
+		print("query construction, all materialized", eager);
+		if (TestContext.DEBUG) {
+			System.out.println("retained heap of " + queries.length + " queries: lazy "
+					+ (lazyHeap / 1024) + " KB, all materialized " + (eagerHeap / 1024) + " KB");
+		}
+	}
+
+	public void testIndexedLookups() throws Exception {
+		int width = 300;
+		MockCube mock = new MockCube(width, 2, 5);
+		Query query = new Query("lookups", mock.getCube());
+		for (int i = 0; i < width; i += 3) {
+			query.getHierarchy("Dim" + i).includeLevel("Level1");
+		}
+		String last = "Dim" + (width - 1);
+		String lastLevel = "[Dim" + (width - 3) + "].[Level1]";
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			assertNotNull(scanHierarchy(query, last));
+			assertNotNull(scanLevel(query, lastLevel));
+		}
+		long scanned = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			assertNotNull(query.getHierarchy(last));
+			assertNotNull(query.getLevel(lastLevel));
+		}
+		long indexed = System.nanoTime() - start;
+
+		// the level index follows include and exclude
+		assertSame(query.getHierarchy("Dim0").getActiveLevel("Level1"), query.getLevel("[Dim0].[Level1]"));
+		assertNull(query.getLevel("[Dim0].[Level2]"));
+		query.getHierarchy("Dim0").excludeLevel("Level1");
+		assertNull(query.getLevel("[Dim0].[Level1]"));
+		query.getHierarchy("Dim0").includeMember(mock.getMembers(query.getHierarchy("Dim0").getHierarchy(), 2).get(0));
+		assertNotNull(query.getLevel("[Dim0].[Level2]"));
+		query.getHierarchy("Dim0").clearSelection();
+		assertNull(query.getLevel("[Dim0].[Level2]"));
+
+		print("hierarchy and level lookup, linear scan", scanned);
+		print("hierarchy and level lookup, indexed", indexed);
+	}
+
+	/*
+	 * The lookups as they were done before the indexes, for comparison.
+	 */
+	private static QueryHierarchy scanHierarchy(Query query, String name) {
+		for (QueryHierarchy qh : query.getUnusedAxis().getQueryHierarchies()) {
+			if (qh.getName().equals(name)) {
+				return qh;
+			}
+		}
+		return null;
+	}
+
+	private static QueryLevel scanLevel(Query query, String uniqueName) {
+		for (QueryHierarchy qh : query.getUnusedAxis().getQueryHierarchies()) {
+			for (QueryLevel ql : qh.getActiveQueryLevels()) {
+				if (ql.getUniqueName().equals(uniqueName)) {
+					return ql;
+				}
+			}
+		}
+		return null;
+	}
+
+	public void testLargeMemberSelection() throws Exception {
+		int count = 20000;
+		MockCube mock = new MockCube(1, 1, count);
+		Query query = new Query("selection", mock.getCube());
+		QueryHierarchy qh = query.getHierarchy("Dim0");
+		List<Member> members = mock.getMembers(qh.getHierarchy(), 1);
+
+		// the selection as it was kept before, for comparison
+		long start = System.nanoTime();
+		List<Member> list = new ArrayList<Member>();
+		for (Member m : members) {
+			if (!list.contains(m)) {
+				list.add(m);
+			}
+		}
+		long arrayList = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (Member m : members) {
+			qh.includeMember(m);
+		}
+		long single = System.nanoTime() - start;
+		QueryLevel level = qh.getActiveLevel("Level1");
+		assertEquals(count, level.getInclusions().size());
+
+		qh.clearSelection();
+		start = System.nanoTime();
+		qh.includeMembers(members);
+		qh.excludeMembers(members.subList(0, count / 2));
+		long bulk = System.nanoTime() - start;
+		assertEquals(count / 2, level.getInclusions().size());
+		assertEquals(members.get(count / 2), level.getInclusions().get(0));
+		assertEquals(count / 2, level.getExclusions().size());
+
+		if (TestContext.DEBUG) {
+			System.out.println("selecting " + count + " members: array list " + (arrayList / 1000000)
+					+ " ms, one by one " + (single / 1000000) + " ms, bulk include and exclude " + (bulk / 1000000) + " ms");
+		}
+	}
+
+	public void testBulkMemberResolution() throws Exception {
+		MockCube mock = new MockCube(1, 2, 200);
+		mock.setRemoteLatency(1);
+		Query query = new Query("names", mock.getCube());
+		QueryHierarchy qh = query.getHierarchy("Dim0");
+		List<String> names = new ArrayList<String>();
+		for (int depth = 1; depth <= 2; depth++) {
+			for (Member m : mock.getMembers(qh.getHierarchy(), depth)) {
+				names.add(m.getUniqueName());
+			}
+		}
+
+		mock.resetCalls();
+		long start = System.nanoTime();
+		for (String name : names) {
+			qh.includeMember(name);
+		}
+		long single = System.nanoTime() - start;
+		assertEquals(names.size(), mock.getRemoteCalls());
+
+		qh.clearSelection();
+		mock.resetCalls();
+		start = System.nanoTime();
+		assertTrue(qh.includeMembersByName(names).isEmpty());
+		long bulk = System.nanoTime() - start;
+		assertEquals(4, mock.getRemoteCalls());
+		assertEquals(200, qh.getActiveLevel("Level2").getInclusions().size());
+
+		if (TestContext.DEBUG) {
+			System.out.println("resolving " + names.size() + " members: one by one " + (single / 1000000)
+					+ " ms, bulk " + (bulk / 1000000) + " ms");
+		}
+	}
+
+	public void testPreparedQuery() throws Exception {
+		MockCube mock = new MockCube(10, 2, 50);
+		Query query = query(mock);
+		query.getHierarchy("Dim0").getActiveLevel("Level1").setParameterName("customer");
+		for (int i = 2; i < 10; i++) {
+			query.getHierarchy("Dim" + i).includeLevel("Level1");
+			query.moveHierarchy(query.getHierarchy("Dim" + i), Axis.FILTER);
+		}
+		PreparedQuery prepared = query.prepare();
+		Map<String, String> values = new HashMap<String, String>();
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			query.setParameter("customer", "[Dim0].[M1-" + (i % 50) + "]");
+			query.getMdx();
+		}
+		long compiled = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			values.put("customer", "[Dim0].[M1-" + (i % 50) + "]");
+			prepared.getMdx(values);
+		}
+		long bound = System.nanoTime() - start;
+		assertEquals(query.getMdx(), prepared.getMdx(values));
+
+		print("parameter change, full compile", compiled);
+		print("parameter change, prepared query", bound);
+	}
+
+	public void testIncrementalCompilation() throws Exception {
+		MockCube mock = new MockCube(9, 2, 2000);
+		Query query = new Query("incremental", mock.getCube());
+		Axis[] axes = { Axis.COLUMNS, Axis.ROWS, Axis.FILTER };
+		for (int i = 0; i < 9; i++) {
+			QueryHierarchy qh = query.getHierarchy("Dim" + i);
+			qh.includeMembers(mock.getMembers(qh.getHierarchy(), 2));
+			query.moveHierarchy(qh, axes[i % 3]);
+		}
+		query.getAxis(Axis.ROWS).setNonEmpty(true);
+		QueryHierarchy edited = query.getHierarchy("Dim1");
+		List<Member> members = mock.getMembers(edited.getHierarchy(), 2);
+		query.getSelect();
+
+		// the parse tree is compared, writing the MDX takes the same time either way
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			edited.excludeMember(members.get(i));
+			query.markModified();
+			query.getSelect();
+		}
+		long full = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			edited.includeMember(members.get(i));
+			query.getSelect();
+		}
+		long incremental = System.nanoTime() - start;
+		assertEquals(unparse(Olap4jNodeConverter.toQuery(query)), query.getMdx());
+
+		// moving a hierarchy changes both axes
+		query.moveHierarchy(query.getHierarchy("Dim0"), Axis.ROWS);
+		assertEquals(unparse(Olap4jNodeConverter.toQuery(query)), query.getMdx());
+		query.getHierarchy("Dim2").getActiveLevel("Level2").setMdxSetExpression("[Dim2].[Level2].Members");
+		assertEquals(unparse(Olap4jNodeConverter.toQuery(query)), query.getMdx());
+		query.setLowestLevelsOnly(true);
+		assertEquals(unparse(Olap4jNodeConverter.toQuery(query)), query.getMdx());
+
+		print("one hierarchy edit, full compile", full);
+		print("one hierarchy edit, changed axis only", incremental);
+	}
+
+	public void testStreamingMdx() throws Exception {
+		int count = 50000;
+		MockCube mock = new MockCube(2, 1, count);
+		Query query = new Query("streaming", mock.getCube());
+		QueryHierarchy qh = query.getHierarchy("Dim0");
+		qh.includeMembers(mock.getMembers(qh.getHierarchy(), 1));
+		query.moveHierarchy(qh, Axis.ROWS);
+		Charset utf8 = Charset.forName("UTF-8");
+
+		// streamed and cached MDX are the same
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		query.writeMdx(bytes, utf8);
+		String mdx = query.getMdx();
+		assertEquals(mdx, new String(bytes.toByteArray(), "UTF-8"));
+		StringWriter writer = new StringWriter();
+		query.writeMdx(writer);
+		assertEquals(mdx, writer.toString());
+		mdx = null;
+
+		CountingOutputStream sink = new CountingOutputStream();
+		query.markModified();
+		long heap = usedHeap();
+		resetPeakHeap();
+		Writer out = new OutputStreamWriter(sink, utf8);
+		out.write(query.getMdx());
+		out.flush();
+		long copied = peakHeap() - heap;
+		long length = sink.count;
+
+		sink.count = 0;
+		query.markModified();
+		heap = usedHeap();
+		resetPeakHeap();
+		query.writeMdx(sink, utf8);
+		long streamed = peakHeap() - heap;
+		assertEquals(length, sink.count);
+
+		if (TestContext.DEBUG) {
+			System.out.println("writing " + (length / 1024) + " KB of MDX, peak heap: via string "
+					+ (copied / 1024) + " KB, streamed " + (streamed / 1024) + " KB");
+		}
+	}
+
+	public void testStreamingCells() throws Exception {
+		MockCube mock = new MockCube(2, 2, 10);
+		mock.setResultSize(200, 5000);
+		Query query = query(mock);
+
+		long heap = usedHeap();
+		resetPeakHeap();
+		ResultSnapshot snapshot = query.executeSnapshot();
+		long copied = peakHeap() - heap;
+		int cells = snapshot.getCellCount();
+		snapshot = null;
+		assertEquals(0, mock.getOpenStatements());
+
+		final double[] sum = new double[1];
+		heap = usedHeap();
+		resetPeakHeap();
+		long streamed = query.execute(new CellConsumer() {
+			public void start(int columnCount, int rowCount) {
+			}
+
+			public void column(int column, List<Member> members) {
+			}
+
+			public void row(int row, List<Member> members) {
+			}
+
+			public void cell(StreamedCell cell) {
+				sum[0] += cell.getDoubleValue();
+			}
+
+			public void end() {
+			}
+		});
+		long streamedHeap = peakHeap() - heap;
+		assertEquals(cells, streamed);
+		assertEquals(0, mock.getOpenStatements());
+		// every tenth ordinal is empty
+		double expected = 0;
+		for (int i = 0; i < cells; i++) {
+			expected += (i % 10 == 9 ? 0 : i);
+		}
+		assertEquals(expected, sum[0], 0d);
+
+		if (TestContext.DEBUG) {
+			System.out.println("reading " + cells + " cells, peak heap: snapshot "
+					+ (copied / 1024) + " KB, streamed " + (streamedHeap / 1024) + " KB");
+		}
+	}
+
+	public void testColumnarSnapshot() throws Exception {
+		MockCube mock = new MockCube(2, 2, 10);
+		mock.setResultSize(100, 2000);
+		Query query = query(mock);
+
+		long heap = usedHeap();
+		ResultSnapshot snapshot = query.executeSnapshot();
+		long retained = usedHeap() - heap;
+		assertEquals(200000, snapshot.getCellCount());
+		snapshot = null;
+
+		heap = usedHeap();
+		ColumnarSnapshot columnar = query.executeColumnarSnapshot();
+		long retainedColumnar = usedHeap() - heap;
+		assertEquals(200000, columnar.getCellCount());
+		assertEquals(0, mock.getOpenStatements());
+		// member ids of 100 + 2000 positions, one double and one bit per cell
+		assertEquals(2100 * 4 + 200000 * 8 + 200000 / 64 * 8, columnar.getHeapColumnSize());
+		assertFalse(columnar.hasFormattedValues());
+
+		if (TestContext.DEBUG) {
+			System.out.println("retained heap of " + columnar.getCellCount() + " cells: snapshot "
+					+ (retained / 1024) + " KB, columnar " + (retainedColumnar / 1024) + " KB");
+		}
+	}
+
+	public void testSpilledResult() throws Exception {
+		MockCube mock = new MockCube(2, 2, 10);
+		mock.setResultSize(100, 10000);
+		Query query = query(mock);
+
+		long heap = usedHeap();
+		ColumnarResult result = query.executeColumnar(new SpillStore(1024 * 1024));
+		try {
+			long retained = usedHeap() - heap;
+			assertTrue(result instanceof SpilledSnapshot);
+			assertEquals(0, mock.getOpenStatements());
+			assertEquals(1000000, result.getCellCount());
+			// ids and values live in the file, nothing but the dictionary on the heap
+			assertEquals(0, result.getHeapColumnSize());
+			assertTrue(((SpilledSnapshot) result).getFileSize() >= 1000000 * 8L);
+			assertEquals(999998d, result.getDoubleValue(999998), 0d);
+			if (TestContext.DEBUG) {
+				System.out.println("retained heap of " + result.getCellCount() + " spilled cells: "
+						+ (retained / 1024) + " KB, file " + (((SpilledSnapshot) result).getFileSize() / 1024) + " KB");
+			}
+		} finally {
+			result.close();
+		}
+	}
+
+	public void testDelimitedExport() throws Exception {
+		MockCube mock = new MockCube(2, 2, 10);
+		mock.setResultSize(100, 20000);
+		Query query = query(mock);
+
+		CountingOutputStream sink = new CountingOutputStream();
+		long heap = usedHeap();
+		resetPeakHeap();
+		long rows = new DelimitedExporter(Format.CSV).export(query, sink);
+		long peak = peakHeap() - heap;
+		assertEquals(20000, rows);
+		assertEquals(0, mock.getOpenStatements());
+
+		if (TestContext.DEBUG) {
+			System.out.println("exporting " + (rows * 100) + " cells as " + (sink.count / 1024)
+					+ " KB of CSV, peak heap " + (peak / 1024) + " KB");
+		}
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+		private long count = 0;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	private static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	private static String unparse(SelectNode select) {
+		StringWriter writer = new StringWriter();
+		select.unparse(new ParseTreeWriter(new PrintWriter(writer)));
+		return writer.toString();
+	}
+
+	private static Query query(MockCube mock) throws Exception {
+		Query query = new Query("wide", mock.getCube());
+		query.getHierarchy("Dim0").includeLevel("Level1");
+		query.moveHierarchy(query.getHierarchy("Dim0"), Axis.COLUMNS);
+		query.getHierarchy("Dim1").includeLevel("Level2");
+		query.moveHierarchy(query.getHierarchy("Dim1"), Axis.ROWS);
+		return query;
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	static void print(String name, long nanos) {
+		if (TestContext.DEBUG) {
+			System.out.println(name + ": " + (nanos / ITERATIONS / 1000) + " us/op");
+		}
+	}
+}
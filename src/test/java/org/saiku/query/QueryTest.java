@@ -24,6 +24,8 @@ import org.saiku.query.mdx.NameFilter;
 import org.saiku.query.mdx.NameLikeFilter;
 import org.saiku.query.metadata.CalculatedMeasure;
 import org.saiku.query.metadata.CalculatedMember;
+import org.saiku.query.result.ResultCache;
+import org.saiku.query.result.ResultSnapshot;
 
 public class QueryTest extends TestCase {
 
@@ -1242,6 +1244,72 @@ public class QueryTest extends TestCase {
 		}
 	}
 
+	public void testCompileCache() {
+		try {
+			Cube cube = getFoodmartCube("Sales");
+			Query query = new Query("compile cache", cube);
+			QueryAxis columns = query.getAxis(Axis.COLUMNS);
+			QueryHierarchy products = query.getHierarchy("[Product]");
+			products.includeLevel("Product Family");
+			columns.addHierarchy(products);
+
+			String mdx = query.getMdx();
+			assertEquals(0, query.getCompileCacheStatistics().getHits());
+			assertSame(mdx, query.getMdx());
+			assertEquals(1, query.getCompileCacheStatistics().getHits());
+
+			// the returned tree is a copy, changing it must not affect the cache
+			SelectNode select = query.getSelect();
+			select.getAxisList().clear();
+			assertEquals(mdx, query.getMdx());
+
+			long modifications = query.getModificationCount();
+			products.includeMember("[Product].[Drink]");
+			assertTrue(query.getModificationCount() > modifications);
+			String changed = query.getMdx();
+			assertFalse(mdx.equals(changed));
+
+			QueryLevel family = products.getActiveLevel("Product Family");
+			family.setParameterName("FamilyParameter");
+			String parameterMdx = query.getMdx();
+			// changing the parameter map directly has to invalidate the cache as well
+			query.getParameters().put("FamilyParameter", "Product.Food");
+			assertFalse(parameterMdx.equals(query.getMdx()));
+			assertTrue(query.getMdx().contains("[Product].[Food]"));
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	public void testResultCache() {
+		try {
+			Cube cube = getFoodmartCube("Sales");
+			Query query = new Query("result cache", cube);
+			QueryHierarchy products = query.getHierarchy("[Product]");
+			products.includeLevel("Product Family");
+			query.getAxis(Axis.ROWS).addHierarchy(products);
+			query.getDetails().add(query.getMeasure("Unit Sales"));
+			query.setResultCache(new ResultCache());
+
+			ResultSnapshot snapshot = query.executeSnapshot();
+			assertEquals(3, snapshot.getCellCount());
+			assertEquals("[Product].[Drink]", snapshot.getAxes().get(1).getMembers(0).get(0).getUniqueName());
+			assertEquals("24,597", snapshot.getFormattedValue(snapshot.getOrdinal(0, 0)));
+			assertSame(snapshot, query.executeSnapshot());
+			assertEquals(1, query.getResultCache().getStatistics().getHits());
+
+			products.includeMember("[Product].[Food]");
+			ResultSnapshot changed = query.executeSnapshot();
+			assertNotSame(snapshot, changed);
+			assertEquals(1, changed.getCellCount());
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
 	public Cube getFoodmartCube(String cubeName) throws Exception {
 		OlapConnection connection = context.createConnection();
 		final OlapWrapper wrapper = connection;
@@ -0,0 +1,124 @@
+package org.saiku.query;
+
+import junit.framework.TestCase;
+
+import org.olap4j.Axis;
+import org.olap4j.CellSet;
+import org.olap4j.OlapStatement;
+
+import org.saiku.query.metrics.NoOpMetricsListener;
+import org.saiku.query.metrics.QueryPhase;
+import org.saiku.query.result.ResultSnapshot;
+
+/**
+ * Soak tests for the statement handling of {@link Query}: executing a query
+ * many times must not leave statements open.
+ */
+public class StatementManagerTest extends TestCase {
+
+	private static final int EXECUTIONS = 5000;
+
+	private MockCube mock;
+	private Query query;
+
+	@Override
+	protected void setUp() throws Exception {
+		mock = new MockCube(3, 2, 10);
+		mock.setResultSize(5, 4);
+		query = new Query("soak", mock.getCube());
+		query.getHierarchy("Dim0").includeLevel("Level1");
+		query.moveHierarchy(query.getHierarchy("Dim0"), Axis.COLUMNS);
+		query.getHierarchy("Dim1").includeLevel("Level1");
+		query.moveHierarchy(query.getHierarchy("Dim1"), Axis.ROWS);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		StatementManager.closeStatement(mock.getConnection());
+	}
+
+	public void testSnapshotClosesStatements() throws Exception {
+		int open = StatementManager.getOpenStatements();
+		for (int i = 0; i < EXECUTIONS; i++) {
+			ResultSnapshot snapshot = query.executeSnapshot();
+			assertEquals(20, snapshot.getCellCount());
+		}
+		assertEquals(EXECUTIONS, mock.getCalls("OlapConnection.createStatement"));
+		assertEquals(0, mock.getOpenStatements());
+		assertEquals(open, StatementManager.getOpenStatements());
+	}
+
+	public void testSnapshotReusesStatement() throws Exception {
+		query.setReuseStatements(true);
+		int open = StatementManager.getOpenStatements();
+		for (int i = 0; i < EXECUTIONS; i++) {
+			query.executeSnapshot();
+		}
+		assertEquals(1, mock.getCalls("OlapConnection.createStatement"));
+		assertEquals(1, mock.getOpenStatements());
+		assertEquals(open + 1, StatementManager.getOpenStatements());
+
+		StatementManager.closeStatement(mock.getConnection());
+		assertEquals(0, mock.getOpenStatements());
+		assertEquals(open, StatementManager.getOpenStatements());
+	}
+
+	public void testExecuteReusesStatement() throws Exception {
+		query.setReuseStatements(true);
+		CellSet previous = null;
+		for (int i = 0; i < EXECUTIONS; i++) {
+			CellSet cellSet = query.execute();
+			if (previous != null) {
+				assertTrue(previous.isClosed());
+				assertSame(previous.getStatement(), cellSet.getStatement());
+			}
+			previous = cellSet;
+		}
+		assertEquals(1, mock.getOpenStatements());
+
+		// a statement closed by the caller is replaced
+		previous.getStatement().close();
+		CellSet cellSet = query.execute();
+		assertNotSame(previous.getStatement(), cellSet.getStatement());
+		assertEquals(1, mock.getOpenStatements());
+	}
+
+	public void testExecuteLeavesStatementToCaller() throws Exception {
+		for (int i = 0; i < EXECUTIONS; i++) {
+			CellSet cellSet = query.execute();
+			OlapStatement statement = cellSet.getStatement();
+			assertFalse(statement.isClosed());
+			statement.close();
+		}
+		assertEquals(0, mock.getOpenStatements());
+	}
+
+	public void testExecuteClosesStatementOnRuntimeException() throws Exception {
+		int open = StatementManager.getOpenStatements();
+		query.setMetricsListener(new NoOpMetricsListener() {
+			@Override
+			public void phaseCompleted(Query query, QueryPhase phase, long nanos) {
+				if (phase == QueryPhase.EXECUTE) {
+					throw new IllegalStateException("listener failure");
+				}
+			}
+		});
+		try {
+			query.execute();
+			fail("listener failure expected");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(0, mock.getOpenStatements());
+		assertEquals(open, StatementManager.getOpenStatements());
+	}
+
+	public void testCatalogIsSetOnlyOnce() throws Exception {
+		// the constructor already selected the catalog
+		mock.resetCalls();
+		for (int i = 0; i < 10; i++) {
+			query.executeSnapshot();
+		}
+		assertEquals(0, mock.getCalls("OlapConnection.setCatalog"));
+	}
+}
@@ -0,0 +1,233 @@
+package org.saiku.query;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.Random;
+
+import org.olap4j.OlapConnection;
+import org.olap4j.metadata.Cube;
+
+/**
+ * Generates a Mondrian schema and an HSQLDB database of a cube with a
+ * configurable shape, for tests and benchmarks that need more than
+ * FoodMart. Unlike {@link MockCube} the generated cube can be executed.
+ *
+ * <p>The cube "Synthetic" has the dimensions "Dim0" to "DimN", each with an
+ * all level and the regular levels "Level1" to "LevelN". Every member has
+ * <code>childrenPerMember</code> children, so level <code>k</code> has
+ * <code>childrenPerMember^k</code> members named "M&lt;k&gt;-&lt;index&gt;".
+ * The measures are "Amount", "Quantity" and "Fact Count". The fact rows
+ * are random but the same for the same shape.
+ */
+public class SyntheticCube {
+
+	public static final String CUBE_NAME = "Synthetic";
+
+	private static final int BATCH_SIZE = 1000;
+
+	private final int dimensionCount;
+	private final int levelCount;
+	private final int childrenPerMember;
+	private final int factRowCount;
+	private final String name;
+
+	/**
+	 * @param dimensionCount the number of dimensions
+	 * @param levelCount the number of regular levels per hierarchy
+	 * @param childrenPerMember the number of children of every member,
+	 * and the number of members of the first level
+	 * @param factRowCount the number of rows of the fact table
+	 */
+	public SyntheticCube(int dimensionCount, int levelCount, int childrenPerMember, int factRowCount) {
+		if (dimensionCount < 1 || levelCount < 1 || childrenPerMember < 1 || factRowCount < 0) {
+			throw new IllegalArgumentException("Invalid cube shape");
+		}
+		this.dimensionCount = dimensionCount;
+		this.levelCount = levelCount;
+		this.childrenPerMember = childrenPerMember;
+		this.factRowCount = factRowCount;
+		this.name = "synthetic_" + dimensionCount + "_" + levelCount + "_" + childrenPerMember + "_" + factRowCount;
+	}
+
+	/**
+	 * @return the number of members of the given level
+	 */
+	public int getMemberCount(int level) {
+		long count = 1;
+		for (int i = 0; i < level; i++) {
+			count *= childrenPerMember;
+		}
+		if (count > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Too many members on level " + level);
+		}
+		return (int) count;
+	}
+
+	/**
+	 * @return the Mondrian schema of the cube
+	 */
+	public String getSchema() {
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\"?>\n");
+		xml.append("<Schema name=\"").append(CUBE_NAME).append("\">\n");
+		xml.append("  <Cube name=\"").append(CUBE_NAME).append("\">\n");
+		xml.append("    <Table name=\"fact\"/>\n");
+		for (int d = 0; d < dimensionCount; d++) {
+			xml.append("    <Dimension name=\"Dim").append(d).append("\" foreignKey=\"d").append(d).append("\">\n");
+			xml.append("      <Hierarchy hasAll=\"true\" primaryKey=\"id\">\n");
+			xml.append("        <Table name=\"dim_").append(d).append("\"/>\n");
+			for (int l = 1; l <= levelCount; l++) {
+				xml.append("        <Level name=\"Level").append(l).append("\" column=\"l").append(l)
+						.append("\" uniqueMembers=\"true\"/>\n");
+			}
+			xml.append("      </Hierarchy>\n");
+			xml.append("    </Dimension>\n");
+		}
+		xml.append("    <Measure name=\"Amount\" column=\"amount\" aggregator=\"sum\" formatString=\"#,##0.00\"/>\n");
+		xml.append("    <Measure name=\"Quantity\" column=\"quantity\" aggregator=\"sum\" formatString=\"#,##0\"/>\n");
+		xml.append("    <Measure name=\"Fact Count\" column=\"quantity\" aggregator=\"count\" formatString=\"#,##0\"/>\n");
+		xml.append("  </Cube>\n");
+		xml.append("</Schema>\n");
+		return xml.toString();
+	}
+
+	/**
+	 * Writes the schema and the database into the given directory,
+	 * replacing the files of an earlier run with the same shape.
+	 * @param directory the directory, created if it does not exist
+	 * @return the Mondrian connect string of the generated cube
+	 */
+	public String generate(File directory) throws IOException, SQLException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory);
+		}
+		File schema = new File(directory, name + ".xml");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(schema), "UTF-8");
+		try {
+			writer.write(getSchema());
+		} finally {
+			writer.close();
+		}
+		String jdbcUrl = "jdbc:hsqldb:file:" + new File(directory, name).getAbsolutePath();
+		try {
+			Class.forName("org.hsqldb.jdbcDriver");
+		} catch (ClassNotFoundException e) {
+			throw new SQLException("HSQLDB is not on the class path");
+		}
+		Connection connection = DriverManager.getConnection(jdbcUrl, "sa", "");
+		try {
+			connection.setAutoCommit(false);
+			createDimensions(connection);
+			createFacts(connection);
+			connection.commit();
+			execute(connection, "SHUTDOWN");
+		} finally {
+			connection.close();
+		}
+		return "jdbc:mondrian:Jdbc=" + jdbcUrl + ";JdbcUser=sa;JdbcPassword=;"
+				+ "JdbcDrivers=org.hsqldb.jdbcDriver;Catalog=" + schema.toURI() + ";";
+	}
+
+	/**
+	 * Generates the cube into the given directory and connects to it.
+	 * @param directory the directory, see {@link #generate(File)}
+	 * @return the connection
+	 */
+	public OlapConnection connect(File directory) throws Exception {
+		String url = generate(directory);
+		Class.forName("mondrian.olap4j.MondrianOlap4jDriver");
+		Connection connection = DriverManager.getConnection(url, new Properties());
+		return connection.unwrap(OlapConnection.class);
+	}
+
+	/**
+	 * @return the generated cube of the given connection
+	 */
+	public static Cube getCube(OlapConnection connection) throws Exception {
+		return connection.getOlapSchema().getCubes().get(CUBE_NAME);
+	}
+
+	private void createDimensions(Connection connection) throws SQLException {
+		int leafCount = getMemberCount(levelCount);
+		for (int d = 0; d < dimensionCount; d++) {
+			String table = "\"dim_" + d + "\"";
+			StringBuilder create = new StringBuilder("CREATE CACHED TABLE ").append(table).append(" (\"id\" INTEGER PRIMARY KEY");
+			StringBuilder insert = new StringBuilder("INSERT INTO ").append(table).append(" VALUES (?");
+			for (int l = 1; l <= levelCount; l++) {
+				create.append(", \"l").append(l).append("\" VARCHAR(30)");
+				insert.append(", ?");
+			}
+			execute(connection, "DROP TABLE " + table + " IF EXISTS");
+			execute(connection, create.append(")").toString());
+			PreparedStatement statement = connection.prepareStatement(insert.append(")").toString());
+			try {
+				for (int id = 0; id < leafCount; id++) {
+					statement.setInt(1, id);
+					// the ancestor of a leaf on level l
+					int divisor = leafCount;
+					for (int l = 1; l <= levelCount; l++) {
+						divisor /= childrenPerMember;
+						statement.setString(l + 1, "M" + l + "-" + (id / divisor));
+					}
+					statement.addBatch();
+					if (id % BATCH_SIZE == BATCH_SIZE - 1) {
+						statement.executeBatch();
+					}
+				}
+				statement.executeBatch();
+			} finally {
+				statement.close();
+			}
+		}
+	}
+
+	private void createFacts(Connection connection) throws SQLException {
+		int leafCount = getMemberCount(levelCount);
+		StringBuilder create = new StringBuilder("CREATE CACHED TABLE \"fact\" (");
+		StringBuilder insert = new StringBuilder("INSERT INTO \"fact\" VALUES (");
+		for (int d = 0; d < dimensionCount; d++) {
+			create.append("\"d").append(d).append("\" INTEGER, ");
+			insert.append("?, ");
+		}
+		create.append("\"amount\" DOUBLE, \"quantity\" INTEGER)");
+		insert.append("?, ?)");
+		execute(connection, "DROP TABLE \"fact\" IF EXISTS");
+		execute(connection, create.toString());
+		Random random = new Random(factRowCount);
+		PreparedStatement statement = connection.prepareStatement(insert.toString());
+		try {
+			for (int row = 0; row < factRowCount; row++) {
+				for (int d = 0; d < dimensionCount; d++) {
+					statement.setInt(d + 1, random.nextInt(leafCount));
+				}
+				statement.setDouble(dimensionCount + 1, random.nextInt(100000) / 100d);
+				statement.setInt(dimensionCount + 2, 1 + random.nextInt(10));
+				statement.addBatch();
+				if (row % BATCH_SIZE == BATCH_SIZE - 1) {
+					statement.executeBatch();
+				}
+			}
+			statement.executeBatch();
+		} finally {
+			statement.close();
+		}
+	}
+
+	private static void execute(Connection connection, String sql) throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			statement.execute(sql);
+		} finally {
+			statement.close();
+		}
+	}
+}
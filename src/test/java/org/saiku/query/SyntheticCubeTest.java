@@ -0,0 +1,94 @@
+package org.saiku.query;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+
+import org.olap4j.Axis;
+import org.olap4j.CellSet;
+import org.olap4j.OlapConnection;
+import org.olap4j.metadata.Cube;
+import org.w3c.dom.Document;
+
+public class SyntheticCubeTest extends TestCase {
+
+	public void testSchema() throws Exception {
+		SyntheticCube synthetic = new SyntheticCube(3, 4, 5, 10);
+		Document schema = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.parse(new ByteArrayInputStream(synthetic.getSchema().getBytes("UTF-8")));
+		assertEquals(3, schema.getElementsByTagName("Dimension").getLength());
+		assertEquals(12, schema.getElementsByTagName("Level").getLength());
+		assertEquals(3, schema.getElementsByTagName("Measure").getLength());
+		assertEquals(5, synthetic.getMemberCount(1));
+		assertEquals(625, synthetic.getMemberCount(4));
+		try {
+			new SyntheticCube(0, 1, 1, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/*
+	 * Needs Mondrian and HSQLDB, like the FoodMart tests.
+	 */
+	public void testScaling() throws Exception {
+		File directory = File.createTempFile("synthetic", "");
+		directory.delete();
+		int[][] shapes = { { 4, 2, 10, 5000 }, { 16, 3, 6, 5000 } };
+		try {
+			for (int[] shape : shapes) {
+				scale(directory, shape);
+			}
+		} finally {
+			File[] files = directory.listFiles();
+			for (int i = 0; files != null && i < files.length; i++) {
+				files[i].delete();
+			}
+			directory.delete();
+		}
+	}
+
+	private static void scale(File directory, int[] shape) throws Exception {
+		SyntheticCube synthetic = new SyntheticCube(shape[0], shape[1], shape[2], shape[3]);
+		long start = System.nanoTime();
+		OlapConnection connection = synthetic.connect(directory);
+		long generate = System.nanoTime() - start;
+		try {
+			Cube cube = SyntheticCube.getCube(connection);
+			assertEquals(shape[0] + 1, cube.getHierarchies().size());
+
+			start = System.nanoTime();
+			Query query = new Query("synthetic", cube);
+			query.getHierarchy("Dim0").includeLevel("Level1");
+			query.moveHierarchy(query.getHierarchy("Dim0"), Axis.COLUMNS);
+			query.getHierarchy("Dim1").includeLevel("Level2");
+			query.moveHierarchy(query.getHierarchy("Dim1"), Axis.ROWS);
+			query.getDetails().add(query.getMeasure("Amount"));
+			long construct = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			query.getMdx();
+			long compile = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			CellSet cellSet = query.execute();
+			long execute = System.nanoTime() - start;
+			assertEquals(synthetic.getMemberCount(1), cellSet.getAxes().get(0).getPositionCount());
+			assertEquals(synthetic.getMemberCount(2), cellSet.getAxes().get(1).getPositionCount());
+			cellSet.getStatement().close();
+
+			if (TestContext.DEBUG) {
+				System.out.println(shape[0] + " dimensions, " + shape[1] + " levels, " + shape[2]
+						+ " children, " + shape[3] + " rows: generate " + (generate / 1000000)
+						+ " ms, construct " + (construct / 1000) + " us, compile " + (compile / 1000)
+						+ " us, execute " + (execute / 1000000) + " ms");
+			}
+		} finally {
+			connection.close();
+		}
+	}
+}
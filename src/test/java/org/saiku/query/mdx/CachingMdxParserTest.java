@@ -0,0 +1,60 @@
+package org.saiku.query.mdx;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.olap4j.mdx.CallNode;
+import org.olap4j.mdx.ParseTreeNode;
+import org.olap4j.mdx.parser.MdxParser;
+
+public class CachingMdxParserTest extends TestCase {
+
+	@Override
+	protected void setUp() throws Exception {
+		CachingMdxParser.clear();
+		CachingMdxParser.getStatistics().reset();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		CachingMdxParser.setMaximumSize(CachingMdxParser.DEFAULT_MAXIMUM_SIZE);
+	}
+
+	public void testCachedExpression() {
+		MdxParser parser = new CachingMdxParser();
+		String formula = "[Measures].[Unit Sales] * 2";
+		ParseTreeNode first = parser.parseExpression(formula);
+		ParseTreeNode second = new CachingMdxParser().parseExpression(formula);
+		assertEquals(1, CachingMdxParser.getStatistics().getMisses());
+		assertEquals(1, CachingMdxParser.getStatistics().getHits());
+		assertNotSame(first, second);
+		assertEquals(first.toString(), second.toString());
+
+		// modifying a returned tree must not change the cached one
+		((CallNode) first).getArgList().clear();
+		assertEquals(second.toString(), parser.parseExpression(formula).toString());
+	}
+
+	public void testFilterArguments() {
+		MdxParser parser = new CachingMdxParser();
+		GenericFilter filter = new GenericFilter("[Measures].[Unit Sales] > 1");
+		List<ParseTreeNode> args = filter.getArguments(parser);
+		List<ParseTreeNode> cachedArgs = filter.getArguments(parser);
+		assertEquals(args.get(0).toString(), cachedArgs.get(0).toString());
+		assertEquals(1, CachingMdxParser.getStatistics().getHits());
+	}
+
+	public void testBounded() {
+		CachingMdxParser.setMaximumSize(2);
+		MdxParser parser = new CachingMdxParser();
+		parser.parseExpression("1");
+		parser.parseExpression("2");
+		parser.parseExpression("1");
+		parser.parseExpression("3");
+		assertEquals(2, CachingMdxParser.size());
+		// "2" was the least recently used expression
+		parser.parseExpression("2");
+		assertEquals(4, CachingMdxParser.getStatistics().getMisses());
+	}
+}
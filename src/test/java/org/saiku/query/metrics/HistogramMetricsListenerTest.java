@@ -0,0 +1,80 @@
+package org.saiku.query.metrics;
+
+import java.io.StringWriter;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.olap4j.Axis;
+import org.saiku.query.MockCube;
+import org.saiku.query.Query;
+
+public class HistogramMetricsListenerTest extends TestCase {
+
+	public void testHistogram() {
+		Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getPercentile(50));
+		assertEquals(0, histogram.getMin());
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(5050, histogram.getSum());
+		assertEquals(1, histogram.getMin());
+		assertEquals(100, histogram.getMax());
+		assertEquals(50.5d, histogram.getMean(), 0.001d);
+		// 50 is counted by the bucket of 32..63
+		assertEquals(63, histogram.getPercentile(50));
+		assertEquals(100, histogram.getPercentile(99));
+		assertEquals(1, histogram.getPercentile(1));
+		assertEquals(0, Histogram.bucketOf(0));
+		assertEquals(1, Histogram.bucketOf(1));
+		assertEquals(7, Histogram.bucketOf(100));
+		assertEquals(Long.MAX_VALUE, Histogram.upperBound(Histogram.bucketOf(Long.MAX_VALUE)));
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+	}
+
+	public void testQueryPhases() throws Exception {
+		MockCube mock = new MockCube(3, 2, 5);
+		Query query = new Query("metrics", mock.getCube());
+		query.getHierarchy("Dim0").includeLevel("Level1");
+		query.moveHierarchy(query.getHierarchy("Dim0"), Axis.COLUMNS);
+		query.getHierarchy("Dim1").includeLevel("Level1");
+		query.moveHierarchy(query.getHierarchy("Dim1"), Axis.ROWS);
+		query.getHierarchy("Dim2").includeLevel("Level1");
+		query.moveHierarchy(query.getHierarchy("Dim2"), Axis.ROWS);
+		HistogramMetricsListener listener = new HistogramMetricsListener();
+		query.setMetricsListener(listener);
+
+		query.executeSnapshot();
+		for (QueryPhase phase : QueryPhase.values()) {
+			assertEquals(phase.name(), 1, listener.getPhase(phase).getCount());
+		}
+		assertEquals(query.getMdx().length(), listener.getMdxLengths().getMax());
+		assertEquals(2, listener.getAxisCounts().getMax());
+		// one set per hierarchy on rows, one for the columns
+		assertEquals(3, listener.getWithSetCounts().getMax());
+		assertEquals(0, listener.getWithMemberCounts().getMax());
+
+		// cached MDX is not reported again
+		query.getMdx();
+		query.writeMdx(new StringWriter());
+		assertEquals(1, listener.getPhase(QueryPhase.UNPARSE).getCount());
+		query.markModified();
+		StringWriter writer = new StringWriter();
+		query.writeMdx(writer);
+		assertEquals(2, listener.getPhase(QueryPhase.COMPILE).getCount());
+		assertEquals(writer.toString().length(), listener.getMdxLengths().getMin());
+
+		query.prepare().getMdx(Collections.<String, String>emptyMap());
+		assertEquals(3, listener.getPhase(QueryPhase.UNPARSE).getCount());
+
+		query.setMetricsListener(null);
+		query.markModified();
+		query.getMdx();
+		assertEquals(3, listener.getPhase(QueryPhase.UNPARSE).getCount());
+	}
+}
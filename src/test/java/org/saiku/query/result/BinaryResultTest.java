@@ -0,0 +1,147 @@
+package org.saiku.query.result;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import junit.framework.TestCase;
+
+import org.saiku.query.MockCellSet;
+import org.saiku.query.MockCube;
+
+public class BinaryResultTest extends TestCase {
+
+	private final MockCube cube = new MockCube(3, 2, 10);
+
+	public void testRoundTrip() throws Exception {
+		// enough cells for the values to span several buffers
+		ColumnarSnapshot snapshot = new ColumnarSnapshot(MockCellSet.create(cube, 30, 700).getCellSet());
+		byte[] bytes = write(snapshot);
+		assertEquals("SQRB", new String(bytes, 0, 4, "US-ASCII"));
+
+		ColumnarSnapshot read = BinaryResultReader.read(Channels.newChannel(new ByteArrayInputStream(bytes)));
+		assertEquals(snapshot.getAxisCount(), read.getAxisCount());
+		assertEquals(snapshot.getMemberCount(), read.getMemberCount());
+		for (int i = 0; i < snapshot.getAxisCount(); i++) {
+			assertEquals(snapshot.getAxisOrdinal(i), read.getAxisOrdinal(i));
+			assertEquals(snapshot.getPositionCount(i), read.getPositionCount(i));
+			for (int p = 0; p < snapshot.getPositionCount(i); p++) {
+				assertEquals(snapshot.getMemberId(i, p, 0), read.getMemberId(i, p, 0));
+			}
+		}
+		ResultMember member = read.getMember(3);
+		assertEquals(snapshot.getMember(3).getUniqueName(), member.getUniqueName());
+		assertEquals(snapshot.getMember(3).getLevelUniqueName(), member.getLevelUniqueName());
+		assertEquals(snapshot.getMember(3).getDepth(), member.getDepth());
+		assertEquals(snapshot.getCellCount(), read.getCellCount());
+		for (int i = 0; i < snapshot.getCellCount(); i++) {
+			assertEquals(snapshot.getValue(i), read.getValue(i));
+		}
+	}
+
+	public void testSpilledSameBytes() throws Exception {
+		MockCellSet cellSet = MockCellSet.create(cube, 30, 700);
+		SpilledSnapshot spilled = new SpilledSnapshot(cellSet.getCellSet(), null);
+		try {
+			byte[] expected = write(new ColumnarSnapshot(cellSet.getCellSet()));
+			byte[] bytes = write(spilled);
+			assertEquals(expected.length, bytes.length);
+			for (int i = 0; i < bytes.length; i++) {
+				assertEquals("byte " + i, expected[i], bytes[i]);
+			}
+		} finally {
+			spilled.close();
+		}
+	}
+
+	public void testTruncated() throws Exception {
+		byte[] bytes = write(new ColumnarSnapshot(MockCellSet.create(cube, 3, 4).getCellSet()));
+		try {
+			BinaryResultReader.read(Channels.newChannel(new ByteArrayInputStream(bytes, 0, bytes.length - 1)));
+			fail("expected end of stream");
+		} catch (IOException e) {
+			// expected
+		}
+		bytes[0] = 'X';
+		try {
+			BinaryResultReader.read(Channels.newChannel(new ByteArrayInputStream(bytes)));
+			fail("expected wrong magic");
+		} catch (IOException e) {
+			assertEquals("Not a binary result", e.getMessage());
+		}
+	}
+
+	public void testCorruptedHeader() throws Exception {
+		// 3 columns and 4 rows of one member each, offsets as in BinaryResultWriter
+		byte[] bytes = write(new ColumnarSnapshot(MockCellSet.create(cube, 3, 4).getCellSet()));
+		int firstMemberId = bytes.length - 4 - 2 - 12 * 8 - 4 - 7 * 4;
+		assertCorrupted(corrupt(bytes, 8, -1), "Invalid axis count: -1");
+		assertCorrupted(corrupt(bytes, 8, Integer.MAX_VALUE), "Invalid axis count");
+		assertCorrupted(corrupt(bytes, 12, 500), "Invalid axis ordinal: 500");
+		assertCorrupted(corrupt(bytes, 12, -2), "Invalid axis ordinal: -2");
+		assertCorrupted(corrupt(bytes, 16, -3), "Invalid size of axis 0");
+		assertCorrupted(corrupt(corrupt(bytes, 16, 65536), 20, 65536), "Axis 0 is too large");
+		assertCorrupted(corrupt(corrupt(bytes, 16, 65536), 28, 65536), "Axis 1 is too large");
+		assertCorrupted(corrupt(bytes, 36, -1), "Invalid member count: -1");
+		assertCorrupted(corrupt(bytes, 36, Integer.MAX_VALUE), "Unexpected end of binary result");
+		assertCorrupted(corrupt(bytes, 40, -5), "Invalid string length: -5");
+		assertCorrupted(corrupt(bytes, 40, Integer.MAX_VALUE), "Unexpected end of binary result");
+		assertCorrupted(corrupt(bytes, firstMemberId, -1), "Invalid member id on axis 0: -1");
+		assertCorrupted(corrupt(bytes, firstMemberId, 7), "Invalid member id on axis 0: 7");
+		assertCorrupted(corrupt(bytes, bytes.length - 4, 13), "Invalid number of non-numeric values: 13");
+
+		// one non-numeric value for a cell that does not exist
+		ByteBuffer other = ByteBuffer.allocate(bytes.length + 8).order(ByteOrder.LITTLE_ENDIAN);
+		other.put(bytes).putInt(12).putInt(-1);
+		assertCorrupted(corrupt(other.array(), bytes.length - 4, 1), "Invalid cell ordinal of a non-numeric value: 12");
+
+		// more cells than the file holds
+		File file = File.createTempFile("saiku-binary", ".sqrb");
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			out.write(corrupt(corrupt(bytes, 16, 1000), 28, 1000));
+			out.close();
+			FileInputStream in = new FileInputStream(file);
+			try {
+				assertCorrupted(in.getChannel(), "more bytes");
+			} finally {
+				in.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static byte[] corrupt(byte[] bytes, int offset, int value) {
+		byte[] copy = bytes.clone();
+		ByteBuffer.wrap(copy).order(ByteOrder.LITTLE_ENDIAN).putInt(offset, value);
+		return copy;
+	}
+
+	private static void assertCorrupted(byte[] bytes, String message) {
+		assertCorrupted(Channels.newChannel(new ByteArrayInputStream(bytes)), message);
+	}
+
+	private static void assertCorrupted(ReadableByteChannel channel, String message) {
+		try {
+			BinaryResultReader.read(channel);
+			fail("expected a corrupted result: " + message);
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(message));
+		}
+	}
+
+	private static byte[] write(ColumnarResult result) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long written = BinaryResultWriter.write(result, Channels.newChannel(out));
+		assertEquals(out.size(), written);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,114 @@
+package org.saiku.query.result;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.olap4j.metadata.Member;
+import org.saiku.query.MockCellSet;
+import org.saiku.query.MockCube;
+
+public class CellStreamTest extends TestCase {
+
+	private final MockCube cube = new MockCube(3, 2, 10);
+
+	public void testRowMajorOrder() {
+		MockCellSet cellSet = MockCellSet.create(cube, 3, 4);
+		RecordingConsumer consumer = new RecordingConsumer();
+		assertEquals(12, CellStream.stream(cellSet.getCellSet(), consumer));
+		assertEquals("start 3x4", consumer.events.get(0));
+		assertEquals("column 2 [Dim0].[M1-2]", consumer.events.get(3));
+		assertEquals("row 0 [Dim1].[M1-0]", consumer.events.get(4));
+		assertEquals("0,0 0.0 #0", consumer.events.get(5));
+		assertEquals("0,1 1.0 #1", consumer.events.get(6));
+		assertEquals("row 3 [Dim1].[M1-3]", consumer.events.get(4 + 3 * 4));
+		// ordinal 9 is empty, 10 is row 3 column 1
+		assertEquals("3,0 empty", consumer.events.get(5 + 3 * 4));
+		assertEquals("3,1 10.0 #10", consumer.events.get(6 + 3 * 4));
+		assertEquals("end", consumer.events.get(consumer.events.size() - 1));
+		assertEquals(12, cellSet.getCellsRead());
+	}
+
+	public void testSingleAxis() {
+		List<List<Member>> columns = new ArrayList<List<Member>>();
+		for (Member m : cube.getMembers(cube.getCube().getHierarchies().get("Dim0"), 1).subList(0, 2)) {
+			columns.add(Collections.singletonList(m));
+		}
+		RecordingConsumer consumer = new RecordingConsumer();
+		assertEquals(2, CellStream.stream(new MockCellSet(columns, null).getCellSet(), consumer));
+		assertEquals("start 2x1", consumer.events.get(0));
+		assertEquals("row 0 ", consumer.events.get(3));
+		assertEquals("0,1 1.0 #1", consumer.events.get(5));
+	}
+
+	public void testEmptyRows() {
+		List<List<Member>> columns = new ArrayList<List<Member>>();
+		columns.add(Collections.singletonList(cube.getMembers(cube.getCube().getHierarchies().get("Dim0"), 1).get(0)));
+		RecordingConsumer consumer = new RecordingConsumer();
+		List<List<Member>> rows = Collections.emptyList();
+		assertEquals(0, CellStream.stream(new MockCellSet(columns, rows).getCellSet(), consumer));
+		assertEquals("[start 1x0, column 0 [Dim0].[M1-0], end]", consumer.events.toString());
+	}
+
+	public void testOriginalValues() {
+		MockCellSet cellSet = MockCellSet.create(cube, 3, 1);
+		final BigDecimal amount = new BigDecimal("1234567890.12");
+		final Long count = Long.valueOf(12345678901234567L);
+		cellSet.setValue(0, amount);
+		cellSet.setValue(1, count);
+		cellSet.setValue(2, "n/a");
+		final List<Object> values = new ArrayList<Object>();
+		CellStream.stream(cellSet.getCellSet(), new RecordingConsumer() {
+			@Override
+			public void cell(StreamedCell cell) {
+				values.add(cell.getValue());
+				if (cell.getOrdinal() == 1) {
+					assertEquals(1.2345678901234568E16, cell.getDoubleValue());
+				}
+			}
+		});
+		assertSame(amount, values.get(0));
+		assertSame(count, values.get(1));
+		assertEquals("n/a", values.get(2));
+	}
+
+	private static class RecordingConsumer implements CellConsumer {
+		private final List<String> events = new ArrayList<String>();
+		private StreamedCell previous;
+
+		public void start(int columnCount, int rowCount) {
+			events.add("start " + columnCount + "x" + rowCount);
+		}
+
+		public void column(int column, List<Member> members) {
+			events.add("column " + column + " " + names(members));
+		}
+
+		public void row(int row, List<Member> members) {
+			events.add("row " + row + " " + names(members));
+		}
+
+		public void cell(StreamedCell cell) {
+			assertTrue(previous == null || previous == cell);
+			previous = cell;
+			String position = cell.getRow() + "," + cell.getColumn();
+			events.add(position + " " + (cell.isEmpty() ? "empty"
+					: cell.getDoubleValue() + " " + cell.getFormattedValue()));
+		}
+
+		public void end() {
+			events.add("end");
+		}
+
+		private static String names(List<Member> members) {
+			StringBuilder sb = new StringBuilder();
+			for (Member m : members) {
+				sb.append(m.getUniqueName());
+			}
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package org.saiku.query.result;
+
+import junit.framework.TestCase;
+
+import org.olap4j.Axis;
+import org.saiku.query.MockCellSet;
+import org.saiku.query.MockCube;
+
+public class ColumnarSnapshotTest extends TestCase {
+
+	private final MockCube cube = new MockCube(3, 2, 10);
+
+	public void testSameAsSnapshot() {
+		MockCellSet cellSet = MockCellSet.create(cube, 30, 70);
+		ResultSnapshot expected = new ResultSnapshot(cellSet.getCellSet());
+		ColumnarSnapshot snapshot = new ColumnarSnapshot(cellSet.getCellSet(), true);
+		assertEquals(expected.getCellCount(), snapshot.getCellCount());
+		assertEquals(2, snapshot.getAxisCount());
+		assertEquals(Axis.ROWS, snapshot.getAxisOrdinal(1));
+		for (int i = 0; i < snapshot.getAxisCount(); i++) {
+			ResultAxis axis = expected.getAxes().get(i);
+			assertEquals(axis.getPositionCount(), snapshot.getPositionCount(i));
+			assertEquals(1, snapshot.getTupleSize(i));
+			for (int p = 0; p < axis.getPositionCount(); p++) {
+				assertSame(axis.getMembers(p).get(0).getUniqueName(),
+						snapshot.getMembers(i, p).get(0).getUniqueName());
+			}
+		}
+		for (int i = 0; i < snapshot.getCellCount(); i++) {
+			assertEquals(expected.isNull(i), snapshot.isNull(i));
+			assertEquals(expected.getValue(i), snapshot.getValue(i));
+			assertEquals(expected.getFormattedValue(i), snapshot.getFormattedValue(i));
+		}
+		assertEquals(snapshot.getOrdinal(29, 69), expected.getOrdinal(29, 69));
+	}
+
+	public void testDictionary() {
+		// the level has 10 members, positions repeat them
+		ColumnarSnapshot snapshot = new ColumnarSnapshot(MockCellSet.create(cube, 25, 3).getCellSet());
+		assertEquals(10 + 3, snapshot.getMemberCount());
+		assertEquals(snapshot.getMemberId(0, 2, 0), snapshot.getMemberId(0, 12, 0));
+		assertEquals("[Dim0].[M1-2]", snapshot.getMember(snapshot.getMemberId(0, 22, 0)).getUniqueName());
+		assertFalse(snapshot.hasFormattedValues());
+		assertNull(snapshot.getFormattedValue(0));
+		assertTrue(snapshot.isNull(9));
+		assertFalse(snapshot.isNumeric(9));
+		assertEquals(74d, snapshot.getDoubleValue(74), 0d);
+		try {
+			snapshot.isNull(75);
+			fail("expected out of range");
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+	}
+}
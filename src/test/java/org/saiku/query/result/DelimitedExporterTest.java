@@ -0,0 +1,111 @@
+package org.saiku.query.result;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+
+import junit.framework.TestCase;
+
+import org.olap4j.Axis;
+import org.saiku.query.MockCube;
+import org.saiku.query.Query;
+import org.saiku.query.result.DelimitedExporter.Format;
+
+public class DelimitedExporterTest extends TestCase {
+
+	private final MockCube cube = new MockCube(2, 2, 10);
+
+	public void testCsv() throws Exception {
+		cube.setResultSize(3, 4);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(4, new DelimitedExporter(Format.CSV).export(query(), out));
+		// rows hold members of Level1 only, every tenth cell is empty
+		assertEquals(
+				"Level1,Level2,M1-0,M1-1,M1-2\r\n"
+				+ "M1-0,,0,1,2\r\n"
+				+ "M1-1,,3,4,5\r\n"
+				+ "M1-2,,6,7,8\r\n"
+				+ "M1-3,,,10,11\r\n",
+				out.toString("UTF-8"));
+		assertEquals(0, cube.getOpenStatements());
+	}
+
+	public void testTsvFormatted() throws Exception {
+		cube.setResultSize(2, 1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DelimitedExporter exporter = new DelimitedExporter(Format.TSV);
+		exporter.setFormattedValues(true);
+		exporter.export(query(), out);
+		assertEquals("Level1\tLevel2\tM1-0\tM1-1\nM1-0\t\t#0\t#1\n", out.toString("UTF-8"));
+	}
+
+	public void testExactNumbers() throws Exception {
+		cube.setResultSize(3, 1);
+		cube.setCellValue(0, new BigDecimal("12345678901234567.10"));
+		cube.setCellValue(1, new BigDecimal("1E+3"));
+		cube.setCellValue(2, Long.valueOf(12345678901234567L));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new DelimitedExporter(Format.CSV).export(query(), out);
+		assertEquals(
+				"Level1,Level2,M1-0,M1-1,M1-2\r\n"
+				+ "M1-0,,12345678901234567.10,1000,12345678901234567\r\n",
+				out.toString("UTF-8"));
+	}
+
+	public void testQuoting() throws Exception {
+		cube.setResultSize(3, 1);
+		cube.setCaption("[Dim0].[M1-0]", "a,b");
+		cube.setCaption("[Dim0].[M1-1]", "say \"hi\"");
+		cube.setCaption("[Dim1].[M1-0]", "two\r\nlines\tand a tab");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new DelimitedExporter(Format.CSV).export(query(), out);
+		assertEquals(
+				"Level1,Level2,\"a,b\",\"say \"\"hi\"\"\",M1-2\r\n"
+				+ "\"two\r\nlines\tand a tab\",,0,1,2\r\n",
+				out.toString("UTF-8"));
+
+		out.reset();
+		new DelimitedExporter(Format.TSV).export(query(), out);
+		assertEquals(
+				"Level1\tLevel2\ta,b\tsay \"hi\"\tM1-2\n"
+				+ "two  lines and a tab\t\t0\t1\t2\n",
+				out.toString("UTF-8"));
+	}
+
+	public void testEmptyRows() throws Exception {
+		cube.setResultSize(2, 0);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(0, new DelimitedExporter(Format.CSV).export(query(), out));
+		assertEquals("Level1,Level2,M1-0,M1-1\r\n", out.toString("UTF-8"));
+		assertEquals(0, cube.getOpenStatements());
+	}
+
+	public void testWriteFailure() throws Exception {
+		cube.setResultSize(100, 10000);
+		OutputStream failing = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("disk full");
+			}
+		};
+		try {
+			new DelimitedExporter(Format.CSV).export(query(), failing);
+			fail("expected the write to fail");
+		} catch (IOException e) {
+			assertEquals("disk full", e.getMessage());
+		}
+		assertEquals(0, cube.getOpenStatements());
+	}
+
+	private Query query() throws Exception {
+		Query query = new Query("export", cube.getCube());
+		query.getHierarchy("Dim0").includeLevel("Level1");
+		query.moveHierarchy(query.getHierarchy("Dim0"), Axis.COLUMNS);
+		query.getHierarchy("Dim1").includeLevel("Level1");
+		query.getHierarchy("Dim1").includeLevel("Level2");
+		query.moveHierarchy(query.getHierarchy("Dim1"), Axis.ROWS);
+		return query;
+	}
+}
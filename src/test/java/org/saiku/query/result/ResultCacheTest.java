@@ -0,0 +1,85 @@
+package org.saiku.query.result;
+
+import junit.framework.TestCase;
+
+import org.saiku.query.MockCellSet;
+import org.saiku.query.MockCube;
+
+public class ResultCacheTest extends TestCase {
+
+	private final MockCube cube = new MockCube(3, 2, 10);
+
+	public void testSnapshot() {
+		MockCellSet cellSet = MockCellSet.create(cube, 3, 4);
+		ResultSnapshot snapshot = new ResultSnapshot(cellSet.getCellSet());
+		assertEquals(12, snapshot.getCellCount());
+		assertEquals(2, snapshot.getAxes().size());
+		assertEquals(4, snapshot.getAxes().get(1).getPositionCount());
+		assertEquals("[Dim1].[M1-2]", snapshot.getAxes().get(1).getMembers(2).get(0).getUniqueName());
+		int ordinal = snapshot.getOrdinal(1, 3);
+		assertEquals(10, ordinal);
+		assertEquals(MockCellSet.valueOf(10), snapshot.getValue(ordinal));
+		assertTrue(snapshot.isNull(9));
+		assertEquals("#10", snapshot.getFormattedValue(ordinal));
+	}
+
+	public void testTooManyCells() {
+		MockCellSet cellSet = MockCellSet.create(cube, 65536, 65536);
+		try {
+			new ResultSnapshot(cellSet.getCellSet());
+			fail("overflow expected");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("4294967296"));
+		}
+	}
+
+	public void testHitsAndNormalization() {
+		ResultCache cache = new ResultCache();
+		ResultSnapshot snapshot = new ResultSnapshot(MockCellSet.create(cube, 2, 2).getCellSet());
+		cache.put("SELECT  [Dim0].[A  B] ON COLUMNS\nFROM [Mock]", "catalog", null, snapshot);
+		assertSame(snapshot, cache.get("SELECT [Dim0].[A  B] ON COLUMNS FROM [Mock]", "catalog", null));
+		assertNull(cache.get("SELECT [Dim0].[A B] ON COLUMNS FROM [Mock]", "catalog", null));
+		assertNull(cache.get("SELECT [Dim0].[A  B] ON COLUMNS FROM [Mock]", "catalog", "role"));
+		assertEquals(1, cache.getStatistics().getHits());
+		assertEquals(2, cache.getStatistics().getMisses());
+	}
+
+	public void testEvictionByCells() {
+		ResultCache cache = new ResultCache(10, 0);
+		cache.put("a", "c", null, new ResultSnapshot(MockCellSet.create(cube, 2, 2).getCellSet()));
+		cache.put("b", "c", null, new ResultSnapshot(MockCellSet.create(cube, 2, 2).getCellSet()));
+		assertNotNull(cache.get("a", "c", null));
+		cache.put("c", "c", null, new ResultSnapshot(MockCellSet.create(cube, 2, 2).getCellSet()));
+		// b was the least recently used entry
+		assertNull(cache.get("b", "c", null));
+		assertNotNull(cache.get("a", "c", null));
+		assertEquals(8, cache.getCellCount());
+
+		cache.put("big", "c", null, new ResultSnapshot(MockCellSet.create(cube, 4, 4).getCellSet()));
+		assertNull(cache.get("big", "c", null));
+		assertEquals(2, cache.size());
+	}
+
+	public void testTimeToLive() throws Exception {
+		ResultCache cache = new ResultCache(100, 1);
+		cache.put("a", "c", null, new ResultSnapshot(MockCellSet.create(cube, 2, 2).getCellSet()));
+		Thread.sleep(10);
+		assertNull(cache.get("a", "c", null));
+		assertEquals(0, cache.getCellCount());
+	}
+
+	public void testExpiredEntriesAreRemovedBeforeEviction() throws Exception {
+		ResultCache cache = new ResultCache(10, 500);
+		cache.put("a", "c", null, new ResultSnapshot(MockCellSet.create(cube, 2, 2).getCellSet()));
+		Thread.sleep(300);
+		cache.put("b", "c", null, new ResultSnapshot(MockCellSet.create(cube, 2, 2).getCellSet()));
+		// a is now the most recently used entry, but expires first
+		assertNotNull(cache.get("a", "c", null));
+		Thread.sleep(300);
+		cache.put("c", "c", null, new ResultSnapshot(MockCellSet.create(cube, 2, 2).getCellSet()));
+		assertEquals(2, cache.size());
+		assertEquals(8, cache.getCellCount());
+		assertNotNull(cache.get("b", "c", null));
+		assertNotNull(cache.get("c", "c", null));
+	}
+}
@@ -0,0 +1,56 @@
+package org.saiku.query.result;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.saiku.query.MockCellSet;
+import org.saiku.query.MockCube;
+
+public class SpilledSnapshotTest extends TestCase {
+
+	private final MockCube cube = new MockCube(3, 2, 10);
+
+	public void testSameAsColumnar() throws Exception {
+		MockCellSet cellSet = MockCellSet.create(cube, 30, 70);
+		ColumnarSnapshot expected = new ColumnarSnapshot(cellSet.getCellSet());
+		SpilledSnapshot spilled = new SpilledSnapshot(cellSet.getCellSet(), null);
+		try {
+			assertTrue(spilled.getFile().exists());
+			assertEquals(spilled.getFileSize(), spilled.getFile().length());
+			assertEquals(expected.getCellCount(), spilled.getCellCount());
+			assertEquals(expected.getMemberCount(), spilled.getMemberCount());
+			for (int i = 0; i < spilled.getAxisCount(); i++) {
+				for (int p = 0; p < spilled.getPositionCount(i); p++) {
+					assertEquals(expected.getMemberId(i, p, 0), spilled.getMemberId(i, p, 0));
+				}
+			}
+			for (int i = 0; i < spilled.getCellCount(); i++) {
+				assertEquals(expected.isNull(i), spilled.isNull(i));
+				assertEquals(expected.getValue(i), spilled.getValue(i));
+			}
+			assertEquals("[Dim1].[M1-3]", spilled.getMembers(1, 13).get(0).getUniqueName());
+		} finally {
+			spilled.close();
+		}
+		assertFalse(spilled.getFile().exists());
+	}
+
+	public void testHeapBudget() throws Exception {
+		MockCellSet cellSet = MockCellSet.create(cube, 10, 10);
+		long heap = SpillStore.estimateHeap(cellSet.getCellSet());
+		// 100 doubles, 2 words of bitmap and 20 member ids
+		assertEquals(800 + 16 + 80, heap);
+		File directory = new File(System.getProperty("java.io.tmpdir"));
+		ColumnarResult result = new SpillStore(directory, heap).copy(cellSet.getCellSet());
+		assertTrue(result instanceof ColumnarSnapshot);
+		result = new SpillStore(directory, heap - 1).copy(cellSet.getCellSet());
+		try {
+			assertTrue(result instanceof SpilledSnapshot);
+			assertEquals(directory, ((SpilledSnapshot) result).getFile().getParentFile());
+			assertEquals(98d, result.getDoubleValue(98), 0d);
+		} finally {
+			result.close();
+		}
+	}
+}
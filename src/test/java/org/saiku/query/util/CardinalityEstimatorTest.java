@@ -0,0 +1,91 @@
+package org.saiku.query.util;
+
+import junit.framework.TestCase;
+
+import org.olap4j.Axis;
+import org.olap4j.metadata.Member;
+import org.saiku.query.CardinalityExceededException;
+import org.saiku.query.CardinalityGuard;
+import org.saiku.query.MockCube;
+import org.saiku.query.Query;
+import org.saiku.query.QueryHierarchy;
+import org.saiku.query.mdx.IFilterFunction.MdxFunctionType;
+import org.saiku.query.mdx.NFilter;
+
+public class CardinalityEstimatorTest extends TestCase {
+
+	private MockCube mock;
+	private Query query;
+
+	@Override
+	protected void setUp() throws Exception {
+		mock = new MockCube(4, 2, 100);
+		query = new Query("cardinality", mock.getCube());
+		QueryHierarchy dim0 = query.getHierarchy("Dim0");
+		dim0.includeLevel("Level1");
+		dim0.includeLevel("Level2");
+		query.moveHierarchy(dim0, Axis.ROWS);
+		QueryHierarchy dim1 = query.getHierarchy("Dim1");
+		dim1.includeLevel("Level1");
+		query.moveHierarchy(dim1, Axis.ROWS);
+		QueryHierarchy dim2 = query.getHierarchy("Dim2");
+		for (Member m : mock.getMembers(dim2.getHierarchy(), 1).subList(0, 5)) {
+			dim2.includeMember(m);
+		}
+		query.moveHierarchy(dim2, Axis.COLUMNS);
+		query.getDetails().add(query.getMeasure("Sales"));
+		query.getDetails().add(query.getMeasure("Count"));
+	}
+
+	public void testEstimate() throws Exception {
+		assertEquals(200 * 100, query.getEstimatedCardinality(Axis.ROWS));
+		assertEquals(5 * 2, query.getEstimatedCardinality(Axis.COLUMNS));
+		assertEquals(0, query.getEstimatedCardinality(Axis.FILTER));
+
+		QueryHierarchy dim1 = query.getHierarchy("Dim1");
+		for (Member m : mock.getMembers(dim1.getHierarchy(), 1).subList(0, 10)) {
+			dim1.excludeMember(m);
+		}
+		assertEquals(200 * 90, query.getEstimatedCardinality(Axis.ROWS));
+
+		QueryHierarchy dim0 = query.getHierarchy("Dim0");
+		query.setLowestLevelsOnly(true);
+		assertEquals(100 * 90, query.getEstimatedCardinality(Axis.ROWS));
+		dim0.addFilter(new NFilter(MdxFunctionType.TopCount, 10, "[Measures].[Sales]"));
+		assertEquals(10 * 90, query.getEstimatedCardinality(Axis.ROWS));
+		query.getAxis(Axis.ROWS).addFilter(new NFilter(MdxFunctionType.BottomCount, 25, "[Measures].[Sales]"));
+		assertEquals(25, query.getEstimatedCardinality(Axis.ROWS));
+
+		QueryHierarchy dim3 = query.getHierarchy("Dim3");
+		dim3.includeRange("[Dim3].[M1-10]", "[Dim3].[M1-19]");
+		query.moveHierarchy(dim3, Axis.COLUMNS);
+		assertEquals(5 * 10 * 2, query.getEstimatedCardinality(Axis.COLUMNS));
+
+		query.getHierarchy("Dim2").setMdxSetExpression("[Dim2].[Level1].Members");
+		assertEquals(CardinalityEstimator.UNKNOWN, query.getEstimatedCardinality(Axis.COLUMNS));
+	}
+
+	public void testGuard() throws Exception {
+		query.setCardinalityGuard(new CardinalityGuard(1000, CardinalityGuard.Action.NON_EMPTY));
+		String mdx = query.getMdx();
+		assertTrue(mdx, mdx.contains("NON EMPTY NonEmptyCrossJoin([~ROWS_Dim0_Dim0], [~ROWS_Dim1_Dim1]) ON ROWS"));
+		assertTrue(mdx, mdx.contains("\nCrossJoin([~COLUMNS]"));
+		query.setCardinalityGuard(null);
+		assertFalse(query.getMdx().contains("NON EMPTY"));
+
+		query.setCardinalityGuard(new CardinalityGuard(1000, CardinalityGuard.Action.REJECT));
+		try {
+			query.execute();
+			fail();
+		} catch (CardinalityExceededException e) {
+			assertEquals(Axis.ROWS, e.getAxis());
+			assertEquals(20000, e.getEstimate());
+			assertEquals(1000, e.getMaximum());
+		}
+		assertEquals(0, mock.getOpenStatements());
+		assertFalse(query.getMdx().contains("NON EMPTY"));
+
+		query.setCardinalityGuard(new CardinalityGuard(20000, CardinalityGuard.Action.REJECT));
+		query.execute().close();
+	}
+}
@@ -0,0 +1,94 @@
+package org.saiku.query.util;
+
+import junit.framework.TestCase;
+
+import org.olap4j.Axis;
+import org.olap4j.impl.IdentifierParser;
+import org.olap4j.metadata.Member;
+import org.saiku.query.MockCube;
+import org.saiku.query.Query;
+import org.saiku.query.QueryLevel;
+
+public class MemberLookupCacheTest extends TestCase {
+
+	private MockCube mock;
+
+	@Override
+	protected void setUp() throws Exception {
+		MemberLookupCache.invalidateAll();
+		mock = new MockCube(2, 1, 20);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		MemberLookupCache.invalidateAll();
+	}
+
+	public void testHitsAndMisses() throws Exception {
+		MemberLookupCache cache = MemberLookupCache.forCube(mock.getCube(), null);
+		assertSame(cache, MemberLookupCache.forCube(mock.getCube(), null));
+		assertNotSame(cache, MemberLookupCache.forCube(mock.getCube(), "role"));
+		mock.resetCalls();
+		for (int i = 0; i < 3; i++) {
+			assertNotNull(cache.lookupMember(IdentifierParser.parseIdentifier("[Dim0].[M1-1]")));
+			assertNotNull(cache.lookupMember(IdentifierParser.parseIdentifier("Dim0.M1-1")));
+			assertNull(cache.lookupMember(IdentifierParser.parseIdentifier("[Dim0].[Missing]")));
+		}
+		// names that do not exist are cached as well
+		assertEquals(2, mock.getCalls("Cube.lookupMember"));
+		assertEquals(2, cache.getStatistics().getMisses());
+		assertEquals(7, cache.getStatistics().getHits());
+		assertEquals(2, cache.size());
+
+		// until the schema is invalidated
+		MemberLookupCache.invalidate(mock.getCube().getSchema());
+		cache = MemberLookupCache.forCube(mock.getCube(), null);
+		assertNull(cache.lookupMember(IdentifierParser.parseIdentifier("[Dim0].[Missing]")));
+		assertEquals(3, mock.getCalls("Cube.lookupMember"));
+	}
+
+	public void testConnectionsWithSameNames() throws Exception {
+		MockCube other = new MockCube(2, 1, 20);
+		MemberLookupCache cache = MemberLookupCache.forCube(mock.getCube(), null);
+		MemberLookupCache otherCache = MemberLookupCache.forCube(other.getCube(), null);
+		assertNotSame(cache, otherCache);
+		assertSame(other.getCube(), otherCache.getCube());
+
+		Member member = cache.lookupMember(IdentifierParser.parseIdentifier("[Dim0].[M1-1]"));
+		Member otherMember = otherCache.lookupMember(IdentifierParser.parseIdentifier("[Dim0].[M1-1]"));
+		assertSame(mock.getMembers(mock.getCube().getHierarchies().get("Dim0"), 1).get(1), member);
+		assertSame(other.getMembers(other.getCube().getHierarchies().get("Dim0"), 1).get(1), otherMember);
+		assertEquals(1, other.getCalls("Cube.lookupMember"));
+	}
+
+	public void testBoundedAndInvalidated() throws Exception {
+		MemberLookupCache cache = MemberLookupCache.forCube(mock.getCube(), null);
+		cache.setMaximumSize(5);
+		for (int i = 0; i < 20; i++) {
+			cache.lookupMember(IdentifierParser.parseIdentifier("[Dim0].[M1-" + i + "]"));
+		}
+		assertEquals(5, cache.size());
+
+		MemberLookupCache.invalidate(mock.getCube().getSchema());
+		MemberLookupCache fresh = MemberLookupCache.forCube(mock.getCube(), null);
+		assertNotSame(cache, fresh);
+		assertEquals(0, fresh.size());
+	}
+
+	public void testParameterResolution() throws Exception {
+		Query query = new Query("parameters", mock.getCube());
+		QueryLevel level = query.getHierarchy("Dim0").includeLevel("Level1");
+		query.moveHierarchy(query.getHierarchy("Dim0"), Axis.COLUMNS);
+		level.setParameterName("customers");
+		query.setParameter("customers", "[Dim0].[M1-1], Dim0.M1-2,[Dim0].[M1-3]");
+		mock.resetCalls();
+		for (int i = 0; i < 10; i++) {
+			query.markModified();
+			assertTrue(query.getMdx().contains("[Dim0].[M1-3]"));
+		}
+		assertEquals(3, mock.getCalls("Cube.lookupMember"));
+		CacheStatistics statistics = MemberLookupCache.forCube(mock.getCube(), null).getStatistics();
+		assertEquals(3, statistics.getMisses());
+		assertTrue(statistics.getHits() >= 27);
+	}
+}
@@ -0,0 +1,91 @@
+package org.saiku.query.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.olap4j.metadata.Hierarchy;
+import org.olap4j.metadata.Member;
+import org.saiku.query.MockCube;
+import org.saiku.query.Query;
+import org.saiku.query.QueryHierarchy;
+
+public class MemberResolverTest extends TestCase {
+
+	private MockCube mock;
+	private Hierarchy dim0;
+
+	@Override
+	protected void setUp() throws Exception {
+		mock = new MockCube(2, 2, 50);
+		dim0 = mock.getCube().getHierarchies().get("Dim0");
+	}
+
+	public void testResolveByLevel() throws Exception {
+		List<String> names = new ArrayList<String>();
+		for (Member m : mock.getMembers(dim0, 2)) {
+			names.add(m.getUniqueName());
+		}
+		for (Member m : mock.getMembers(dim0, 1)) {
+			names.add(m.getUniqueName());
+		}
+		names.add("[Dim0].[Unknown]");
+		names.add("Dim0.M1-3");
+		mock.resetCalls();
+		MemberResolver.Resolution resolution = new MemberResolver(mock.getCube()).resolve(names);
+
+		// one lookup and one fetch per level, plus one lookup for the unknown name
+		assertEquals(3, mock.getCalls("Cube.lookupMember"));
+		assertEquals(2, mock.getCalls("Level.getMembers"));
+		assertEquals(Arrays.asList("[Dim0].[Unknown]"), resolution.getUnresolved());
+		assertFalse(resolution.isComplete());
+		assertEquals(101, resolution.getMembersByName().size());
+		// differently quoted names of the same member are reported once
+		assertEquals(100, resolution.getMembers().size());
+		assertEquals(mock.getMembers(dim0, 2).get(0), resolution.getMembers().get(0));
+		assertEquals(mock.getMembers(dim0, 1).get(3), resolution.getMembersByName().get("Dim0.M1-3"));
+	}
+
+	public void testFewNamesAreLookedUpIndividually() throws Exception {
+		List<String> names = new ArrayList<String>();
+		for (Member m : mock.getMembers(dim0, 1).subList(0, 5)) {
+			names.add(m.getUniqueName());
+		}
+		mock.resetCalls();
+		MemberResolver.Resolution resolution = new MemberResolver(mock.getCube()).resolve(names);
+
+		// 4 remaining names of a level with 50 members do not justify a fetch
+		assertEquals(5, mock.getCalls("Cube.lookupMember"));
+		assertEquals(0, mock.getCalls("Level.getMembers"));
+		assertTrue(resolution.isComplete());
+		assertEquals(mock.getMembers(dim0, 1).subList(0, 5), resolution.getMembers());
+	}
+
+	public void testUnresolvedOnceInOrder() throws Exception {
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < 3; i++) {
+			names.add("[Dim0].[Missing" + (2 - i) + "]");
+			names.add("[Dim0].[Missing" + i + "]");
+		}
+		MemberResolver.Resolution resolution = new MemberResolver(mock.getCube()).resolve(names);
+		assertEquals(Arrays.asList("[Dim0].[Missing2]", "[Dim0].[Missing0]", "[Dim0].[Missing1]"),
+				resolution.getUnresolved());
+	}
+
+	public void testIncludeMembersByName() throws Exception {
+		Query query = new Query("names", mock.getCube());
+		QueryHierarchy qh = query.getHierarchy("Dim0");
+		List<String> unresolved = qh.includeMembersByName(Arrays.asList(
+				"[Dim0].[M1-1]", "[Dim0].[M1-0]", "[Dim1].[M1-0]", "[Dim0].[Nope]"));
+		assertEquals(Arrays.asList("[Dim1].[M1-0]", "[Dim0].[Nope]"), unresolved);
+		List<Member> inclusions = qh.getActiveLevel("Level1").getInclusions();
+		assertEquals(2, inclusions.size());
+		assertEquals("[Dim0].[M1-1]", inclusions.get(0).getUniqueName());
+
+		assertTrue(qh.excludeMembersByName(Arrays.asList("[Dim0].[M1-1]")).isEmpty());
+		assertEquals(1, inclusions.size());
+		assertEquals(1, qh.getActiveLevel("Level1").getExclusions().size());
+	}
+}
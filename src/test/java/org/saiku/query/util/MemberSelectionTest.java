@@ -0,0 +1,135 @@
+package org.saiku.query.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+
+import junit.framework.TestCase;
+
+import org.olap4j.metadata.Member;
+import org.saiku.query.MockCube;
+
+public class MemberSelectionTest extends TestCase {
+
+	private List<Member> members;
+
+	@Override
+	protected void setUp() throws Exception {
+		MockCube mock = new MockCube(1, 1, 100);
+		members = mock.getMembers(mock.getCube().getHierarchies().get(0), 1);
+	}
+
+	public void testInsertionOrderWithoutDuplicates() {
+		MemberSelection selection = new MemberSelection();
+		assertTrue(selection.add(members.get(3)));
+		assertTrue(selection.add(members.get(1)));
+		assertFalse(selection.add(members.get(3)));
+		assertTrue(selection.add(members.get(2)));
+		assertEquals(3, selection.size());
+		assertEquals(members.get(3), selection.get(0));
+		assertEquals(members.get(1), selection.get(1));
+		assertEquals(members.get(2), selection.get(2));
+		assertEquals(2, selection.indexOf(members.get(2)));
+		assertEquals(-1, selection.indexOf(members.get(50)));
+	}
+
+	public void testRemoveKeepsOrder() {
+		MemberSelection selection = new MemberSelection(members);
+		for (int i = 0; i < members.size(); i += 2) {
+			assertTrue(selection.remove(members.get(i)));
+		}
+		assertFalse(selection.remove(members.get(0)));
+		assertEquals(50, selection.size());
+		List<Member> expected = new ArrayList<Member>();
+		for (int i = 1; i < members.size(); i += 2) {
+			expected.add(members.get(i));
+		}
+		assertEquals(expected, new ArrayList<Member>(selection));
+		assertEquals(expected.get(10), selection.get(10));
+		assertFalse(selection.contains(members.get(0)));
+		assertTrue(selection.contains(members.get(1)));
+
+		// removed members can be added again, at the end
+		selection.add(members.get(0));
+		assertEquals(members.get(0), selection.get(50));
+	}
+
+	public void testPositionalChanges() {
+		MemberSelection selection = new MemberSelection(members.subList(0, 5));
+		selection.remove(members.get(1));
+		selection.add(0, members.get(10));
+		assertEquals(members.get(10), selection.get(0));
+		assertEquals(members.get(0), selection.get(1));
+		assertEquals(2, selection.indexOf(members.get(2)));
+		assertEquals(members.get(2), selection.set(2, members.get(20)));
+		assertFalse(selection.contains(members.get(2)));
+		assertEquals(2, selection.indexOf(members.get(20)));
+		assertEquals(members.get(10), selection.remove(0));
+		assertEquals(4, selection.size());
+	}
+
+	public void testIteratorRemove() {
+		MemberSelection selection = new MemberSelection(members.subList(0, 10));
+		Iterator<Member> it = selection.iterator();
+		int i = 0;
+		while (it.hasNext()) {
+			it.next();
+			if (i++ % 3 != 0) {
+				it.remove();
+			}
+		}
+		assertEquals(4, selection.size());
+		assertEquals(members.get(3), selection.get(1));
+		assertEquals(members.get(9), selection.get(3));
+	}
+
+	public void testReadsWhileIteratingAfterRemove() {
+		MemberSelection selection = new MemberSelection(members.subList(0, 10));
+		selection.remove(members.get(1));
+		selection.remove(members.get(4));
+		List<Member> expected = new ArrayList<Member>(members.subList(0, 10));
+		expected.remove(members.get(1));
+		expected.remove(members.get(4));
+
+		// a read compacts the removed slots in the middle of the iteration
+		List<Member> iterated = new ArrayList<Member>();
+		Iterator<Member> it = selection.iterator();
+		for (int i = 0; it.hasNext(); i++) {
+			iterated.add(it.next());
+			if (i == 0) {
+				assertEquals(members.get(5), selection.get(3));
+			}
+		}
+		assertEquals(expected, iterated);
+
+		selection.remove(members.get(7));
+		expected.remove(members.get(7));
+		ListIterator<Member> listIterator = selection.listIterator();
+		while (listIterator.hasNext()) {
+			int index = listIterator.nextIndex();
+			assertEquals(selection.get(index), listIterator.next());
+		}
+		assertEquals(expected, selection);
+		assertEquals(expected.hashCode(), selection.hashCode());
+
+		// removing through the iterator after a compaction
+		selection.remove(members.get(0));
+		expected.remove(members.get(0));
+		it = selection.iterator();
+		it.next();
+		assertEquals(2, selection.indexOf(members.get(5)));
+		it.next();
+		it.remove();
+		expected.remove(1);
+		assertEquals(expected, selection);
+	}
+
+	public void testClear() {
+		MemberSelection selection = new MemberSelection(members);
+		selection.clear();
+		assertTrue(selection.isEmpty());
+		assertFalse(selection.contains(members.get(0)));
+		assertFalse(selection.iterator().hasNext());
+	}
+}